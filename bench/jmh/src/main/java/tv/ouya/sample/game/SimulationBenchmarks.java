@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The benchmarks that need nothing done between batches, run by JMH. The score is
+ * batches per second, getBatchSize() operations each; the ops counter next to it is
+ * operations per second, which is what BenchmarkRunner prints. Pick benchmarks with
+ * -p batched=...
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulationBenchmarks {
+    @Param({ "drift", "findContacts", "wall.doesCollide", "wall.slideAgainst", "wall.projectOntoWall", "wall.sweep",
+            "wallQuery", "snapshot.encodeFull", "snapshot.encodeDelta", "snapshot.decodeFull", "snapshot.decodeDelta",
+            "rollback.save", "rollback.restore", "rollback.frame" })
+    public String batched;
+
+    private Benchmark b;
+    private int batch;
+
+    /**
+     * Operations done, as opposed to batches.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Ops {
+        public long ops;
+    }
+
+    @Setup
+    public void setUp() {
+        b = BenchmarkRunner.getBenchmark(batched);
+        try {
+            if (b.getClass().getMethod("prepare").getDeclaringClass() != Benchmark.class) {
+                throw new IllegalArgumentException(batched + " has a prepare(), it belongs in SteppedBenchmarks");
+            }
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+        b.setUp();
+        batch = b.getBatchSize();
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public void run(Ops counter, Blackhole blackhole) {
+        blackhole.consume(b.run(batch));
+        counter.ops += batch;
+    }
+}
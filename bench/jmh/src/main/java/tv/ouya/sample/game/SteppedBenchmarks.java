@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The benchmarks that call prepare() before every operation, run by JMH. Each one is
+ * a whole world step or more, long enough for a per-invocation setup not to skew the
+ * timing. replay needs -p stepped=replay and -Dbench.replay in jmh.jvmargs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SteppedBenchmarks {
+    @Param({ "tick", "bulletExpiry" })
+    public String stepped;
+
+    private Benchmark b;
+
+    @Setup
+    public void setUp() {
+        b = BenchmarkRunner.getBenchmark(stepped);
+        if (b.getBatchSize() != 1) {
+            throw new IllegalArgumentException(stepped + " runs in batches, it belongs in SimulationBenchmarks");
+        }
+        b.setUp();
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare() {
+        b.prepare();
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public void run(Blackhole blackhole) {
+        blackhole.consume(b.run(1));
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.graphics;
+
+/**
+ * Desktop stand-in for the framework class. Every method in the SDK's android.jar
+ * just throws "Stub!", so the benchmarks put this one ahead of it on the classpath.
+ * Only covers what the simulation uses.
+ */
+public class PointF {
+    public float x;
+    public float y;
+
+    public PointF() {
+    }
+
+    public PointF(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public final void set(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public final void negate() {
+        x = -x;
+        y = -y;
+    }
+
+    public final float length() {
+        return length(x, y);
+    }
+
+    public static float length(float x, float y) {
+        return (float) Math.sqrt(x * x + y * y);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Guards the zero-garbage goal for the game loop:
+ *
+ *   ant -f bench/build.xml allocations -Dallocations.threshold=0
+ *
+ * Plays a scripted match (see ScriptedInput) on the BOXY level with the Profiler on,
+ * keeping the asteroid field topped up so splits, deaths and respawns keep happening.
+ * The first time through is only there to grow every pool and buffer to the match's
+ * peak and to let the JIT settle. Then the same world goes back to the state it started
+ * the match in (see WorldState) and plays it again, and what every step of that
+ * allocates on the stepping thread is measured. Exits with status 1 if any of them
+ * allocates more than threshold bytes, naming the worst one, or if the second time
+ * through didn't end up where the first one did.
+ */
+public class AllocationCheck {
+    static private final long c_seed = 12345L;
+
+    private final com.sun.management.ThreadMXBean allocation;
+    private final long threadId = Thread.currentThread().getId();
+    private final GameWorld world = Benchmark.newWorld(512);
+    private final WorldState start = new WorldState();
+    private ScriptedInput script;
+    private final int ticks;
+    private final int asteroids;
+
+    private long total;
+    private long worst;
+    private int worstTick;
+    private int over;
+    private long hash;
+
+    public AllocationCheck(com.sun.management.ThreadMXBean allocation, int ticks, int asteroids) {
+        this.allocation = allocation;
+        this.ticks = ticks;
+        this.asteroids = asteroids;
+        world.getProfiler().setEnabled(true);
+        // Every run gets a script of its own, starting over from its first tick
+        world.startLevel(Options.Level.BOXY, c_seed, new InputSource() {
+            @Override
+            public boolean poll(long tick, InputFrame frame) {
+                return script.poll(tick, frame);
+            }
+        });
+        world.saveState(start);
+    }
+
+    /**
+     * Plays the match once; returns the number of steps taken.
+     */
+    public int play(long threshold) {
+        total = 0;
+        worst = 0;
+        worstTick = -1;
+        over = 0;
+        world.restoreState(start);
+        script = new ScriptedInput(c_seed, ticks);
+        final AsteroidField field = world.getAsteroidField();
+
+        int steps = 0;
+        for (; steps < ticks; ++steps) {
+            final long before = allocation.getThreadAllocatedBytes(threadId);
+            if (field.getLiveCount() < asteroids) {
+                field.spawn();
+            }
+            if (!world.step()) {
+                break;
+            }
+            final long bytes = allocation.getThreadAllocatedBytes(threadId) - before;
+            total += bytes;
+            if (bytes > worst) {
+                worst = bytes;
+                worstTick = steps;
+            }
+            if (bytes > threshold) {
+                ++over;
+            }
+        }
+        hash = world.getStateHash();
+        return steps;
+    }
+
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long threshold = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        int asteroids = args.length > 2 ? Integer.parseInt(args[2]) : 24;
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            System.out.println("This JVM can't count allocated bytes per thread");
+            System.exit(2);
+        }
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) bean;
+        allocation.setThreadAllocatedMemoryEnabled(true);
+
+        AllocationCheck check = new AllocationCheck(allocation, ticks, asteroids);
+        long warmupHash = 0;
+        for (int run = 0; run < 2; ++run) {
+            final int steps = check.play(threshold);
+            System.out.println(String.format(Locale.US,
+                    "%s: %d steps, %.1f B/step mean, worst %d B at tick %d, final hash %016x",
+                    run == 0 ? "warmup" : "measured", steps, steps > 0 ? (double) check.total / steps : 0.0,
+                    check.worst, check.worstTick, check.hash));
+            if (run == 0) {
+                warmupHash = check.hash;
+            }
+        }
+        if (check.hash != warmupHash) {
+            System.out.println("The measured run didn't play the same match as the warmup");
+            System.exit(1);
+        }
+        if (check.over > 0) {
+            System.out.println(String.format(Locale.US, "%d steps allocated more than %d bytes", check.over, threshold));
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import android.graphics.Color;
+
+import javax.microedition.khronos.opengles.GL10;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks MeshBatch against a RecordingGL, with and without GL11 buffer objects:
+ *
+ *   ant -f bench/build.xml batchcheck
+ *
+ * For every mesh type: a few dozen instances come out as exactly one glDrawElements;
+ * one instance more than fits into c_maxVertices vertices comes out as exactly one
+ * more; and every streamed vertex lands where the old per-object path put it, i.e.
+ * glTranslatef, glRotatef and glScalef on the modelview matrix, within c_tolerance.
+ * Exits with status 1 at the first thing that's off.
+ */
+public class BatchCheck {
+    // Same as GameRenderer's
+    static private final int c_maxVertices = 4096;
+    static private final int c_instances = 40;
+    static private final float c_tolerance = 1e-4f;
+    static private final float c_alpha = 0.75f;
+    static private final int[] c_colors = { Color.CYAN, Color.RED, Color.GRAY, Color.GREEN };
+
+    private final Random random = new Random(12345L);
+    private final RecordingGL reference = new RecordingGL(false);
+    private final float[] expected = new float[3];
+    private int draws = 0;
+    private int vertices = 0;
+
+    private String failure = null;
+
+    // Instances added since the last check, for comparing against
+    private float[] x = new float[0];
+    private float[] y = new float[0];
+    private float[] rotation = new float[0];
+    private float[] scaleX = new float[0];
+    private float[] scaleY = new float[0];
+    private int[] color = new int[0];
+
+    public boolean check(MeshCache.MeshType type, boolean withGL11) {
+        final Mesh mesh = MeshCache.get(type);
+        final RecordingGL recorder = new RecordingGL(withGL11);
+        final GL10 gl = recorder.getGL();
+        final MeshBatch batch = new MeshBatch(mesh, c_maxVertices);
+        batch.onSurfaceCreated(gl);
+        final String what = type + (withGL11 ? " with GL11" : " with GL10");
+
+        // A handful of instances, one draw
+        recorder.reset();
+        addInstances(batch, gl, c_instances);
+        batch.flush(gl);
+        if (!expectDraws(what, recorder, 1) || !expectContents(what, mesh, recorder.getDraws().get(0), 0, c_instances)) {
+            return false;
+        }
+
+        // Everything that fits, one draw; one more, one more draw
+        final int capacity = batch.getCapacity();
+        if (capacity * mesh.getVertexCount() > c_maxVertices || (capacity + 1) * mesh.getVertexCount() <= c_maxVertices) {
+            return fail(what + ": room for " + capacity + " instances of " + mesh.getVertexCount() + " vertices");
+        }
+        recorder.reset();
+        addInstances(batch, gl, capacity);
+        batch.flush(gl);
+        if (!expectDraws(what + ", full batch", recorder, 1)) {
+            return false;
+        }
+        recorder.reset();
+        addInstances(batch, gl, capacity + 1);
+        batch.flush(gl);
+        if (!expectDraws(what + ", one over", recorder, 2)
+                || !expectContents(what + ", one over", mesh, recorder.getDraws().get(0), 0, capacity)
+                || !expectContents(what + ", one over", mesh, recorder.getDraws().get(1), capacity, 1)) {
+            return false;
+        }
+        return batch.takeDrawCalls() == 4 || fail(what + ": takeDrawCalls() doesn't say 4");
+    }
+
+    private void addInstances(MeshBatch batch, GL10 gl, int count) {
+        if (x.length < count) {
+            x = new float[count];
+            y = new float[count];
+            rotation = new float[count];
+            scaleX = new float[count];
+            scaleY = new float[count];
+            color = new int[count];
+        }
+        for (int i = 0; i < count; ++i) {
+            x[i] = random.nextFloat() * GameRenderer.BOARD_WIDTH;
+            y[i] = random.nextFloat() * GameRenderer.BOARD_HEIGHT;
+            rotation[i] = random.nextFloat() * 720.0f - 360.0f;
+            scaleX[i] = random.nextFloat() * 1.5f + 0.25f;
+            scaleY[i] = random.nextFloat() * 1.5f + 0.25f;
+            color[i] = c_colors[random.nextInt(c_colors.length)];
+            batch.add(gl, x[i], y[i], rotation[i], scaleX[i], scaleY[i], color[i]);
+        }
+    }
+
+    private boolean expectDraws(String what, RecordingGL recorder, int count) {
+        final int calls = recorder.countCalls("glDrawElements");
+        if (calls != count) {
+            return fail(String.format(Locale.US, "%s: %d glDrawElements, expected %d", what, calls, count));
+        }
+        draws += calls;
+        return true;
+    }
+
+    /**
+     * The draw holds instances first .. first + count of the last addInstances(), in
+     * order.
+     */
+    private boolean expectContents(String what, Mesh mesh, RecordingGL.Draw draw, int first, int count) {
+        final int vertexCount = mesh.getVertexCount();
+        final short[] meshIndices = mesh.indices;
+        if (draw.mode != GL10.GL_TRIANGLES || draw.indexCount != count * meshIndices.length) {
+            return fail(String.format(Locale.US, "%s: drew %d indices, expected %d triangles' worth",
+                    what, draw.indexCount, count * meshIndices.length / 3));
+        }
+        for (int i = 0; i < draw.indexCount; ++i) {
+            final int index = (i / meshIndices.length) * vertexCount + meshIndices[i % meshIndices.length];
+            if (draw.indices[i] != index) {
+                return fail(String.format(Locale.US, "%s: index %d is %d, expected %d", what, i, draw.indices[i], index));
+            }
+        }
+
+        final GL10 old = reference.getGL();
+        final float[] coords = mesh.coords;
+        for (int n = 0; n < count; ++n) {
+            final int instance = first + n;
+            // What RenderObject.doRender() used to do before drawing the mesh
+            old.glLoadIdentity();
+            old.glPushMatrix();
+            old.glTranslatef(x[instance], y[instance], 5.0f);
+            old.glRotatef(rotation[instance], 0.0f, 0.0f, 1.0f);
+            old.glScalef(scaleX[instance], scaleY[instance], 1.0f);
+            for (int v = 0; v < vertexCount; ++v) {
+                reference.transform(coords[v * 3], coords[v * 3 + 1], coords[v * 3 + 2], expected);
+                final int p = (n * vertexCount + v) * 3;
+                for (int k = 0; k < 3; ++k) {
+                    if (Math.abs(draw.vertices[p + k] - expected[k]) > c_tolerance) {
+                        return fail(String.format(Locale.US, "%s: instance %d vertex %d is (%f, %f, %f), expected (%f, %f, %f)",
+                                what, instance, v, draw.vertices[p], draw.vertices[p + 1], draw.vertices[p + 2],
+                                expected[0], expected[1], expected[2]));
+                    }
+                }
+                final int c = (n * vertexCount + v) * 4;
+                if (draw.colors == null
+                        || draw.colors[c] != Color.red(color[instance]) / 255.0f
+                        || draw.colors[c + 1] != Color.green(color[instance]) / 255.0f
+                        || draw.colors[c + 2] != Color.blue(color[instance]) / 255.0f
+                        || draw.colors[c + 3] != c_alpha) {
+                    return fail(String.format(Locale.US, "%s: instance %d vertex %d has the wrong color", what, instance, v));
+                }
+                ++vertices;
+            }
+            old.glPopMatrix();
+        }
+        reference.reset();
+        return true;
+    }
+
+    private boolean fail(String message) {
+        failure = message;
+        return false;
+    }
+
+    public static void main(String[] args) {
+        BatchCheck check = new BatchCheck();
+        for (MeshCache.MeshType type : MeshCache.MeshType.values()) {
+            for (int gl11 = 0; gl11 < 2; ++gl11) {
+                if (!check.check(type, gl11 == 1)) {
+                    System.out.println(check.failure);
+                    System.exit(1);
+                }
+            }
+        }
+        System.out.println(String.format(Locale.US, "%d mesh types, %d draws, %d vertices checked, all as expected",
+                MeshCache.MeshType.values().length, check.draws, check.vertices));
+    }
+}
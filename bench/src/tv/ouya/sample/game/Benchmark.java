@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+/**
+ * One measured operation for BenchmarkRunner.
+ *
+ * The runner calls prepare() (not timed) and then run() with a batch of operations
+ * (timed), over and over until an iteration's time is up. Whatever run() returns gets
+ * folded into a sink so the JIT can't throw the work away.
+ */
+public abstract class Benchmark {
+    private final String name;
+
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Operations per call to run(). Keep it at 1 when prepare() has to reset state
+     * before every single operation.
+     */
+    public int getBatchSize() {
+        return 1;
+    }
+
+    /**
+     * Called once before warmup.
+     */
+    public void setUp() {
+    }
+
+    /**
+     * Called before every batch, outside the timed region.
+     */
+    public void prepare() {
+    }
+
+    public abstract double run(int ops);
+
+    /**
+     * Short description of the parameters, printed with the results.
+     */
+    public String getParams() {
+        return "";
+    }
+
+    // Helpers for building a headless world
+
+    static protected GameWorld newWorld(int bulletPoolSize) {
+        return new GameWorld(new Clock() {
+            @Override
+            public long nanoTime() {
+                return 0;
+            }
+        }, bulletPoolSize);
+    }
+
+    /**
+     * Players that are in the game but have no controller, so they sit still unless
+     * somebody calls shoot() on them.
+     */
+    static protected Player[] addPlayers(GameWorld world, int count) {
+        final int c_firstDeviceId = 1000;
+        Player[] players = new Player[count];
+        for (int i = 0; i < count; ++i) {
+            players[i] = new Player(world, i % 4);
+            players[i].init(c_firstDeviceId + i);
+        }
+        return players;
+    }
+
+    /**
+     * count more asteroids, spawned right away: the world's AsteroidField gets its cap
+     * and spawn budget raised as far as that takes.
+     */
+    static protected Asteroid[] addAsteroids(GameWorld world, int count) {
+        AsteroidField field = world.getAsteroidField();
+        field.setMaxLive(Math.max(field.getMaxLive(), field.getLiveCount() + count));
+        field.setSpawnBudget(Math.max(field.getSpawnBudget(), count));
+        field.beginStep();
+        Asteroid[] asteroids = new Asteroid[count];
+        for (int i = 0; i < count; ++i) {
+            asteroids[i] = field.spawn();
+        }
+        return asteroids;
+    }
+
+    /**
+     * An asteroid that never goes into the world, for poking at queries with.
+     */
+    static protected Asteroid newProbe(GameWorld world, int index) {
+        Asteroid a = new Asteroid(world, null, index);
+        a.spawnAtEdge();
+        return a;
+    }
+}
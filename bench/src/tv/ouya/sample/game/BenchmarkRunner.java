@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs the simulation benchmarks headless on a desktop JVM and prints throughput and
+ * allocation per operation, in the spirit of JMH with the gc profiler.
+ *
+ *   ant -f bench/build.xml run [-Dbench.filter=tick] [-Dbench.time=2000] ...
+ *
+ * Every benchmark gets bench.warmup iterations that are thrown away, then
+ * bench.iterations measured ones, each running for bench.time milliseconds. The score
+ * is the mean ops/s with the standard deviation across iterations; allocation is
+ * counted per thread around the timed region only, so it needs a HotSpot-style JVM.
+ */
+public class BenchmarkRunner {
+    static private final int c_warmupIterations = Integer.getInteger("bench.warmup", 3);
+    static private final int c_measureIterations = Integer.getInteger("bench.iterations", 5);
+    static private final long c_iterationNanos = Long.getLong("bench.time", 1000) * 1000000L;
+
+    static private double s_sink;
+
+    private final com.sun.management.ThreadMXBean allocationBean;
+    private final long threadId = Thread.currentThread().getId();
+
+    // Totals for the iteration in progress
+    private long ops;
+    private long nanos;
+    private long bytes;
+
+    public BenchmarkRunner() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation = null;
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            allocation = (com.sun.management.ThreadMXBean) bean;
+            if (allocation.isThreadAllocatedMemorySupported()) {
+                allocation.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                allocation = null;
+            }
+        }
+        allocationBean = allocation;
+    }
+
+    static public List<Benchmark> getBenchmarks() {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new DriftBenchmark());
+        benchmarks.add(new CollisionQueryBenchmark());
+        for (WallBenchmark.Op op : WallBenchmark.Op.values()) {
+            benchmarks.add(new WallBenchmark(op));
+        }
+        benchmarks.add(new WallQueryBenchmark());
+        benchmarks.add(new TickBenchmark());
+        benchmarks.add(new BulletExpiryBenchmark());
+        for (SnapshotCodecBenchmark.Op op : SnapshotCodecBenchmark.Op.values()) {
+            benchmarks.add(new SnapshotCodecBenchmark(op));
+        }
+        for (RollbackBenchmark.Op op : RollbackBenchmark.Op.values()) {
+            benchmarks.add(new RollbackBenchmark(op));
+        }
+        String replay = System.getProperty("bench.replay", "");
+        if (replay.length() > 0) {
+            benchmarks.add(new ReplayBenchmark(new File(replay)));
+        }
+        return benchmarks;
+    }
+
+    /**
+     * The benchmark called name, for running one at a time under another harness.
+     */
+    static public Benchmark getBenchmark(String name) {
+        for (Benchmark b : getBenchmarks()) {
+            if (b.getName().equals(name)) {
+                return b;
+            }
+        }
+        throw new IllegalArgumentException("No benchmark called " + name);
+    }
+
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : System.getProperty("bench.filter", "");
+        BenchmarkRunner runner = new BenchmarkRunner();
+        if (runner.allocationBean == null) {
+            System.out.println("# Per-thread allocation counting isn't available, B/op will read -1");
+        }
+        System.out.println(String.format(Locale.US, "# %d warmup, %d measured iterations of %d ms",
+                c_warmupIterations, c_measureIterations, c_iterationNanos / 1000000L));
+        System.out.println(String.format(Locale.US, "%-28s %14s %12s %12s %12s %12s %6s  %s",
+                "Benchmark", "ops/s", "+-", "ns/op", "B/op", "MB/s", "GCs", "Params"));
+
+        for (Benchmark b : getBenchmarks()) {
+            if (filter.length() == 0 || b.getName().contains(filter)) {
+                runner.run(b);
+            }
+        }
+    }
+
+    public void run(Benchmark b) {
+        b.setUp();
+        for (int i = 0; i < c_warmupIterations; ++i) {
+            iterate(b);
+        }
+
+        final long gcsBefore = countCollections();
+        double[] scores = new double[c_measureIterations];
+        long totalOps = 0;
+        long totalNanos = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < c_measureIterations; ++i) {
+            iterate(b);
+            scores[i] = ops * 1e9 / Math.max(1, nanos);
+            totalOps += ops;
+            totalNanos += nanos;
+            totalBytes += bytes;
+        }
+        final long gcs = countCollections() - gcsBefore;
+
+        double mean = 0.0;
+        for (double s : scores) {
+            mean += s;
+        }
+        mean /= scores.length;
+        double variance = 0.0;
+        for (double s : scores) {
+            variance += (s - mean) * (s - mean);
+        }
+        double error = scores.length > 1 ? Math.sqrt(variance / (scores.length - 1)) : 0.0;
+
+        double nsPerOp = (double) totalNanos / Math.max(1, totalOps);
+        double bytesPerOp = allocationBean != null ? (double) totalBytes / Math.max(1, totalOps) : -1.0;
+        double mbPerSecond = allocationBean != null ? totalBytes * 1e9 / Math.max(1, totalNanos) / (1024.0 * 1024.0) : -1.0;
+
+        System.out.println(String.format(Locale.US, "%-28s %14.1f %12.1f %12.1f %12.1f %12.2f %6d  %s",
+                b.getName(), mean, error, nsPerOp, bytesPerOp, mbPerSecond, gcs, b.getParams()));
+    }
+
+    private void iterate(Benchmark b) {
+        ops = 0;
+        nanos = 0;
+        bytes = 0;
+        final int batch = b.getBatchSize();
+        final long deadline = System.nanoTime() + c_iterationNanos;
+        do {
+            b.prepare();
+            final long bytesBefore = allocatedBytes();
+            final long start = System.nanoTime();
+            s_sink += b.run(batch);
+            final long end = System.nanoTime();
+            bytes += allocatedBytes() - bytesBefore;
+            nanos += end - start;
+            ops += batch;
+        } while (System.nanoTime() < deadline);
+    }
+
+    private long allocatedBytes() {
+        return allocationBean != null ? allocationBean.getThreadAllocatedBytes(threadId) : 0;
+    }
+
+    static private long countCollections() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * Keeps the sink alive; nothing interesting in it.
+     */
+    static public double getSink() {
+        return s_sink;
+    }
+}
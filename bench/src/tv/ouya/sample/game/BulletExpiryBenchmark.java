@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Random;
+
+/**
+ * The one step in which bench.expiring bullets (5000 by default) that were all fired on
+ * the same tick run out of time together and leave the world.
+ *
+ * Firing them and stepping up to the tick before they expire happens in prepare(), so
+ * only the expiry step itself is timed.
+ */
+public class BulletExpiryBenchmark extends Benchmark {
+    // Bullet lives for 0.5s
+    static private final int c_bulletLifetimeTicks = GameWorld.TICKS_PER_SECOND / 2;
+
+    private final int bulletCount = Integer.getInteger("bench.expiring", 5000);
+
+    private GameWorld world;
+    private Player shooter;
+    private final Random random = new Random(42);
+
+    public BulletExpiryBenchmark() {
+        super("bulletExpiry");
+    }
+
+    @Override
+    public String getParams() {
+        return "bullets=" + bulletCount;
+    }
+
+    @Override
+    public void setUp() {
+        world = newWorld(bulletCount);
+        // Never gets a device, so it just sits there; owning the bullets keeps them
+        // from hitting it
+        shooter = new Player(world, 0);
+        world.step();
+    }
+
+    @Override
+    public void prepare() {
+        BulletPool pool = world.getBulletPool();
+        for (int i = 0; i < bulletCount; ++i) {
+            pool.fire(shooter,
+                    random.nextFloat() * GameRenderer.BOARD_WIDTH,
+                    random.nextFloat() * GameRenderer.BOARD_HEIGHT,
+                    random.nextFloat() * 360.0f, 0);
+        }
+        for (int i = 0; i < c_bulletLifetimeTicks - 1; ++i) {
+            world.step();
+        }
+    }
+
+    @Override
+    public double run(int ops) {
+        for (int op = 0; op < ops; ++op) {
+            world.step();
+        }
+        return world.getBulletPool().getLiveCount();
+    }
+}
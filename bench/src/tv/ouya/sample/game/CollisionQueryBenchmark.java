@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Random;
+
+/**
+ * Broad and narrow phase for every live object once, i.e. GameWorld.findContacts()
+ * the way a step uses it, on the BOXY level with bench.players players,
+ * bench.asteroids asteroids and bench.bullets bullets.
+ */
+public class CollisionQueryBenchmark extends Benchmark {
+    private final int playerCount = Integer.getInteger("bench.players", 4);
+    private final int asteroidCount = Integer.getInteger("bench.asteroids", 32);
+    private final int bulletCount = Integer.getInteger("bench.bullets", 256);
+
+    private GameWorld world;
+    private final ContactBuffer contacts = new ContactBuffer();
+
+    public CollisionQueryBenchmark() {
+        super("findContacts");
+    }
+
+    @Override
+    public int getBatchSize() {
+        return 16;
+    }
+
+    @Override
+    public String getParams() {
+        return "players=" + playerCount + " asteroids=" + asteroidCount + " bullets=" + bulletCount;
+    }
+
+    @Override
+    public void setUp() {
+        world = newWorld(bulletCount);
+        world.loadWalls(Options.Level.BOXY);
+        Player[] players = addPlayers(world, playerCount);
+        addAsteroids(world, asteroidCount);
+        BulletPool pool = world.getBulletPool();
+        Random random = new Random(42);
+        for (int i = 0; i < bulletCount; ++i) {
+            pool.fire(playerCount > 0 ? players[i % playerCount] : null,
+                    random.nextFloat() * GameRenderer.BOARD_WIDTH,
+                    random.nextFloat() * GameRenderer.BOARD_HEIGHT,
+                    random.nextFloat() * 360.0f, 0);
+        }
+        // Applies the spawns and bins everything
+        world.step();
+    }
+
+    @Override
+    public double run(int ops) {
+        final GameWorld world = this.world;
+        final int count = world.getObjectCount();
+        final ContactBuffer contacts = this.contacts;
+        int hits = 0;
+        for (int op = 0; op < ops; ++op) {
+            contacts.clear();
+            for (int i = 0; i < count; ++i) {
+                world.findContacts(world.getObject(i), contacts);
+            }
+            hits += contacts.getCount();
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks the set of contact pairs a collision phase reports:
+ *
+ *   ant -f bench/build.xml contactcheck -Dcontactcheck.worlds=100
+ *
+ * Lays out random worlds like GridCheck does and runs one step with nothing
+ * responding to contacts. Then a CollisionPhase on one thread and one on
+ * contactcheck.threads threads both query every live object, and a brute force goes
+ * over every pair of live objects and every object and wall, with a filter of its own
+ * rather than RenderObject.canCollide(). All three have to agree on the set of pairs
+ * and their times, every pair has to be in there only once (one way round or the
+ * other), and the two phases have to agree on the order too.
+ *
+ * Even worlds keep the game's own masks, so no player may touch another player and no
+ * bullet may touch whoever shot it. Odd worlds get random masks, layers and owners
+ * first. Exits with status 1 at the first difference.
+ */
+public class ContactCheck {
+    static private final float c_maxBulletSpeed = 1.4f;
+    static private final float c_maxSpeed = 1.0f;
+
+    private final int objects;
+    private final CollisionPhase serial = new CollisionPhase(1);
+    private final CollisionPhase parallel;
+
+    // Brute force contacts: time by pair key, see key()
+    private final Map<Long, Float> expected = new HashMap<Long, Float>();
+    private final Map<Long, Float> found = new HashMap<Long, Float>();
+
+    private long pairs;
+    private long wallPairs;
+    private long keptOut;           // hits the filters stopped in the game's own worlds
+    private long randomKeptOut;     // and in the ones with random filters
+    private String failure = null;
+
+    public ContactCheck(int objects, int threads) {
+        this.objects = objects;
+        parallel = new CollisionPhase(threads);
+    }
+
+    public boolean check(long seed) {
+        final Random random = new Random(seed);
+        final Options.Level[] levels = Options.Level.values();
+        final GameWorld world = Benchmark.newWorld(objects);
+        world.loadWalls(levels[(int) (seed % levels.length)]);
+        GridCheck.leaveAlone(world.getCollisionTable());
+
+        final Player[] players = Benchmark.addPlayers(world, 4);
+        for (Player p : players) {
+            GridCheck.scatter(p, random, c_maxSpeed);
+        }
+        // Two of them bumping into each other, if they could
+        players[1].setPosition(players[0].getX(), players[0].getY());
+        for (Asteroid a : Benchmark.addAsteroids(world, objects / 2)) {
+            GridCheck.scatter(a, random, c_maxSpeed);
+        }
+        final BulletPool pool = world.getBulletPool();
+        for (int i = 0; i < objects / 2; ++i) {
+            final Player shooter = players[i % players.length];
+            final Bullet b = pool.fire(shooter, 0.0f, 0.0f, 0.0f, 0);
+            if (b != null) {
+                GridCheck.scatter(b, random, c_maxBulletSpeed);
+                // Some of them right on top of whoever shot them
+                if (random.nextInt(4) == 0) {
+                    b.setPosition(shooter.getX(), shooter.getY());
+                }
+            }
+        }
+        world.step();
+
+        final int count = world.getObjectCount();
+        final RenderObject[] live = new RenderObject[count];
+        for (int i = 0; i < count; ++i) {
+            live[i] = world.getObject(i);
+        }
+        final boolean randomFilters = (seed & 1) != 0;
+        if (randomFilters) {
+            randomizeFilters(random, live);
+        }
+        serial.run(world, live, count);
+        parallel.run(world, live, count);
+
+        final long filtered = bruteForce(world, live);
+        if (randomFilters) {
+            randomKeptOut += filtered;
+        } else {
+            keptOut += filtered;
+        }
+        return collect(seed, world, serial.getContacts())
+                && (randomFilters || gameRules(seed, world, serial.getContacts()))
+                && sameOrder(seed, serial.getContacts(), parallel.getContacts());
+    }
+
+    /**
+     * Any mask (none at all now and then), any non-empty set of layers, and a quarter
+     * of them owned by some other object.
+     */
+    static private void randomizeFilters(Random random, RenderObject[] live) {
+        for (RenderObject o : live) {
+            o.setCollisionMask(random.nextInt(8) == 0 ? 0 : random.nextInt(RenderObject.LAYER_ALL + 1));
+            o.collisionLayers = 1 + random.nextInt(RenderObject.LAYER_ALL);
+            o.setOwner(random.nextInt(4) == 0 ? live[random.nextInt(live.length)] : null);
+        }
+    }
+
+    /**
+     * Whether a and b may touch: each one's mask has to take in the other one's layers,
+     * and neither may have fired the other.
+     */
+    static private boolean allows(RenderObject a, RenderObject b) {
+        final boolean aTakesB = (a.getCollisionMask() & b.collisionLayers) != 0;
+        final boolean bTakesA = (b.getCollisionMask() & a.collisionLayers) != 0;
+        final boolean fired = a.owner == b || b.owner == a;
+        return aTakesB && bTakesA && !fired;
+    }
+
+    /**
+     * The pairs the game's own masks rule out.
+     */
+    private boolean gameRules(long seed, GameWorld world, ContactBuffer contacts) {
+        for (int i = 0; i < contacts.getCount(); ++i) {
+            if (contacts.secondType[i] == RenderObject.TYPE_WALL) {
+                continue;
+            }
+            final RenderObject a = world.getObject(contacts.first[i]);
+            final RenderObject b = world.getObject(contacts.second[i]);
+            if (a.getType() == RenderObject.TYPE_PLAYER && b.getType() == RenderObject.TYPE_PLAYER) {
+                return fail(String.format(Locale.US, "world %d: players %d and %d ran into each other",
+                        seed, a.liveIndex, b.liveIndex));
+            }
+            if ((a.getType() == RenderObject.TYPE_BULLET && a.owner == b)
+                    || (b.getType() == RenderObject.TYPE_BULLET && b.owner == a)) {
+                return fail(String.format(Locale.US, "world %d: objects %d and %d, a bullet hit its shooter",
+                        seed, a.liveIndex, b.liveIndex));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Every pair the phase should report, with the time it should report it at: the
+     * sweep of whichever of the two reports it, see SpatialGrid.sweep(). Returns how
+     * many more would have hit without the filters.
+     */
+    private long bruteForce(GameWorld world, RenderObject[] live) {
+        long filtered = 0;
+        expected.clear();
+        final float width = GameRenderer.BOARD_WIDTH;
+        final float height = GameRenderer.BOARD_HEIGHT;
+        final EntityStore entities = world.getEntities();
+        for (int i = 0; i < live.length; ++i) {
+            final RenderObject a = live[i];
+            if (a.findsOwnContacts()) {
+                final float dx = Sweep.wrapDelta(a.getX() - a.getPrevX(), width);
+                final float dy = Sweep.wrapDelta(a.getY() - a.getPrevY(), height);
+                final boolean wraps = dx != a.getX() - a.getPrevX() || dy != a.getY() - a.getPrevY();
+                for (int w = 0; w < world.getWallCount(); ++w) {
+                    final Wall wall = world.getWall(w);
+                    float t = Sweep.circleWall(a.getX() - dx, a.getY() - dy, dx, dy, a.getRadius(), wall);
+                    if (wraps) {
+                        t = Math.min(t, Sweep.circleWall(a.getPrevX(), a.getPrevY(), dx, dy, a.getRadius(), wall));
+                    }
+                    if (t == Sweep.NO_HIT) {
+                        continue;
+                    }
+                    if (allows(a, wall)) {
+                        expected.put(key(a.liveIndex, RenderObject.TYPE_WALL, w), t);
+                    } else {
+                        ++filtered;
+                    }
+                }
+            }
+
+            for (int j = i + 1; j < live.length; ++j) {
+                final RenderObject b = live[j];
+                final RenderObject reporter;
+                if (a.findsOwnContacts() && (!b.findsOwnContacts() || a.serial < b.serial)) {
+                    reporter = a;
+                } else if (b.findsOwnContacts()) {
+                    reporter = b;
+                } else {
+                    continue;   // neither of them moved
+                }
+                final RenderObject other = reporter == a ? b : a;
+                final float dx = Sweep.wrapDelta(reporter.getX() - reporter.getPrevX(), width);
+                final float dy = Sweep.wrapDelta(reporter.getY() - reporter.getPrevY(), height);
+                final int id = other.id;
+                final float t = Sweep.circleCircle(
+                        Sweep.wrapDelta(entities.prevX[id] - (reporter.getX() - dx), width),
+                        Sweep.wrapDelta(entities.prevY[id] - (reporter.getY() - dy), height),
+                        Sweep.wrapDelta(entities.x[id] - entities.prevX[id], width) - dx,
+                        Sweep.wrapDelta(entities.y[id] - entities.prevY[id], height) - dy,
+                        reporter.getRadius() + other.getRadius());
+                if (t == Sweep.NO_HIT) {
+                    continue;
+                }
+                if (allows(a, b)) {
+                    expected.put(key(reporter.liveIndex, other.type, other.liveIndex), t);
+                } else {
+                    ++filtered;
+                }
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Checks the phase's contacts against the brute force, one pair at a time.
+     */
+    private boolean collect(long seed, GameWorld world, ContactBuffer contacts) {
+        found.clear();
+        for (int i = 0; i < contacts.getCount(); ++i) {
+            final int first = contacts.first[i];
+            final int second = contacts.second[i];
+            final int secondType = contacts.secondType[i];
+            final long key = key(first, secondType, second);
+            if (found.containsKey(key)
+                    || (secondType != RenderObject.TYPE_WALL
+                            && found.containsKey(key(second, contacts.firstType[i], first)))) {
+                return fail(String.format(Locale.US, "world %d: %s is in there twice", seed, describe(key)));
+            }
+            found.put(key, contacts.time[i]);
+            if (secondType == RenderObject.TYPE_WALL) {
+                ++wallPairs;
+            }
+        }
+        pairs += found.size();
+
+        for (Map.Entry<Long, Float> e : expected.entrySet()) {
+            final Float t = found.get(e.getKey());
+            if (t == null || Float.floatToIntBits(t) != Float.floatToIntBits(e.getValue())) {
+                return fail(String.format(Locale.US, "world %d: %s should be at t=%s, the phase says %s",
+                        seed, describe(e.getKey()), e.getValue(), t == null ? "nothing" : "t=" + t));
+            }
+        }
+        for (Long key : found.keySet()) {
+            if (!expected.containsKey(key)) {
+                return fail(String.format(Locale.US, "world %d: %s shouldn't be there", seed, describe(key)));
+            }
+        }
+        return true;
+    }
+
+    private boolean sameOrder(long seed, ContactBuffer a, ContactBuffer b) {
+        final int count = Math.max(a.getCount(), b.getCount());
+        for (int i = 0; i < count; ++i) {
+            if (i >= a.getCount() || i >= b.getCount()
+                    || a.first[i] != b.first[i] || a.second[i] != b.second[i] || a.secondType[i] != b.secondType[i]
+                    || Float.floatToIntBits(a.time[i]) != Float.floatToIntBits(b.time[i])) {
+                return fail(String.format(Locale.US, "world %d: contact %d differs with %d threads",
+                        seed, i, parallel.getThreadCount()));
+            }
+        }
+        return true;
+    }
+
+    static private long key(int first, int secondType, int second) {
+        return ((long) first << 32) | ((long) secondType << 24) | second;
+    }
+
+    static private String describe(long key) {
+        return String.format(Locale.US, "object %d with type %d #%d",
+                (int) (key >>> 32), (int) (key >>> 24) & 0xff, (int) key & 0xffffff);
+    }
+
+    private boolean fail(String message) {
+        failure = message;
+        return false;
+    }
+
+    public static void main(String[] args) {
+        int worlds = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int objects = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        ContactCheck check = new ContactCheck(objects, threads);
+        for (long seed = 0; seed < worlds; ++seed) {
+            if (!check.check(seed)) {
+                System.out.println(check.failure);
+                System.exit(1);
+            }
+        }
+        check.serial.shutdown();
+        check.parallel.shutdown();
+        System.out.println(String.format(Locale.US,
+                "%d worlds: %d pairs (%d with walls), each once, same as brute force and with %d threads; "
+                        + "%d hits filtered out by the game's masks and %d by random ones",
+                worlds, check.pairs, check.wallPairs, threads, check.keptOut, check.randomKeptOut));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks that the collision phase comes out the same however many threads it runs on:
+ *
+ *   ant -f bench/build.xml determinism -Ddeterminism.threads=4
+ *
+ * Plays a scripted match (see ScriptedInput) on the BOXY level with a dense asteroid
+ * field scattered over the whole board, once with the collision queries on the stepping thread only and then again
+ * several times with them spread over the given number of threads, comparing the
+ * state hash after every single step. Exits with status 1 at the first difference.
+ */
+public class DeterminismCheck {
+    static private final long c_seed = 12345L;
+
+    private final int ticks;
+    private final int asteroids;
+
+    public DeterminismCheck(int ticks, int asteroids) {
+        this.ticks = ticks;
+        this.asteroids = asteroids;
+    }
+
+    /**
+     * Plays the match and returns the state hash after each step.
+     */
+    public long[] play(int threads) {
+        GameWorld world = Benchmark.newWorld(512);
+        world.setCollisionThreads(threads);
+        world.startLevel(Options.Level.BOXY, c_seed, new ScriptedInput(c_seed, ticks));
+        Random random = world.getRandom();
+        for (Asteroid a : Benchmark.addAsteroids(world, asteroids)) {
+            // They'd all start on the left edge otherwise
+            a.setPosition(random.nextFloat() * GameRenderer.BOARD_WIDTH, random.nextFloat() * GameRenderer.BOARD_HEIGHT);
+        }
+
+        long[] hashes = new long[ticks];
+        for (int i = 0; i < ticks && world.step(); ++i) {
+            hashes[i] = world.getStateHash();
+        }
+        world.setCollisionThreads(1);
+        return hashes;
+    }
+
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int asteroids = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int runs = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        DeterminismCheck check = new DeterminismCheck(ticks, asteroids);
+        long start = System.nanoTime();
+        final long[] serial = check.play(1);
+        System.out.println(String.format(Locale.US, "serial: %d steps in %.1f ms, final hash %016x",
+                ticks, (System.nanoTime() - start) / 1e6, serial[ticks - 1]));
+
+        for (int run = 0; run < runs; ++run) {
+            start = System.nanoTime();
+            final long[] parallel = check.play(threads);
+            final long nanos = System.nanoTime() - start;
+            for (int i = 0; i < ticks; ++i) {
+                if (parallel[i] != serial[i]) {
+                    System.out.println(String.format(Locale.US, "%d threads, run %d: diverged at tick %d (%016x, serial %016x)",
+                            threads, run, i, parallel[i], serial[i]));
+                    System.exit(1);
+                }
+            }
+            System.out.println(String.format(Locale.US, "%d threads, run %d: %d steps in %.1f ms, identical",
+                    threads, run, ticks, nanos / 1e6));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+/**
+ * One movement pass over bench.entities asteroids: RenderObject.drift() on each, then
+ * the EntityStore integration that actually moves them.
+ */
+public class DriftBenchmark extends Benchmark {
+    private final int entityCount = Integer.getInteger("bench.entities", 1024);
+
+    private RenderObject[] objects;
+    private EntityStore entities;
+
+    public DriftBenchmark() {
+        super("drift");
+    }
+
+    @Override
+    public int getBatchSize() {
+        return 64;
+    }
+
+    @Override
+    public String getParams() {
+        return "entities=" + entityCount;
+    }
+
+    @Override
+    public void setUp() {
+        GameWorld world = newWorld(0);
+        objects = addAsteroids(world, entityCount);
+        world.step();
+        entities = world.getEntities();
+    }
+
+    @Override
+    public double run(int ops) {
+        final RenderObject[] objects = this.objects;
+        for (int op = 0; op < ops; ++op) {
+            for (int i = 0; i < objects.length; ++i) {
+                objects[i].drift();
+            }
+            entities.integrate(GameRenderer.BOARD_WIDTH, GameRenderer.BOARD_HEIGHT);
+        }
+        return entities.x[objects[0].id];
+    }
+}
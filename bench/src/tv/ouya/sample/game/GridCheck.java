@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks that the broad phase never loses a contact:
+ *
+ *   ant -f bench/build.xml gridcheck -Dgridcheck.worlds=200
+ *
+ * Lays out random worlds on every level, with players, asteroids and bullets scattered
+ * over the board and a good share of them sitting right on an edge and moving across
+ * it, and runs one step so everything has a path. Nothing responds to contacts in
+ * these worlds, so whatever ran into something is still there afterwards. Then every
+ * object that looks for its own contacts asks GameWorld.findContacts() and the same
+ * question is put to a plain scan over every live object and every wall, using the
+ * same narrow phase. The two have to come out the same, contact for contact and in
+ * the same order. Exits with status 1 at the first difference.
+ */
+public class GridCheck {
+    // Fastest anything moves in a step: a bullet plus the fastest shooter
+    static private final float c_maxBulletSpeed = 1.4f;
+    static private final float c_maxSpeed = 1.0f;
+    // Objects this close to an edge count as straddling it
+    static private final float c_edgeBand = 1.5f;
+
+    private final int objects;
+
+    private final ContactBuffer grid = new ContactBuffer();
+    private final ContactBuffer scan = new ContactBuffer();
+
+    private long queries;
+    private long wrapped;
+    private long contacts;
+    private long wallContacts;
+    private long gridTests;
+    private long scanTests;
+
+    public GridCheck(int objects) {
+        this.objects = objects;
+    }
+
+    /**
+     * Builds and checks one world. Returns false at the first difference, after saying
+     * what it was.
+     */
+    public boolean check(long seed) {
+        final Random random = new Random(seed);
+        final Options.Level[] levels = Options.Level.values();
+        final GameWorld world = Benchmark.newWorld(objects);
+        world.loadWalls(levels[(int) (seed % levels.length)]);
+        leaveAlone(world.getCollisionTable());
+
+        final Player[] players = Benchmark.addPlayers(world, 4);
+        for (Player p : players) {
+            scatter(p, random, c_maxSpeed);
+        }
+        for (Asteroid a : Benchmark.addAsteroids(world, objects / 2)) {
+            scatter(a, random, c_maxSpeed);
+        }
+        final BulletPool pool = world.getBulletPool();
+        for (int i = 0; i < objects / 2; ++i) {
+            final Bullet b = pool.fire(players[i % players.length], 0.0f, 0.0f, 0.0f, 0);
+            if (b != null) {
+                scatter(b, random, c_maxBulletSpeed);
+            }
+        }
+        world.step();
+
+        final int count = world.getObjectCount();
+        for (int i = 0; i < count; ++i) {
+            final RenderObject o = world.getObject(i);
+            if (!o.findsOwnContacts()) {
+                continue;
+            }
+            grid.clear();
+            world.findContacts(o, grid);
+            scan.clear();
+            scan(world, o, scan);
+            if (!same(seed, o)) {
+                return false;
+            }
+            ++queries;
+            contacts += grid.getCount();
+            for (int c = 0; c < grid.getCount(); ++c) {
+                if (grid.secondType[c] == RenderObject.TYPE_WALL) {
+                    ++wallContacts;
+                }
+            }
+            gridTests += grid.getTestCount();
+            scanTests += scan.getTestCount();
+            if (Sweep.wrapDelta(o.getX() - o.getPrevX(), GameRenderer.BOARD_WIDTH) != o.getX() - o.getPrevX()
+                    || Sweep.wrapDelta(o.getY() - o.getPrevY(), GameRenderer.BOARD_HEIGHT) != o.getY() - o.getPrevY()) {
+                ++wrapped;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes out every collision response, so one step leaves every contact in place.
+     */
+    static void leaveAlone(CollisionTable table) {
+        final RenderObject.CollisionListener nothing = new RenderObject.CollisionListener() {
+            @Override
+            public void onCollide(RenderObject me, RenderObject other) {
+            }
+        };
+        for (int a = 0; a < RenderObject.TYPE_COUNT; ++a) {
+            for (int b = a; b < RenderObject.TYPE_COUNT; ++b) {
+                table.register(a, b, nothing);
+            }
+        }
+    }
+
+    /**
+     * Somewhere on the board, a third of the time right by an edge, heading anywhere
+     * at up to maxSpeed.
+     */
+    static void scatter(RenderObject o, Random random, float maxSpeed) {
+        float x = random.nextFloat() * GameRenderer.BOARD_WIDTH;
+        float y = random.nextFloat() * GameRenderer.BOARD_HEIGHT;
+        if (random.nextInt(3) == 0) {
+            final float band = random.nextFloat() * c_edgeBand;
+            switch (random.nextInt(4)) {
+                case 0: x = band; break;
+                case 1: x = GameRenderer.BOARD_WIDTH - band; break;
+                case 2: y = band; break;
+                default: y = GameRenderer.BOARD_HEIGHT - band; break;
+            }
+            x = Math.min(x, Math.nextDown(GameRenderer.BOARD_WIDTH));
+            y = Math.min(y, Math.nextDown(GameRenderer.BOARD_HEIGHT));
+        }
+        o.setPosition(x, y);
+        final double heading = random.nextDouble() * 2.0 * Math.PI;
+        final float speed = random.nextFloat() * maxSpeed;
+        o.setVelocity((float) Math.cos(heading) * speed, (float) Math.sin(heading) * speed);
+    }
+
+    /**
+     * What findContacts() should have found for obj: every wall and every live object,
+     * no grid involved.
+     */
+    static private void scan(GameWorld world, RenderObject obj, ContactBuffer out) {
+        final EntityStore entities = world.getEntities();
+        final float width = GameRenderer.BOARD_WIDTH;
+        final float height = GameRenderer.BOARD_HEIGHT;
+        final float endX = obj.getX();
+        final float endY = obj.getY();
+        final float prevX = obj.getPrevX();
+        final float prevY = obj.getPrevY();
+        final float dx = Sweep.wrapDelta(endX - prevX, width);
+        final float dy = Sweep.wrapDelta(endY - prevY, height);
+        final float startX = endX - dx;
+        final float startY = endY - dy;
+        final float radius = obj.getRadius();
+        final boolean wraps = dx != endX - prevX || dy != endY - prevY;
+
+        out.begin();
+        if ((obj.getCollisionMask() & RenderObject.LAYER_WALL) != 0) {
+            for (int i = 0; i < world.getWallCount(); ++i) {
+                final Wall w = world.getWall(i);
+                if (!RenderObject.canCollide(obj, w)) {
+                    continue;
+                }
+                ++out.tests;
+                float t = Sweep.circleWall(startX, startY, dx, dy, radius, w);
+                if (wraps) {
+                    t = Math.min(t, Sweep.circleWall(prevX, prevY, dx, dy, radius, w));
+                }
+                if (t != Sweep.NO_HIT) {
+                    out.add(obj.liveIndex, obj.type, i, RenderObject.TYPE_WALL, i, t);
+                }
+            }
+        }
+        for (int i = 0; i < world.getObjectCount(); ++i) {
+            final RenderObject o = world.getObject(i);
+            if (o == obj || !RenderObject.canCollide(obj, o)) {
+                continue;
+            }
+            // The one of the two that comes first reports the pair
+            if (o.serial < obj.serial && o.findsOwnContacts()) {
+                continue;
+            }
+            final int id = o.id;
+            ++out.tests;
+            final float t = Sweep.circleCircle(
+                    Sweep.wrapDelta(entities.prevX[id] - startX, width),
+                    Sweep.wrapDelta(entities.prevY[id] - startY, height),
+                    Sweep.wrapDelta(entities.x[id] - entities.prevX[id], width) - dx,
+                    Sweep.wrapDelta(entities.y[id] - entities.prevY[id], height) - dy,
+                    radius + o.getRadius());
+            if (t != Sweep.NO_HIT) {
+                out.add(obj.liveIndex, obj.type, o.liveIndex, o.type, o.serial, t);
+            }
+        }
+    }
+
+    private boolean same(long seed, RenderObject obj) {
+        final int count = Math.max(grid.getCount(), scan.getCount());
+        for (int i = 0; i < count; ++i) {
+            final boolean match = i < grid.getCount() && i < scan.getCount()
+                    && grid.second[i] == scan.second[i]
+                    && grid.secondType[i] == scan.secondType[i]
+                    && Float.floatToIntBits(grid.time[i]) == Float.floatToIntBits(scan.time[i]);
+            if (!match) {
+                System.out.println(String.format(Locale.US,
+                        "world %d, object %d (type %d at %.3f,%.3f): contact %d is %s, the scan says %s",
+                        seed, obj.serial, obj.type, obj.getX(), obj.getY(), i, describe(grid, i), describe(scan, i)));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static private String describe(ContactBuffer buffer, int i) {
+        if (i >= buffer.getCount()) {
+            return "missing";
+        }
+        return String.format(Locale.US, "type %d #%d at t=%s", buffer.secondType[i], buffer.second[i], buffer.time[i]);
+    }
+
+    public static void main(String[] args) {
+        int worlds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int objects = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+
+        GridCheck check = new GridCheck(objects);
+        final long start = System.nanoTime();
+        for (long seed = 0; seed < worlds; ++seed) {
+            if (!check.check(seed)) {
+                System.exit(1);
+            }
+        }
+        System.out.println(String.format(Locale.US,
+                "%d worlds in %.1f ms: %d queries (%d across an edge), %d contacts (%d with walls), "
+                        + "%d narrow phase tests against %d for the scan, identical",
+                worlds, (System.nanoTime() - start) / 1e6, check.queries, check.wrapped, check.contacts,
+                check.wallContacts, check.gridTests, check.scanTests));
+    }
+}
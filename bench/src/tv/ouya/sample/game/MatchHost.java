@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many independent matches in one process:
+ *
+ *   ant -f bench/build.xml matches -Dmatches.count=32 -Dmatches.threads=4
+ *
+ * Every match is a scripted match (see ScriptedInput) on the BOXY level with a seed of
+ * its own, in a GameWorld of its own. They are played one after the other on a single
+ * thread first, then all over again on a pool of threads. A world shares nothing with
+ * any other, so each match has to end on the same state hash both times; exits with
+ * status 1 if one doesn't. Prints the steps per second of both runs.
+ */
+public class MatchHost {
+    static private final long c_firstSeed = 1000L;
+
+    private final int matches;
+    private final int ticks;
+
+    public MatchHost(int matches, int ticks) {
+        this.matches = matches;
+        this.ticks = ticks;
+    }
+
+    /**
+     * Plays one whole match and returns its final state hash.
+     */
+    public long play(int match) {
+        final long seed = c_firstSeed + match;
+        GameWorld world = Benchmark.newWorld(512);
+        world.startLevel(Options.Level.BOXY, seed, new ScriptedInput(seed, ticks));
+        while (world.step()) {
+        }
+        return world.getStateHash();
+    }
+
+    /**
+     * Plays every match on the given number of threads and returns their final hashes.
+     */
+    public long[] playAll(int threads) throws InterruptedException, ExecutionException {
+        final long[] hashes = new long[matches];
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Long>> results = new ArrayList<Future<Long>>();
+            for (int i = 0; i < matches; ++i) {
+                final int match = i;
+                results.add(pool.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return play(match);
+                    }
+                }));
+            }
+            for (int i = 0; i < matches; ++i) {
+                hashes[i] = results.get(i).get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return hashes;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int matches = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        MatchHost host = new MatchHost(matches, ticks);
+        long start = System.nanoTime();
+        final long[] serial = host.playAll(1);
+        final double serialSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format(Locale.US, "1 thread: %d matches of %d steps in %.2f s, %.0f steps/s",
+                matches, ticks, serialSeconds, matches * (double) ticks / serialSeconds));
+
+        start = System.nanoTime();
+        final long[] parallel = host.playAll(threads);
+        final double parallelSeconds = (System.nanoTime() - start) / 1e9;
+        for (int i = 0; i < matches; ++i) {
+            if (parallel[i] != serial[i]) {
+                System.out.println(String.format(Locale.US, "match %d ended differently on %d threads (%016x, alone %016x)",
+                        i, threads, parallel[i], serial[i]));
+                System.exit(1);
+            }
+        }
+        System.out.println(String.format(Locale.US, "%d threads: %d matches of %d steps in %.2f s, %.0f steps/s (%.2fx), all identical",
+                threads, matches, ticks, parallelSeconds, matches * (double) ticks / parallelSeconds,
+                serialSeconds / parallelSeconds));
+    }
+}
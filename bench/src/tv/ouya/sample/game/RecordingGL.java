@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A GL10 (or GL11) with no GL behind it that writes down what it's asked to do, for
+ * checking rendering code off the device (see BatchCheck).
+ *
+ * It's a dynamic proxy, so it answers every method of the SDK's interfaces without
+ * spelling them out: anything it doesn't know about just gets counted and returns
+ * 0, false or null. On top of that it keeps a modelview matrix stack the way GL does,
+ * and for every glDrawElements it copies out the vertex and color arrays that were
+ * bound at the time.
+ */
+public class RecordingGL implements InvocationHandler {
+
+    /**
+     * One glDrawElements, with the client arrays as they were when it was issued.
+     */
+    static public class Draw {
+        public final int mode;
+        public final int indexCount;
+        public final short[] indices;
+        public final float[] vertices;      // x, y, z per vertex
+        public final float[] colors;        // r, g, b, a per vertex, null without a color array
+
+        Draw(int mode, int indexCount, short[] indices, float[] vertices, float[] colors) {
+            this.mode = mode;
+            this.indexCount = indexCount;
+            this.indices = indices;
+            this.vertices = vertices;
+            this.colors = colors;
+        }
+    }
+
+    private final GL10 gl;
+    private final List<String> calls = new ArrayList<String>();
+    private final List<Draw> draws = new ArrayList<Draw>();
+
+    private float[] matrix = identity();
+    private final List<float[]> matrixStack = new ArrayList<float[]>();
+
+    private Buffer vertexPointer;
+    private Buffer colorPointer;
+    private boolean colorArray = false;
+    private int nextBufferName = 1;
+    private int boundElementBuffer = 0;
+    private final List<short[]> bufferData = new ArrayList<short[]>();
+
+    /**
+     * withGL11 makes it a GL11 too, so code that looks for buffer objects uses them.
+     */
+    public RecordingGL(boolean withGL11) {
+        final Class<?>[] interfaces = withGL11
+                ? new Class<?>[] { GL11.class }
+                : new Class<?>[] { GL10.class };
+        gl = (GL10) Proxy.newProxyInstance(RecordingGL.class.getClassLoader(), interfaces, this);
+    }
+
+    public GL10 getGL() {
+        return gl;
+    }
+
+    /**
+     * Names of every method called so far, in order.
+     */
+    public List<String> getCalls() {
+        return calls;
+    }
+
+    public int countCalls(String name) {
+        int count = 0;
+        for (String call : calls) {
+            if (call.equals(name)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    public List<Draw> getDraws() {
+        return draws;
+    }
+
+    public void reset() {
+        calls.clear();
+        draws.clear();
+    }
+
+    /**
+     * (x, y, z) through the current modelview matrix, into out.
+     */
+    public void transform(float x, float y, float z, float[] out) {
+        final float[] m = matrix;
+        out[0] = m[0] * x + m[4] * y + m[8] * z + m[12];
+        out[1] = m[1] * x + m[5] * y + m[9] * z + m[13];
+        out[2] = m[2] * x + m[6] * y + m[10] * z + m[14];
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        final String name = method.getName();
+        if (method.getDeclaringClass() == Object.class) {
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            return "RecordingGL";
+        }
+        calls.add(name);
+
+        if (name.equals("glLoadIdentity")) {
+            matrix = identity();
+        } else if (name.equals("glPushMatrix")) {
+            matrixStack.add(matrix.clone());
+        } else if (name.equals("glPopMatrix")) {
+            matrix = matrixStack.remove(matrixStack.size() - 1);
+        } else if (name.equals("glTranslatef")) {
+            final float[] t = identity();
+            t[12] = (Float) args[0];
+            t[13] = (Float) args[1];
+            t[14] = (Float) args[2];
+            matrix = multiply(matrix, t);
+        } else if (name.equals("glScalef")) {
+            final float[] s = identity();
+            s[0] = (Float) args[0];
+            s[5] = (Float) args[1];
+            s[10] = (Float) args[2];
+            matrix = multiply(matrix, s);
+        } else if (name.equals("glRotatef")) {
+            matrix = multiply(matrix, rotation((Float) args[0], (Float) args[1], (Float) args[2], (Float) args[3]));
+        } else if (name.equals("glVertexPointer") && args[3] instanceof Buffer) {
+            vertexPointer = (Buffer) args[3];
+        } else if (name.equals("glColorPointer") && args[3] instanceof Buffer) {
+            colorPointer = (Buffer) args[3];
+        } else if (name.equals("glEnableClientState") && (Integer) args[0] == GL10.GL_COLOR_ARRAY) {
+            colorArray = true;
+        } else if (name.equals("glDisableClientState") && (Integer) args[0] == GL10.GL_COLOR_ARRAY) {
+            colorArray = false;
+        } else if (name.equals("glGenBuffers")) {
+            final int[] names = (int[]) args[1];
+            final int offset = (Integer) args[2];
+            for (int i = 0; i < (Integer) args[0]; ++i) {
+                names[offset + i] = nextBufferName++;
+                bufferData.add(null);
+            }
+        } else if (name.equals("glBindBuffer")) {
+            if ((Integer) args[0] == GL11.GL_ELEMENT_ARRAY_BUFFER) {
+                boundElementBuffer = (Integer) args[1];
+            }
+        } else if (name.equals("glBufferData")) {
+            if ((Integer) args[0] == GL11.GL_ELEMENT_ARRAY_BUFFER && args[2] instanceof ShortBuffer) {
+                bufferData.set(boundElementBuffer - 1, shorts((ShortBuffer) args[2]));
+            }
+        } else if (name.equals("glDrawElements")) {
+            final short[] indices = args[3] instanceof ShortBuffer
+                    ? shorts((ShortBuffer) args[3])
+                    : boundElementBuffer != 0 ? bufferData.get(boundElementBuffer - 1) : null;
+            draws.add(new Draw((Integer) args[0], (Integer) args[1], indices,
+                    floats((FloatBuffer) vertexPointer),
+                    colorArray ? floats((FloatBuffer) colorPointer) : null));
+        }
+
+        final Class<?> type = method.getReturnType();
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        return null;
+    }
+
+    static private short[] shorts(ShortBuffer buffer) {
+        final ShortBuffer copy = buffer.duplicate();
+        copy.position(0);
+        final short[] out = new short[copy.limit()];
+        copy.get(out);
+        return out;
+    }
+
+    static private float[] floats(FloatBuffer buffer) {
+        final FloatBuffer copy = buffer.duplicate();
+        copy.position(0);
+        final float[] out = new float[copy.limit()];
+        copy.get(out);
+        return out;
+    }
+
+    static private float[] identity() {
+        final float[] m = new float[16];
+        m[0] = 1.0f;
+        m[5] = 1.0f;
+        m[10] = 1.0f;
+        m[15] = 1.0f;
+        return m;
+    }
+
+    // Column-major, like GL
+    static private float[] multiply(float[] a, float[] b) {
+        final float[] out = new float[16];
+        for (int column = 0; column < 4; ++column) {
+            for (int row = 0; row < 4; ++row) {
+                float sum = 0.0f;
+                for (int k = 0; k < 4; ++k) {
+                    sum += a[k * 4 + row] * b[column * 4 + k];
+                }
+                out[column * 4 + row] = sum;
+            }
+        }
+        return out;
+    }
+
+    // What glRotatef multiplies by, from the GL spec
+    static private float[] rotation(float degrees, float x, float y, float z) {
+        final float length = (float) Math.sqrt(x * x + y * y + z * z);
+        x /= length;
+        y /= length;
+        z /= length;
+        final double radians = Math.toRadians(degrees);
+        final float c = (float) Math.cos(radians);
+        final float s = (float) Math.sin(radians);
+        final float[] m = identity();
+        m[0] = x * x * (1 - c) + c;
+        m[1] = y * x * (1 - c) + z * s;
+        m[2] = x * z * (1 - c) - y * s;
+        m[4] = x * y * (1 - c) - z * s;
+        m[5] = y * y * (1 - c) + c;
+        m[6] = y * z * (1 - c) + x * s;
+        m[8] = x * z * (1 - c) + y * s;
+        m[9] = y * z * (1 - c) - x * s;
+        m[10] = z * z * (1 - c) + c;
+        return m;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A whole recorded match (bench.replay) as one operation, so real sessions can be
+ * kept around as regression benchmarks. Only runs when bench.replay is set.
+ */
+public class ReplayBenchmark extends Benchmark {
+    private final File path;
+    private InputPlayback playback;
+    private GameWorld world;
+
+    public ReplayBenchmark(File path) {
+        super("replay");
+        this.path = path;
+    }
+
+    @Override
+    public String getParams() {
+        return path.getName() + (playback != null ? " steps=" + playback.getTickCount() : "");
+    }
+
+    @Override
+    public void prepare() {
+        try {
+            playback = new InputPlayback(path);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        world = newWorld(512);
+        world.startLevel(playback.getLevel(), playback.getSeed(), playback);
+    }
+
+    @Override
+    public double run(int ops) {
+        while (world.step()) {
+        }
+        return world.getStateHash();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Re-simulates a match recorded by InputRecorder as fast as it will go and reports
+ * where the time went:
+ *
+ *   ant -f bench/build.xml replay -Dreplay.file=last_match.replay
+ *
+ * (adb pull it from the game's files directory.) Prints the overall rate, the slowest
+ * steps with their tick numbers so they can be looked at on their own, and the final
+ * state hash; two runs of the same recording have to print the same hash.
+ */
+public class ReplayRunner {
+    static private final int c_slowestCount = 10;
+
+    private final long[] slowestNanos = new long[c_slowestCount];
+    private final long[] slowestTicks = new long[c_slowestCount];
+
+    /**
+     * Plays the whole recording into a fresh world, timing every step.
+     */
+    public GameWorld play(File path) throws IOException {
+        InputPlayback playback = new InputPlayback(path);
+        GameWorld world = Benchmark.newWorld(512);
+        world.startLevel(playback.getLevel(), playback.getSeed(), playback);
+
+        for (int i = 0; i < c_slowestCount; ++i) {
+            slowestNanos[i] = -1;
+        }
+        long tick = 0;
+        while (true) {
+            final long start = System.nanoTime();
+            if (!world.step()) {
+                break;
+            }
+            record(tick++, System.nanoTime() - start);
+        }
+        return world;
+    }
+
+    private void record(long tick, long nanos) {
+        int i = c_slowestCount - 1;
+        if (nanos <= slowestNanos[i]) {
+            return;
+        }
+        for (; i > 0 && slowestNanos[i - 1] < nanos; --i) {
+            slowestNanos[i] = slowestNanos[i - 1];
+            slowestTicks[i] = slowestTicks[i - 1];
+        }
+        slowestNanos[i] = nanos;
+        slowestTicks[i] = tick;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: ReplayRunner <recording> [runs]");
+            return;
+        }
+        File path = new File(args[0]);
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        InputPlayback header = new InputPlayback(path);
+        System.out.println(String.format(Locale.US, "# %s: level %s, seed %d, %d steps (%.1f s of play)",
+                path, header.getLevel(), header.getSeed(), header.getTickCount(),
+                header.getTickCount() / (float) GameWorld.TICKS_PER_SECOND));
+
+        for (int run = 0; run < runs; ++run) {
+            ReplayRunner runner = new ReplayRunner();
+            final long start = System.nanoTime();
+            GameWorld world = runner.play(path);
+            final long nanos = System.nanoTime() - start;
+            System.out.println(String.format(Locale.US, "run %d: %d steps in %.1f ms, %.0f steps/s, state hash %016x",
+                    run, world.getTick(), nanos / 1e6, world.getTick() * 1e9 / nanos, world.getStateHash()));
+            if (run == runs - 1) {
+                System.out.println("slowest steps:");
+                for (int i = 0; i < c_slowestCount && runner.slowestNanos[i] >= 0; ++i) {
+                    System.out.println(String.format(Locale.US, "  tick %8d  %10.3f ms",
+                            runner.slowestTicks[i], runner.slowestNanos[i] / 1e6));
+                }
+            }
+        }
+    }
+}
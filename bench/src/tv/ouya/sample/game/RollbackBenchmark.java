@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Random;
+
+/**
+ * What RollbackSession costs on a match of bench.objects objects (500 by default),
+ * nearly all asteroids, with 4 players flying about among them. Nobody pulls the
+ * trigger, or the field would be gone in a few seconds; bullets still fly whenever
+ * a player goes up in a burst.
+ *
+ * rollback.save and rollback.restore are one WorldState each way. rollback.frame is a
+ * whole frame of a session whose slot 3 input shows up bench.rollbackTicks late (8 by
+ * default) and is wrong every time: the restore, the ticks run again, and the new
+ * tick, each with its state saved. That has to fit in a 60Hz frame, 16.7ms, with time
+ * to spare for drawing.
+ */
+public class RollbackBenchmark extends Benchmark {
+
+    public enum Op {
+        SAVE("rollback.save"),
+        RESTORE("rollback.restore"),
+        FRAME("rollback.frame");
+
+        final String name;
+
+        Op(String name) {
+            this.name = name;
+        }
+    }
+
+    static private final long c_seed = 12345L;
+    static private final int c_bulletPoolSize = 256;
+    static private final int c_remoteSlot = 3;
+    static private final int c_warmupTicks = 120;
+
+    private final int objectCount = Integer.getInteger("bench.objects", 500);
+    private final int rollbackTicks = Integer.getInteger("bench.rollbackTicks", 8);
+
+    private final Op op;
+    private GameWorld world;
+    private RollbackSession session;
+    private final WorldState state = new WorldState();
+    private final InputFrame frame = new InputFrame();
+    private ScriptedInput script;
+    private int frames = 0;
+
+    public RollbackBenchmark(Op op) {
+        super(op.name);
+        this.op = op;
+    }
+
+    @Override
+    public int getBatchSize() {
+        return op == Op.FRAME ? 1 : 16;
+    }
+
+    @Override
+    public String getParams() {
+        return "objects=" + world.getObjectCount() + " values=" + state.getValueCount()
+                + (op == Op.FRAME ? " ticks=" + session.getLongestRollback() : "");
+    }
+
+    @Override
+    public void setUp() {
+        world = newWorld(c_bulletPoolSize);
+        session = new RollbackSession(world, rollbackTicks);
+        script = new ScriptedInput(c_seed, -1);
+        world.startLevel(Options.Level.FREEDOM, c_seed, session);
+        // Everybody in before the field fills up
+        for (int i = 0; i < c_warmupTicks; ++i) {
+            addInput(world.getTick(), true);
+            session.step();
+        }
+        Random random = world.getRandom();
+        for (Asteroid a : addAsteroids(world, Math.max(0, objectCount - world.getObjectCount()))) {
+            a.setPosition(random.nextFloat() * GameRenderer.BOARD_WIDTH, random.nextFloat() * GameRenderer.BOARD_HEIGHT);
+        }
+        // From here on slot 3 is somebody else's
+        for (int i = 0; i < rollbackTicks; ++i) {
+            addInput(world.getTick(), false);
+            session.step();
+        }
+        world.saveState(state);
+    }
+
+    @Override
+    public double run(int ops) {
+        double sum = 0.0;
+        for (int i = 0; i < ops; ++i) {
+            switch (op) {
+                case SAVE:
+                    world.saveState(state);
+                    sum += state.getValueCount();
+                    break;
+                case RESTORE:
+                    world.restoreState(state);
+                    sum += world.getTick();
+                    break;
+                case FRAME:
+                    final long tick = world.getTick();
+                    addInput(tick, false);
+                    // Never what the session predicted, which is the input of the tick before
+                    final float stick = (frames++ & 1) == 0 ? 0.9f : -0.9f;
+                    session.addInput(c_remoteSlot, tick - rollbackTicks, c_remoteSlot, stick, -stick, 0.0f, 0.0f, 0);
+                    session.step();
+                    sum += world.getTick();
+                    break;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * The scripted input for every slot we are in charge of, left stick only.
+     */
+    private void addInput(long tick, boolean remoteToo) {
+        frame.clear();
+        script.poll(tick, frame);
+        final int slots = remoteToo ? InputFrame.MAX_PLAYERS : c_remoteSlot;
+        for (int slot = 0; slot < slots; ++slot) {
+            session.addInput(slot, tick, frame.getDeviceId(slot), frame.getLeftX(slot), frame.getLeftY(slot),
+                    0.0f, 0.0f, 0);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks that rolling back and running ticks again comes out exactly like running
+ * them once with the right input:
+ *
+ *   ant -f bench/build.xml rollback -Drollback.delay=8
+ *
+ * Plays a scripted match (see ScriptedInput) on the BOXY level with a dense asteroid
+ * field, once straight and once through a RollbackSession where only slot 0 is local
+ * and the other slots' input shows up late, anywhere from 0 to rollback.delay ticks,
+ * so most ticks run on a prediction and get rolled back. Every c_checkTicks the late
+ * input gets caught up on and the state hash compared with the straight run's. Exits
+ * with status 1 at the first difference.
+ */
+public class RollbackCheck {
+    static private final long c_seed = 12345L;
+    static private final int c_checkTicks = 100;
+    static private final int c_delayChangeTicks = 30;
+
+    private final int ticks;
+    private final int maxDelay;
+    private final int asteroids;
+
+    // The scripted input, per tick and slot
+    private final int[] deviceIds;
+    private final float[] axes;
+    private final int[] buttons;
+
+    public RollbackCheck(int ticks, int maxDelay, int asteroids) {
+        this.ticks = ticks;
+        this.maxDelay = maxDelay;
+        this.asteroids = asteroids;
+
+        final int slots = ticks * InputFrame.MAX_PLAYERS;
+        deviceIds = new int[slots];
+        axes = new float[slots * 4];
+        buttons = new int[slots];
+        ScriptedInput script = new ScriptedInput(c_seed, ticks);
+        InputFrame frame = new InputFrame();
+        for (int t = 0; t < ticks; ++t) {
+            frame.clear();
+            script.poll(t, frame);
+            for (int slot = 0; slot < InputFrame.MAX_PLAYERS; ++slot) {
+                final int i = t * InputFrame.MAX_PLAYERS + slot;
+                deviceIds[i] = frame.getDeviceId(slot);
+                axes[i * 4] = frame.getLeftX(slot);
+                axes[i * 4 + 1] = frame.getLeftY(slot);
+                axes[i * 4 + 2] = frame.getRightX(slot);
+                axes[i * 4 + 3] = frame.getRightY(slot);
+                buttons[i] = frame.getButtons(slot);
+            }
+        }
+    }
+
+    private void start(GameWorld world, InputSource input) {
+        world.startLevel(Options.Level.BOXY, c_seed, input);
+        Random random = world.getRandom();
+        for (Asteroid a : Benchmark.addAsteroids(world, asteroids)) {
+            a.setPosition(random.nextFloat() * GameRenderer.BOARD_WIDTH, random.nextFloat() * GameRenderer.BOARD_HEIGHT);
+        }
+    }
+
+    /**
+     * The straight run: the state hash after each step.
+     */
+    public long[] playStraight() {
+        GameWorld world = Benchmark.newWorld(512);
+        start(world, new ScriptedInput(c_seed, ticks));
+        long[] hashes = new long[ticks];
+        for (int i = 0; i < ticks && world.step(); ++i) {
+            hashes[i] = world.getStateHash();
+        }
+        return hashes;
+    }
+
+    /**
+     * The run with late input. Returns the first tick whose hash differed from the
+     * straight run's, or -1.
+     */
+    public int playRollback(RollbackSession session, long[] expected) {
+        final GameWorld world = session.getWorld();
+        start(world, session);
+        final Random random = new Random(c_seed);
+        final int[] delay = new int[InputFrame.MAX_PLAYERS];
+        final int[] delivered = new int[InputFrame.MAX_PLAYERS];     // next tick to send, per slot
+
+        for (int t = 0; t < ticks; ++t) {
+            if (t % c_delayChangeTicks == 0) {
+                for (int slot = 1; slot < InputFrame.MAX_PLAYERS; ++slot) {
+                    delay[slot] = random.nextInt(maxDelay + 1);
+                }
+            }
+            final boolean check = (t + 1) % c_checkTicks == 0 || t == ticks - 1;
+            addInput(session, 0, t);
+            for (int slot = 1; slot < InputFrame.MAX_PLAYERS; ++slot) {
+                final int upTo = check ? t : t - delay[slot];
+                for (; delivered[slot] <= upTo; ++delivered[slot]) {
+                    addInput(session, slot, delivered[slot]);
+                }
+            }
+            if (!session.step()) {
+                return t;
+            }
+            if (check && world.getStateHash() != expected[t]) {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    private void addInput(RollbackSession session, int slot, int tick) {
+        final int i = tick * InputFrame.MAX_PLAYERS + slot;
+        session.addInput(slot, tick, deviceIds[i], axes[i * 4], axes[i * 4 + 1], axes[i * 4 + 2], axes[i * 4 + 3], buttons[i]);
+    }
+
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        int maxDelay = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int asteroids = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        RollbackCheck check = new RollbackCheck(ticks, maxDelay, asteroids);
+        long start = System.nanoTime();
+        final long[] straight = check.playStraight();
+        System.out.println(String.format(Locale.US, "straight: %d steps in %.1f ms, final hash %016x",
+                ticks, (System.nanoTime() - start) / 1e6, straight[ticks - 1]));
+
+        RollbackSession session = new RollbackSession(Benchmark.newWorld(512), maxDelay);
+        start = System.nanoTime();
+        final int diverged = check.playRollback(session, straight);
+        final long nanos = System.nanoTime() - start;
+        if (diverged >= 0) {
+            System.out.println(String.format(Locale.US, "rollback: diverged at tick %d (%016x, straight %016x)",
+                    diverged, session.getWorld().getStateHash(), straight[diverged]));
+            System.exit(1);
+        }
+        System.out.println(String.format(Locale.US,
+                "rollback: %d steps in %.1f ms, %d rollbacks, %d ticks run again (longest %d), %d inputs turned away, identical",
+                ticks, nanos / 1e6, session.getRollbacks(), session.getResimulatedTicks(),
+                session.getLongestRollback(), session.getLateInputs()));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Random;
+
+/**
+ * Made-up controller input for headless runs: every slot joins a little after the one
+ * before it, then wiggles its sticks and mashes buttons at random, with a new choice
+ * every c_holdTicks steps. The same seed always plays the same match.
+ */
+public class ScriptedInput implements InputSource {
+    static private final int c_holdTicks = 20;
+    static private final int c_joinTicks = 30;
+
+    private final Random random;
+    private final float[] axes = new float[InputFrame.MAX_PLAYERS * 4];
+    private final int[] buttons = new int[InputFrame.MAX_PLAYERS];
+    private final long length;
+
+    /**
+     * Runs for length steps, or forever if that is negative.
+     */
+    public ScriptedInput(long seed, long length) {
+        random = new Random(seed);
+        this.length = length;
+    }
+
+    @Override
+    public boolean poll(long tick, InputFrame frame) {
+        if (length >= 0 && tick >= length) {
+            return false;
+        }
+        if (tick % c_holdTicks == 0) {
+            for (int i = 0; i < axes.length; ++i) {
+                axes[i] = random.nextFloat() * 2.0f - 1.0f;
+            }
+            for (int i = 0; i < buttons.length; ++i) {
+                buttons[i] = random.nextInt(16);
+            }
+        }
+        for (int slot = 0; slot < InputFrame.MAX_PLAYERS; ++slot) {
+            if (tick >= c_joinTicks * slot) {
+                final int a = slot * 4;
+                frame.set(slot, slot, axes[a], axes[a + 1], axes[a + 2], axes[a + 3], buttons[slot]);
+            }
+        }
+        return true;
+    }
+}
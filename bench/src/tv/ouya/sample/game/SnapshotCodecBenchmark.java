@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * SnapshotCodec on a world of about bench.objects objects (500 by default: 4 players,
+ * a hundred bullets and asteroids for the rest), written in full and against a baseline
+ * bench.baselineAge ticks older (6 by default, about a 100ms round trip), and read back.
+ *
+ * The params show what one snapshot comes to on the wire each way, next to what
+ * Snapshot.write() makes of it.
+ */
+public class SnapshotCodecBenchmark extends Benchmark {
+
+    public enum Op {
+        ENCODE_FULL("snapshot.encodeFull"),
+        ENCODE_DELTA("snapshot.encodeDelta"),
+        DECODE_FULL("snapshot.decodeFull"),
+        DECODE_DELTA("snapshot.decodeDelta");
+
+        final String name;
+
+        Op(String name) {
+            this.name = name;
+        }
+    }
+
+    static private final int c_playerCount = 4;
+    static private final int c_bulletCount = 100;
+
+    private final int objectCount = Integer.getInteger("bench.objects", 500);
+    private final int baselineAge = Integer.getInteger("bench.baselineAge", 6);
+
+    private final Op op;
+    private final Snapshot baseline = new Snapshot();
+    private final Snapshot current = new Snapshot();
+    private final Snapshot decodedBaseline = new Snapshot();
+    private final Snapshot decoded = new Snapshot();
+    private ByteBuffer buffer;
+    private int fullBytes;
+    private int deltaBytes;
+    private int rawBytes;
+
+    public SnapshotCodecBenchmark(Op op) {
+        super(op.name);
+        this.op = op;
+    }
+
+    @Override
+    public int getBatchSize() {
+        return 16;
+    }
+
+    @Override
+    public String getParams() {
+        return "objects=" + current.getCount() + " full=" + fullBytes + "B delta=" + deltaBytes
+                + "B raw=" + rawBytes + "B";
+    }
+
+    @Override
+    public void setUp() {
+        GameWorld world = newWorld(c_bulletCount);
+        Player[] players = addPlayers(world, c_playerCount);
+        addAsteroids(world, Math.max(0, objectCount - c_playerCount - c_bulletCount));
+        world.step();
+
+        Random random = new Random(42);
+        BulletPool pool = world.getBulletPool();
+        for (int i = 0; i < c_bulletCount; ++i) {
+            pool.fire(players[i % c_playerCount],
+                    random.nextFloat() * GameRenderer.BOARD_WIDTH,
+                    random.nextFloat() * GameRenderer.BOARD_HEIGHT,
+                    random.nextFloat() * 360.0f, 0);
+        }
+        world.step();
+        // Make up for the asteroids those bullets took out
+        addAsteroids(world, Math.max(0, objectCount - world.getObjectCount()));
+        world.step();
+        baseline.capture(world, Options.Level.FREEDOM);
+        for (int i = 0; i < baselineAge; ++i) {
+            world.step();
+        }
+        current.capture(world, Options.Level.FREEDOM);
+
+        buffer = ByteBuffer.allocate(SnapshotCodec.maxEncodedSize(Math.max(baseline.getCount(), current.getCount())));
+        try {
+            SnapshotCodec.encode(baseline, null, buffer);
+            buffer.flip();
+            SnapshotCodec.decode(buffer, null, decodedBaseline);
+
+            buffer.clear();
+            SnapshotCodec.encode(current, null, buffer);
+            fullBytes = buffer.position();
+
+            buffer.clear();
+            SnapshotCodec.encode(current, decodedBaseline, buffer);
+            deltaBytes = buffer.position();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            current.write(new DataOutputStream(bytes));
+            rawBytes = bytes.size();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        // Leave the buffer holding what the decoders read
+        buffer.clear();
+        SnapshotCodec.encode(current, op == Op.DECODE_DELTA ? decodedBaseline : null, buffer);
+        buffer.flip();
+    }
+
+    @Override
+    public double run(int ops) {
+        final ByteBuffer buffer = this.buffer;
+        double sum = 0.0;
+        try {
+            for (int i = 0; i < ops; ++i) {
+                switch (op) {
+                    case ENCODE_FULL:
+                        buffer.clear();
+                        SnapshotCodec.encode(current, null, buffer);
+                        sum += buffer.position();
+                        break;
+                    case ENCODE_DELTA:
+                        buffer.clear();
+                        SnapshotCodec.encode(current, decodedBaseline, buffer);
+                        sum += buffer.position();
+                        break;
+                    case DECODE_FULL:
+                    case DECODE_DELTA:
+                        buffer.rewind();
+                        SnapshotCodec.decode(buffer, decodedBaseline, decoded);
+                        sum += decoded.getX(i % decoded.getCount());
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks the swept tests in Sweep against brute force:
+ *
+ *   ant -f bench/build.xml sweepcheck -Dsweepcheck.cases=20000
+ *
+ * Every case is a random move, tested the way the collision phase does it and then
+ * again by stepping both shapes along their paths in c_substeps substeps (in double
+ * precision), taking the first substep at which they touch. There are three kinds:
+ * two circles on the wrapping board, set up like SpatialGrid.sweep() does it; a
+ * circle against a wall; and a circle crossing the edge of the board next to a wall,
+ * tested on both sides like GameWorld.findContacts() does it. A hit has to land
+ * within a substep of the brute force one, a miss has to be a miss. Moves that only
+ * graze (come within c_graze of touching without going c_graze deep) go either way
+ * and are only counted. Exits with status 1 at the first difference.
+ */
+public class SweepCheck {
+    static private final int c_substeps = 4000;
+    static private final double c_graze = 1e-3;
+    static private final double c_timeTolerance = 1.0 / c_substeps + 1e-4;
+    static private final float c_width = GameRenderer.BOARD_WIDTH;
+    static private final float c_height = GameRenderer.BOARD_HEIGHT;
+
+    private final Random random;
+    private final GameWorld world = Benchmark.newWorld(16);
+
+    private int hits = 0;
+    private int grazes = 0;
+    private String failure = null;
+
+    // Brute force result of the last case
+    private double bruteTime;
+    private double closest;     // least distance minus reach over all substeps
+
+    public SweepCheck(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Two circles, either of them possibly across an edge of the board from the other.
+     */
+    public boolean checkCircles(int n) {
+        final float radiusA = 0.2f + random.nextFloat() * 1.3f;
+        final float radiusB = 0.2f + random.nextFloat() * 1.3f;
+        final float prevAX = nearEdge(c_width);
+        final float prevAY = nearEdge(c_height);
+        final float prevBX = wrap(prevAX + spread(4.0f), c_width);
+        final float prevBY = wrap(prevAY + spread(4.0f), c_height);
+        final float moveAX = spread(2.0f);
+        final float moveAY = spread(2.0f);
+        final float moveBX = spread(2.0f);
+        final float moveBY = spread(2.0f);
+        final float endAX = wrap(prevAX + moveAX, c_width);
+        final float endAY = wrap(prevAY + moveAY, c_height);
+        final float endBX = wrap(prevBX + moveBX, c_width);
+        final float endBY = wrap(prevBY + moveBY, c_height);
+
+        // As GameWorld.findContacts() and SpatialGrid.sweep() see it
+        final float dx = Sweep.wrapDelta(endAX - prevAX, c_width);
+        final float dy = Sweep.wrapDelta(endAY - prevAY, c_height);
+        final float startX = endAX - dx;
+        final float startY = endAY - dy;
+        final float t = Sweep.circleCircle(
+                Sweep.wrapDelta(prevBX - startX, c_width),
+                Sweep.wrapDelta(prevBY - startY, c_height),
+                Sweep.wrapDelta(endBX - prevBX, c_width) - dx,
+                Sweep.wrapDelta(endBY - prevBY, c_height) - dy,
+                radiusA + radiusB);
+
+        bruteTime = Double.POSITIVE_INFINITY;
+        closest = Double.POSITIVE_INFINITY;
+        final double reach = (double) radiusA + radiusB;
+        for (int k = 0; k <= c_substeps; ++k) {
+            final double s = (double) k / c_substeps;
+            final double relX = torus(prevBX + moveBX * s - prevAX - moveAX * s, c_width);
+            final double relY = torus(prevBY + moveBY * s - prevAY - moveAY * s, c_height);
+            if (touches(Math.sqrt(relX * relX + relY * relY) - reach, s)) {
+                break;
+            }
+        }
+        return compare("circles", n, t);
+    }
+
+    /**
+     * A circle somewhere around a wall in the middle of the board.
+     */
+    public boolean checkWall(int n) {
+        final Wall wall = newWall(8.0f + random.nextFloat() * 24.0f, 8.0f + random.nextFloat() * 24.0f);
+        final float radius = 0.2f + random.nextFloat() * 1.3f;
+        final float x = wall.vertices[0] + spread(12.0f);
+        final float y = wall.vertices[1] + spread(12.0f);
+        final float dx = spread(6.0f);
+        final float dy = spread(6.0f);
+        final float t = Sweep.circleWall(x, y, dx, dy, radius, wall);
+
+        bruteTime = Double.POSITIVE_INFINITY;
+        closest = Double.POSITIVE_INFINITY;
+        final double reach = (double) radius + wall.getRadius();
+        for (int k = 0; k <= c_substeps; ++k) {
+            final double s = (double) k / c_substeps;
+            if (touches(distance(wall, x + dx * s, y + dy * s) - reach, s)) {
+                break;
+            }
+        }
+        return compare("wall", n, t);
+    }
+
+    /**
+     * A circle going across the left or bottom edge of the board (and maybe another one
+     * as well) with a wall on one side of it or the other. Walls don't wrap, so the
+     * circle touches the wall if it does in either the coordinates it started in or the
+     * ones it ended up in.
+     */
+    public boolean checkWallAcrossEdge(int n) {
+        final boolean acrossX = random.nextBoolean();
+        final boolean nearStart = random.nextBoolean();
+        final float along = 4.0f + random.nextFloat() * 32.0f;
+        final float across = 0.3f + random.nextFloat() * 2.5f;
+        final float wallAcross = nearStart ? across : (acrossX ? c_width : c_height) - across;
+        final Wall wall = acrossX ? newWall(wallAcross, along) : newWall(along, wallAcross);
+        final float radius = 0.2f + random.nextFloat() * 1.3f;
+
+        // Starts just inside the board and leaves it through the low edge
+        final float prevAcross = random.nextFloat() * 1.5f;
+        final float moveAcross = -prevAcross - 0.01f - random.nextFloat() * 1.5f;
+        final float prevAlong = wall.vertices[acrossX ? 1 : 0] + spread(4.0f);
+        final float moveAlong = spread(2.0f);
+        final float prevX = acrossX ? prevAcross : prevAlong;
+        final float prevY = acrossX ? prevAlong : prevAcross;
+        final float moveX = acrossX ? moveAcross : moveAlong;
+        final float moveY = acrossX ? moveAlong : moveAcross;
+        final float endX = wrap(prevX + moveX, c_width);
+        final float endY = wrap(prevY + moveY, c_height);
+
+        // As GameWorld.findContacts() does it
+        final float dx = Sweep.wrapDelta(endX - prevX, c_width);
+        final float dy = Sweep.wrapDelta(endY - prevY, c_height);
+        float t = Sweep.circleWall(endX - dx, endY - dy, dx, dy, radius, wall);
+        if (dx != endX - prevX || dy != endY - prevY) {
+            t = Math.min(t, Sweep.circleWall(prevX, prevY, dx, dy, radius, wall));
+        }
+
+        bruteTime = Double.POSITIVE_INFINITY;
+        closest = Double.POSITIVE_INFINITY;
+        final double reach = (double) radius + wall.getRadius();
+        // The coordinates it ended up in, which can be across the other edge too
+        final double shiftX = c_width * Math.rint(((double) endX - prevX - moveX) / c_width);
+        final double shiftY = c_height * Math.rint(((double) endY - prevY - moveY) / c_height);
+        for (int k = 0; k <= c_substeps; ++k) {
+            final double s = (double) k / c_substeps;
+            final double x = prevX + moveX * s;
+            final double y = prevY + moveY * s;
+            final double d = Math.min(distance(wall, x, y), distance(wall, x + shiftX, y + shiftY));
+            if (touches(d - reach, s)) {
+                break;
+            }
+        }
+        return compare("wall across the edge", n, t);
+    }
+
+    /**
+     * Notes how close a substep came; true once it touches, and deep enough that it's
+     * no graze.
+     */
+    private boolean touches(double clearance, double s) {
+        closest = Math.min(closest, clearance);
+        if (clearance <= 0.0 && bruteTime == Double.POSITIVE_INFINITY) {
+            bruteTime = s;
+        }
+        return closest < -c_graze;
+    }
+
+    private boolean compare(String kind, int n, float t) {
+        if (Math.abs(closest) <= c_graze) {
+            ++grazes;
+            return true;
+        }
+        final boolean bruteHit = bruteTime != Double.POSITIVE_INFINITY;
+        if (bruteHit != (t != Sweep.NO_HIT)
+                || (bruteHit && (t < bruteTime - c_timeTolerance || t > bruteTime + c_timeTolerance))) {
+            failure = String.format(Locale.US, "case %d, %s: swept test says %s, brute force says %s (closest %.6f)",
+                    n, kind, t == Sweep.NO_HIT ? "no hit" : "t=" + t, bruteHit ? "t=" + bruteTime : "no hit", closest);
+            return false;
+        }
+        if (bruteHit) {
+            ++hits;
+        }
+        return true;
+    }
+
+    private Wall newWall(float x, float y) {
+        final double angle = random.nextDouble() * Math.PI * 2.0;
+        final float length = 1.0f + random.nextFloat() * 7.0f;
+        return new Wall(world, x, y, x + length * (float) Math.cos(angle), y + length * (float) Math.sin(angle));
+    }
+
+    static private double distance(Wall wall, double x, double y) {
+        final float[] v = wall.vertices;
+        final double segX = v[3] - v[0];
+        final double segY = v[4] - v[1];
+        final double along = ((x - v[0]) * segX + (y - v[1]) * segY) / (segX * segX + segY * segY);
+        final double clamped = Math.max(0.0, Math.min(1.0, along));
+        final double offX = x - (v[0] + segX * clamped);
+        final double offY = y - (v[1] + segY * clamped);
+        return Math.sqrt(offX * offX + offY * offY);
+    }
+
+    /**
+     * Shortest signed distance along a wrapping axis.
+     */
+    static private double torus(double delta, double size) {
+        final double d = delta - size * Math.floor(delta / size);
+        return d > size * 0.5 ? d - size : d;
+    }
+
+    static private float wrap(float value, float size) {
+        if (value < 0.0f) {
+            return value + size;
+        }
+        return value >= size ? value - size : value;
+    }
+
+    private float spread(float range) {
+        return (random.nextFloat() * 2.0f - 1.0f) * range;
+    }
+
+    /**
+     * Anywhere on the axis, but a third of the time within a couple of units of an edge.
+     */
+    private float nearEdge(float size) {
+        if (random.nextInt(3) != 0) {
+            return random.nextFloat() * size;
+        }
+        return wrap(spread(2.0f), size);
+    }
+
+    public static void main(String[] args) {
+        int cases = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 12345L;
+
+        SweepCheck check = new SweepCheck(seed);
+        for (int n = 0; n < cases; ++n) {
+            final boolean ok;
+            switch (n % 3) {
+                case 0:
+                    ok = check.checkCircles(n);
+                    break;
+                case 1:
+                    ok = check.checkWall(n);
+                    break;
+                default:
+                    ok = check.checkWallAcrossEdge(n);
+                    break;
+            }
+            if (!ok) {
+                System.out.println(check.failure);
+                System.exit(1);
+            }
+        }
+        System.out.println(String.format(Locale.US, "%d cases, %d hits, %d grazes left out, all within a substep of %d",
+                cases, check.hits, check.grazes, c_substeps));
+    }
+}
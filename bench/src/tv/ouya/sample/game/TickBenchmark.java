@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Random;
+
+/**
+ * One full GameWorld.step() on the BOXY level with bench.players players,
+ * bench.asteroids asteroids and about bench.bullets bullets in flight, with the
+ * collision queries spread over bench.threads threads. bench.profile=true runs it with
+ * the Profiler recording, which should cost next to nothing and allocate nothing.
+ *
+ * Bullets are fired at a steady rate that keeps bench.bullets of them alive, and the
+ * asteroids that got shot down are replaced before every step (outside the timed
+ * region), so the population stays put however long it runs.
+ */
+public class TickBenchmark extends Benchmark {
+    // Bullet lives for 0.5s
+    static private final int c_bulletLifetimeTicks = GameWorld.TICKS_PER_SECOND / 2;
+
+    private final int playerCount = Integer.getInteger("bench.players", 4);
+    private final int asteroidCount = Integer.getInteger("bench.asteroids", 32);
+    private final int bulletCount = Integer.getInteger("bench.bullets", 256);
+    private final int threadCount = Integer.getInteger("bench.threads", 1);
+    private final boolean profile = Boolean.getBoolean("bench.profile");
+
+    private GameWorld world;
+    private Player[] players;
+    private final Random random = new Random(42);
+    private int shotsPerTick;
+    private int shots = 0;
+
+    public TickBenchmark() {
+        super("tick");
+    }
+
+    @Override
+    public String getParams() {
+        return "players=" + playerCount + " asteroids=" + asteroidCount + " bullets=" + bulletCount + " threads=" + threadCount + " profile=" + profile;
+    }
+
+    @Override
+    public void setUp() {
+        // Dying bullets hold on to their slot until the end of the step
+        world = newWorld(bulletCount * 2 + 16);
+        world.setCollisionThreads(threadCount);
+        world.getProfiler().setEnabled(profile);
+        world.loadWalls(Options.Level.BOXY);
+        players = addPlayers(world, playerCount);
+        shotsPerTick = (bulletCount + c_bulletLifetimeTicks - 1) / c_bulletLifetimeTicks;
+        world.step();
+    }
+
+    @Override
+    public void prepare() {
+        final int missing = asteroidCount - world.getAsteroidField().getLiveCount();
+        if (missing > 0) {
+            addAsteroids(world, missing);
+        }
+    }
+
+    @Override
+    public double run(int ops) {
+        final GameWorld world = this.world;
+        final BulletPool pool = world.getBulletPool();
+        for (int op = 0; op < ops; ++op) {
+            for (int i = 0; i < shotsPerTick; ++i, ++shots) {
+                Player shooter = playerCount > 0 ? players[shots % playerCount] : null;
+                float x = shooter != null ? shooter.getX() : random.nextFloat() * GameRenderer.BOARD_WIDTH;
+                float y = shooter != null ? shooter.getY() : random.nextFloat() * GameRenderer.BOARD_HEIGHT;
+                pool.fire(shooter, x, y, random.nextFloat() * 360.0f, 0);
+            }
+            world.step();
+        }
+        return world.getObjectCount();
+    }
+}
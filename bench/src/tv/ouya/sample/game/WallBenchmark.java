@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import android.graphics.PointF;
+
+import java.util.Random;
+
+/**
+ * The Wall math on its own: one call per operation against a diagonal wall, cycling
+ * through a fixed set of probe points spread over the whole board.
+ */
+public class WallBenchmark extends Benchmark {
+
+    public enum Op {
+        DOES_COLLIDE("wall.doesCollide"),
+        SLIDE_AGAINST("wall.slideAgainst"),
+        PROJECT_ONTO_WALL("wall.projectOntoWall"),
+        SWEEP("wall.sweep");
+
+        final String name;
+
+        Op(String name) {
+            this.name = name;
+        }
+    }
+
+    static private final int c_probeCount = 1024;   // power of two
+    static private final float c_stepLength = 0.2f;
+
+    private final Op op;
+    private final PointF slid = new PointF();
+    private Wall wall;
+    private RenderObject[] probes;
+    private float[] probeX;
+    private float[] probeY;
+    private float[] nextX;
+    private float[] nextY;
+
+    public WallBenchmark(Op op) {
+        super(op.name);
+        this.op = op;
+    }
+
+    @Override
+    public int getBatchSize() {
+        return 4096;
+    }
+
+    @Override
+    public void setUp() {
+        GameWorld world = newWorld(0);
+        wall = new Wall(world, 10.0f, 10.0f, 30.0f, 20.0f);
+
+        Random random = new Random(42);
+        probes = new RenderObject[c_probeCount];
+        probeX = new float[c_probeCount];
+        probeY = new float[c_probeCount];
+        nextX = new float[c_probeCount];
+        nextY = new float[c_probeCount];
+        for (int i = 0; i < c_probeCount; ++i) {
+            probeX[i] = random.nextFloat() * GameRenderer.BOARD_WIDTH;
+            probeY[i] = random.nextFloat() * GameRenderer.BOARD_HEIGHT;
+            double heading = random.nextDouble() * 2.0 * Math.PI;
+            nextX[i] = probeX[i] + (float) Math.cos(heading) * c_stepLength;
+            nextY[i] = probeY[i] + (float) Math.sin(heading) * c_stepLength;
+            probes[i] = newProbe(world, i);
+            probes[i].setPosition(probeX[i], probeY[i]);
+        }
+    }
+
+    @Override
+    public double run(int ops) {
+        final Wall wall = this.wall;
+        final int mask = c_probeCount - 1;
+        double sum = 0.0;
+        switch (op) {
+            case DOES_COLLIDE:
+                for (int i = 0; i < ops; ++i) {
+                    if (wall.doesCollide(probes[i & mask])) {
+                        sum += 1.0;
+                    }
+                }
+                break;
+            case SLIDE_AGAINST:
+                for (int i = 0; i < ops; ++i) {
+                    final int p = i & mask;
+                    wall.slideAgainst(probeX[p], probeY[p], nextX[p], nextY[p], 0.5f, slid);
+                    sum += slid.x;
+                }
+                break;
+            case PROJECT_ONTO_WALL:
+                for (int i = 0; i < ops; ++i) {
+                    final int p = i & mask;
+                    sum += wall.projectOntoWall(probeX[p], probeY[p], true);
+                }
+                break;
+            case SWEEP:
+                for (int i = 0; i < ops; ++i) {
+                    final int p = i & mask;
+                    final float t = Sweep.circleWall(probeX[p], probeY[p],
+                            nextX[p] - probeX[p], nextY[p] - probeY[p], 0.25f, wall);
+                    if (t != Sweep.NO_HIT) {
+                        sum += t;
+                    }
+                }
+                break;
+        }
+        return sum;
+    }
+}
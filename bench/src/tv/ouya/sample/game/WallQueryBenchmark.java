@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Wall lookups alone, on a made-up level of bench.segments short random segments:
+ * one GameWorld.findContacts() per operation for (resting) probes spread over the
+ * board.
+ * Run it with a few segment counts to see that the cost follows the wall density
+ * around the probe rather than the size of the level.
+ */
+public class WallQueryBenchmark extends Benchmark {
+    static private final int c_probeCount = 1024;   // power of two
+
+    private final int segmentCount = Integer.getInteger("bench.segments", 400);
+
+    private GameWorld world;
+    private RenderObject[] probes;
+    private final ContactBuffer contacts = new ContactBuffer();
+
+    public WallQueryBenchmark() {
+        super("wallQuery");
+    }
+
+    @Override
+    public int getBatchSize() {
+        return 4096;
+    }
+
+    @Override
+    public String getParams() {
+        return "segments=" + segmentCount;
+    }
+
+    @Override
+    public void setUp() {
+        world = newWorld(0);
+        Random random = new Random(42);
+        List<Wall> walls = new ArrayList<Wall>();
+        for (int i = 0; i < segmentCount; ++i) {
+            float x = random.nextFloat() * GameRenderer.BOARD_WIDTH;
+            float y = random.nextFloat() * GameRenderer.BOARD_HEIGHT;
+            double heading = random.nextDouble() * 2.0 * Math.PI;
+            float length = 1.0f + random.nextFloat() * 2.0f;
+            walls.add(new Wall(world, x, y, x + (float) Math.cos(heading) * length, y + (float) Math.sin(heading) * length));
+        }
+        world.setWalls(walls);
+
+        // Never in the world, so only the walls can be hit. Teleported, so
+        // they look like they have been sitting still.
+        probes = new RenderObject[c_probeCount];
+        for (int i = 0; i < c_probeCount; ++i) {
+            probes[i] = newProbe(world, i);
+            probes[i].teleport(random.nextFloat() * GameRenderer.BOARD_WIDTH,
+                    random.nextFloat() * GameRenderer.BOARD_HEIGHT);
+        }
+    }
+
+    @Override
+    public double run(int ops) {
+        final GameWorld world = this.world;
+        final int mask = c_probeCount - 1;
+        final ContactBuffer contacts = this.contacts;
+        int hits = 0;
+        for (int i = 0; i < ops; ++i) {
+            contacts.clear();
+            world.findContacts(probes[i & mask], contacts);
+            hits += contacts.getCount();
+        }
+        return hits;
+    }
+}
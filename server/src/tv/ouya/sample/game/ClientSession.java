@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * One client of a MatchServer, from the WELCOME on: a thread reading its INPUTs into
+ * the match's RemoteInput and a thread sending it snapshots.
+ *
+ * Only the newest snapshot ever waits to be sent. A client that can't keep up skips
+ * steps, rather than holding up the server's tick or piling up a backlog.
+ */
+public class ClientSession {
+    // For the hello; a client that connects and says nothing gets dropped after this
+    static private final int c_helloTimeoutMillis = 5000;
+
+    private final Socket socket;
+    private final ServerMatch match;
+    private final int slot;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    // The snapshot waiting to go out, see publish()
+    private byte[] pending;
+    private int pendingLength;
+    private int pendingSequence;
+    private boolean closed = false;
+
+    // Newest snapshot the client says it has, -1 for none
+    private long acknowledgedTick = -1;
+
+    private long sent = 0;
+    private long skipped = 0;
+
+    ClientSession(Socket socket, DataInputStream in, DataOutputStream out, ServerMatch match, int slot) {
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        this.match = match;
+        this.slot = slot;
+    }
+
+    /**
+     * Reads the client's hello and sends its WELCOME, or FULL if no match had a
+     * slot for it. Returns null if it didn't get in.
+     */
+    static ClientSession accept(Socket socket, MatchServer server) throws IOException {
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(c_helloTimeoutMillis);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        MatchProtocol.readHello(in);
+
+        ClientSession session = server.join(socket, in, out);
+        if (session == null) {
+            out.writeByte(MatchProtocol.FULL);
+            out.flush();
+            socket.close();
+            return null;
+        }
+        MatchProtocol.writeWelcome(out, session.match.getIndex(), session.slot,
+                session.match.getLevel(), GameWorld.TICKS_PER_SECOND);
+        out.flush();
+        // Inputs can take as long as they like from here on
+        socket.setSoTimeout(0);
+        session.start();
+        return session;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    private void start() {
+        final String name = "match-" + match.getIndex() + "-slot-" + slot;
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, name + "-in");
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, name + "-out");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    synchronized long getAcknowledgedTick() {
+        return acknowledgedTick;
+    }
+
+    /**
+     * Queues a snapshot for sending, replacing one that hasn't gone out yet. The
+     * bytes must not change after that.
+     */
+    synchronized void publish(byte[] snapshot, int length, int inputSequence) {
+        if (pending != null) {
+            ++skipped;
+        }
+        pending = snapshot;
+        pendingLength = length;
+        pendingSequence = inputSequence;
+        notifyAll();
+    }
+
+    private void readLoop() {
+        final RemoteInput input = match.getInput();
+        try {
+            while (true) {
+                final int message = in.readUnsignedByte();
+                if (message != MatchProtocol.INPUT) {
+                    throw new IOException("Unexpected message " + message);
+                }
+                final int sequence = in.readInt();
+                final long acknowledged = in.readLong();
+                final float leftX = in.readFloat();
+                final float leftY = in.readFloat();
+                final float rightX = in.readFloat();
+                final float rightY = in.readFloat();
+                final int buttons = in.readUnsignedByte();
+                input.set(slot, sequence, leftX, leftY, rightX, rightY, buttons);
+                synchronized (this) {
+                    acknowledgedTick = Math.max(acknowledgedTick, acknowledged);
+                }
+            }
+        } catch (IOException e) {
+            // Hung up, or sent garbage; either way it's gone
+        } finally {
+            close();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                final byte[] snapshot;
+                final int length;
+                final int sequence;
+                synchronized (this) {
+                    while (pending == null && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    snapshot = pending;
+                    length = pendingLength;
+                    sequence = pendingSequence;
+                    pending = null;
+                }
+                MatchProtocol.writeSnapshot(out, sequence, snapshot, length);
+                out.flush();
+                synchronized (this) {
+                    ++sent;
+                }
+            }
+        } catch (IOException e) {
+            // The reader notices too
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        match.leave(this);
+    }
+
+    public synchronized long getSentCount() {
+        return sent;
+    }
+
+    public synchronized long getSkippedCount() {
+        return skipped;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A loopback proxy in front of a MatchServer that makes the connection look like a
+ * bad network: every message is held back for the latency plus up to the jitter, and
+ * some INPUTs and SNAPSHOTs never arrive at all.
+ *
+ * It cuts the streams into whole MatchProtocol messages, so losing one is like losing
+ * a datagram: the server just uses the newest input it got, and the client's next
+ * snapshot is written against one it did get. The handshake always goes through, and
+ * nothing is ever reordered.
+ */
+public class ImpairedLink {
+    // See MatchProtocol.writeInput() and writeWelcome()
+    static private final int c_inputLength = 1 + 4 + 8 + 4 * 4 + 1;
+    static private final int c_welcomeLength = 1 + 4 + 1 + 1 + 2;
+    static private final int c_helloLength = 4 + 4;
+
+    private final int serverPort;
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final double loss;
+    private final Random random;
+    private final ServerSocket serverSocket;
+    private volatile boolean running = false;
+    private Thread acceptThread;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong passed = new AtomicLong();
+
+    public ImpairedLink(int serverPort, long latencyNanos, long jitterNanos, double loss, long seed)
+            throws IOException {
+        this.serverPort = serverPort;
+        this.latencyNanos = latencyNanos;
+        this.jitterNanos = jitterNanos;
+        this.loss = loss;
+        random = new Random(seed);
+        serverSocket = new ServerSocket(0, 64, InetAddress.getByName("127.0.0.1"));
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void start() {
+        running = true;
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "link-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Stopping anyway
+        }
+        acceptThread.join();
+    }
+
+    /**
+     * Messages that got through and that were thrown away, both ways together.
+     */
+    public long getPassedCount() {
+        return passed.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                final Socket client = serverSocket.accept();
+                final Socket server = new Socket(InetAddress.getByName("127.0.0.1"), serverPort);
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                new Pipe(client, server, true).start();
+                new Pipe(server, client, false).start();
+            } catch (SocketException e) {
+                // Closed by stop()
+                return;
+            } catch (IOException e) {
+                System.err.println("link: " + e);
+            }
+        }
+    }
+
+    private synchronized long nextDelay() {
+        return latencyNanos + (jitterNanos > 0 ? (long) (random.nextDouble() * jitterNanos) : 0);
+    }
+
+    private synchronized boolean nextLost() {
+        return random.nextDouble() < loss;
+    }
+
+    static private class Message {
+        final byte[] bytes;
+        final long due;
+
+        Message(byte[] bytes, long due) {
+            this.bytes = bytes;
+            this.due = due;
+        }
+    }
+
+    /**
+     * One direction of one connection: a thread cutting messages out of the stream and
+     * a thread writing them out once they're due.
+     */
+    private class Pipe {
+        private final Socket from;
+        private final Socket to;
+        private final boolean upstream;     // client to server
+        private final BlockingQueue<Message> queue = new LinkedBlockingQueue<Message>();
+        private long lastDue = 0;
+
+        Pipe(Socket from, Socket to, boolean upstream) {
+            this.from = from;
+            this.to = to;
+            this.upstream = upstream;
+        }
+
+        void start() {
+            final String name = "link-" + (upstream ? "up" : "down");
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readLoop();
+                }
+            }, name + "-in");
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, name + "-out");
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+            reader.start();
+            writer.start();
+        }
+
+        private void readLoop() {
+            try {
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(from.getInputStream()));
+                if (upstream) {
+                    send(read(in, c_helloLength), false);
+                } else {
+                    final int first = in.readUnsignedByte();
+                    if (first != MatchProtocol.WELCOME) {
+                        send(new byte[] { (byte) first }, false);
+                        return;
+                    }
+                    final byte[] welcome = new byte[c_welcomeLength];
+                    welcome[0] = (byte) first;
+                    in.readFully(welcome, 1, welcome.length - 1);
+                    send(welcome, false);
+                }
+                while (true) {
+                    if (upstream) {
+                        send(read(in, c_inputLength), true);
+                    } else {
+                        final int message = in.readUnsignedByte();
+                        final int sequence = in.readInt();
+                        final int length = in.readInt();
+                        final byte[] snapshot = new byte[1 + 4 + 4 + length];
+                        snapshot[0] = (byte) message;
+                        writeInt(snapshot, 1, sequence);
+                        writeInt(snapshot, 5, length);
+                        in.readFully(snapshot, 9, length);
+                        send(snapshot, true);
+                    }
+                }
+            } catch (EOFException e) {
+                // Hung up
+            } catch (IOException e) {
+                // Either end went away
+            } finally {
+                // An empty message tells the writer to hang up too
+                queue.add(new Message(null, 0));
+            }
+        }
+
+        private byte[] read(DataInputStream in, int length) throws IOException {
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        private void send(byte[] bytes, boolean mayLose) {
+            if (mayLose && nextLost()) {
+                dropped.incrementAndGet();
+                return;
+            }
+            // Never overtakes the one before
+            lastDue = Math.max(lastDue, System.nanoTime() + nextDelay());
+            queue.add(new Message(bytes, lastDue));
+        }
+
+        private void writeLoop() {
+            try {
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(to.getOutputStream()));
+                while (true) {
+                    final Message message = queue.take();
+                    if (message.bytes == null) {
+                        break;
+                    }
+                    long wait = message.due - System.nanoTime();
+                    if (wait > 0) {
+                        // Whatever went before has to be out before we sit here
+                        out.flush();
+                        do {
+                            LockSupport.parkNanos(wait);
+                        } while ((wait = message.due - System.nanoTime()) > 0);
+                    }
+                    out.write(message.bytes);
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                    passed.incrementAndGet();
+                }
+                out.flush();
+            } catch (IOException e) {
+                // The reader notices too
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    from.close();
+                    to.close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            }
+        }
+    }
+
+    static private void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
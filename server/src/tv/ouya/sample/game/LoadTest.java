@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Puts a MatchServer under load over loopback, all in one process:
+ *
+ *   ant -f server/build.xml loadtest -Dloadtest.players=4,16,64 -Dloadtest.threads=4
+ *
+ * For each player count, starts a fresh server on a free port, connects that many
+ * SimulatedClients (four to a match, so 64 players are 16 matches), lets them play for
+ * a second and then measures for the given time: ticks per second the server
+ * managed against the GameWorld.TICKS_PER_SECOND it aims for, the time each tick took
+ * for all of its matches together, how many snapshots and bytes the clients got, and
+ * the round trip from a client sending an input to seeing it in a snapshot.
+ */
+public class LoadTest {
+    static private final long c_seed = 12345L;
+    static private final long c_warmupMillis = 1000;
+
+    public static void run(int players, int tickThreads, int seconds) throws Exception {
+        final int matches = (players + InputFrame.MAX_PLAYERS - 1) / InputFrame.MAX_PLAYERS;
+        MatchServer server = new MatchServer(0, true, matches, tickThreads, Options.Level.BOXY, c_seed);
+        server.start();
+
+        Histogram roundTrips = new Histogram(1 << 16);
+        List<SimulatedClient> clients = new ArrayList<SimulatedClient>();
+        for (int i = 0; i < players; ++i) {
+            SimulatedClient client = new SimulatedClient("127.0.0.1", server.getPort(), c_seed + i, roundTrips);
+            client.start();
+            clients.add(client);
+        }
+
+        Thread.sleep(c_warmupMillis);
+        server.getTickTimes().reset();
+        roundTrips.reset();
+        final long ticksBefore = server.getTicks();
+        final long lateBefore = server.getLateTicks();
+        long snapshotsBefore = 0;
+        long bytesBefore = 0;
+        for (SimulatedClient client : clients) {
+            snapshotsBefore += client.getSnapshotCount();
+            bytesBefore += client.getBytesRead();
+        }
+        final long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        final double elapsed = (System.nanoTime() - start) / 1e9;
+        final long ticks = server.getTicks() - ticksBefore;
+        final long late = server.getLateTicks() - lateBefore;
+        long snapshots = -snapshotsBefore;
+        long bytes = -bytesBefore;
+        for (SimulatedClient client : clients) {
+            snapshots += client.getSnapshotCount();
+            bytes += client.getBytesRead();
+        }
+        final Histogram tickTimes = server.getTickTimes();
+
+        System.out.println(String.format(Locale.US,
+                "%3d players, %2d matches: %5.1f ticks/s, %d late, tick p50/p99/max %.3f/%.3f/%.3f ms, "
+                        + "round trip p50/p99 %.3f/%.3f ms, %.1f snapshots/s per client, %.2f MB/s",
+                players, matches, ticks / elapsed, late,
+                tickTimes.getValueAtPercentile(50) / 1e6, tickTimes.getValueAtPercentile(99) / 1e6,
+                tickTimes.getMax() / 1e6,
+                roundTrips.getValueAtPercentile(50) / 1e6, roundTrips.getValueAtPercentile(99) / 1e6,
+                snapshots / elapsed / players, bytes / elapsed / 1e6));
+
+        for (SimulatedClient client : clients) {
+            client.stop();
+        }
+        server.stop();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String counts = args.length > 0 ? args[0] : "4,16,64";
+        int tickThreads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        System.out.println("Tick threads: " + tickThreads);
+        for (String count : counts.split(",")) {
+            run(Integer.parseInt(count.trim()), tickThreads, seconds);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless, authoritative match server on a plain JVM, with nothing from Android or
+ * GL running:
+ *
+ *   ant -f server/build.xml run -Dserver.port=7760 -Dserver.level=BOXY
+ *
+ * Clients (see MatchProtocol) go into the first match with a free player slot, and a
+ * new match is started once all of them are full, up to maxMatches. One thread ticks
+ * at GameWorld.TICKS_PER_SECOND, stepping every match and handing its snapshot to its
+ * clients (every step, or fewer of them, see setSnapshotRate()); nothing the clients
+ * do can make it wait. Each connection says hello on a thread of its own, so a client
+ * that connects and goes quiet doesn't hold up anybody else's join. Matches share
+ * nothing, so with more than one tick thread they are stepped side by side.
+ */
+public class MatchServer {
+    // Don't try to catch up on more than this after a hitch, just carry on from now
+    static private final long c_maxLagNanos = GameWorld.TICK_NANOS * 8;
+
+    private final int maxMatches;
+    private final int tickThreads;
+    private ExecutorService stepPool;
+    private final Options.Level level;
+    private final long seed;
+    private int snapshotInterval = 1;       // in ticks
+    private final ServerSocket serverSocket;
+    private final List<ServerMatch> matches = new ArrayList<ServerMatch>();
+    private volatile boolean running = false;
+    private Thread acceptThread;
+    private Thread tickThread;
+
+    // Nanoseconds of work per tick, all matches together
+    private final Histogram tickTimes = new Histogram(4096);
+    private volatile long ticks = 0;
+    private volatile long lateTicks = 0;
+
+    /**
+     * Binds to the given port on the loopback address only if loopbackOnly, else on
+     * every address; port 0 picks a free one (see getPort()). tickThreads counts the
+     * tick thread itself.
+     */
+    public MatchServer(int port, boolean loopbackOnly, int maxMatches, int tickThreads, Options.Level level,
+                       long seed) throws IOException {
+        this.maxMatches = maxMatches;
+        this.tickThreads = tickThreads;
+        this.level = level;
+        this.seed = seed;
+        serverSocket = loopbackOnly
+                ? new ServerSocket(port, 64, InetAddress.getByName("127.0.0.1"))
+                : new ServerSocket(port, 64);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Sends snapshots about this many times a second instead of after every step, for
+     * matches started from now on. The simulation still steps at the full rate.
+     */
+    public synchronized void setSnapshotRate(int perSecond) {
+        snapshotInterval = Math.max(1, GameWorld.TICKS_PER_SECOND / Math.max(1, perSecond));
+    }
+
+    public void start() {
+        running = true;
+        if (tickThreads > 1) {
+            stepPool = Executors.newFixedThreadPool(tickThreads);
+        }
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "accept");
+        tickThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tickLoop();
+            }
+        }, "tick");
+        acceptThread.start();
+        tickThread.start();
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Stopping anyway
+        }
+        acceptThread.join();
+        tickThread.join();
+        if (stepPool != null) {
+            stepPool.shutdown();
+        }
+        for (ServerMatch match : getMatches()) {
+            match.shutdown();
+        }
+    }
+
+    public synchronized List<ServerMatch> getMatches() {
+        return new ArrayList<ServerMatch>(matches);
+    }
+
+    public Histogram getTickTimes() {
+        return tickTimes;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Ticks that started more than a whole tick late.
+     */
+    public long getLateTicks() {
+        return lateTicks;
+    }
+
+    synchronized ClientSession join(Socket socket, DataInputStream in, DataOutputStream out) {
+        for (ServerMatch match : matches) {
+            ClientSession session = match.join(socket, in, out);
+            if (session != null) {
+                return session;
+            }
+        }
+        if (matches.size() == maxMatches) {
+            return null;
+        }
+        ServerMatch match = new ServerMatch(matches.size(), level, seed + matches.size(), snapshotInterval);
+        matches.add(match);
+        return match.join(socket, in, out);
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                // Closed by stop()
+                return;
+            } catch (IOException e) {
+                System.err.println("accept failed: " + e);
+                continue;
+            }
+            // A client that's slow to say hello mustn't hold up the ones behind it
+            Thread handshake = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    handshake(socket);
+                }
+            }, "handshake-" + socket.getRemoteSocketAddress());
+            handshake.setDaemon(true);
+            handshake.start();
+        }
+    }
+
+    private void handshake(Socket socket) {
+        try {
+            ClientSession.accept(socket, this);
+        } catch (IOException e) {
+            System.err.println("Dropped " + socket.getRemoteSocketAddress() + ": " + e);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Nothing more to do with it
+            }
+        }
+    }
+
+    private void tickLoop() {
+        ServerMatch[] stepping = new ServerMatch[0];
+        long next = System.nanoTime();
+        while (running) {
+            final long start = System.nanoTime();
+            if (start - next > GameWorld.TICK_NANOS) {
+                ++lateTicks;
+            }
+            synchronized (this) {
+                stepping = matches.toArray(stepping);
+            }
+            try {
+                stepAll(stepping);
+            } catch (Exception e) {
+                // Stepping doesn't throw, so this is a bug
+                throw new IllegalStateException(e);
+            }
+            tickTimes.record(System.nanoTime() - start);
+            ++ticks;
+
+            next += GameWorld.TICK_NANOS;
+            final long now = System.nanoTime();
+            if (now - next > c_maxLagNanos) {
+                next = now;
+            }
+            while (running && next - System.nanoTime() > 0) {
+                LockSupport.parkNanos(next - System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Steps the matches (null-terminated if shorter than the array) and returns once
+     * all of them are done.
+     */
+    private void stepAll(ServerMatch[] stepping) throws InterruptedException, ExecutionException {
+        if (stepPool == null) {
+            for (ServerMatch match : stepping) {
+                if (match == null) {
+                    break;
+                }
+                match.step();
+            }
+            return;
+        }
+        List<Future<Void>> steps = new ArrayList<Future<Void>>(stepping.length);
+        for (ServerMatch match : stepping) {
+            if (match == null) {
+                break;
+            }
+            steps.add(stepPool.submit(match.stepTask));
+        }
+        for (Future<Void> step : steps) {
+            step.get();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : MatchProtocol.DEFAULT_PORT;
+        Options.Level level = args.length > 1 ? Options.Level.valueOf(args[1]) : Options.Level.BOXY;
+        int maxMatches = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int tickThreads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        int snapshotRate = args.length > 4 ? Integer.parseInt(args[4]) : GameWorld.TICKS_PER_SECOND;
+
+        final MatchServer server = new MatchServer(port, false, maxMatches, tickThreads, level, System.nanoTime());
+        server.setSnapshotRate(snapshotRate);
+        server.start();
+        System.out.println("Serving " + level + " on port " + server.getPort() + ", up to " + maxMatches + " matches");
+        while (true) {
+            Thread.sleep(10000);
+            Histogram times = server.getTickTimes();
+            int players = 0;
+            List<ServerMatch> matches = server.getMatches();
+            for (ServerMatch match : matches) {
+                players += match.getClientCount();
+            }
+            System.out.println(String.format(Locale.US, "%d matches, %d players, tick %.3f ms p50 %.3f ms p99, %d late",
+                    matches.size(), players, times.getValueAtPercentile(50) / 1e6,
+                    times.getValueAtPercentile(99) / 1e6, server.getLateTicks()));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Arrays;
+
+/**
+ * Input for one match on a MatchServer, from the clients playing it. Their sessions
+ * write the newest controller state of their slot whenever an INPUT arrives, and
+ * poll() copies all of it over in one go, the same way ControllerInput does for the
+ * controllers on a console. It also remembers which input each slot's step ran with,
+ * for the client to compare against what it predicted.
+ *
+ * Slots get their own index as device id, like in a recording.
+ */
+public class RemoteInput implements InputSource {
+    private final boolean[] connected = new boolean[InputFrame.MAX_PLAYERS];
+    private final float[] axes = new float[InputFrame.MAX_PLAYERS * 4];     // LS x, y, RS x, y
+    private final int[] buttons = new int[InputFrame.MAX_PLAYERS];
+    private final int[] received = new int[InputFrame.MAX_PLAYERS];         // newest sequence number
+    private final int[] applied = new int[InputFrame.MAX_PLAYERS];          // as of the last poll()
+
+    public synchronized void connect(int slot) {
+        connected[slot] = true;
+        release(slot);
+        received[slot] = 0;
+        applied[slot] = 0;
+    }
+
+    /**
+     * The slot's player lets go of everything and sits the match out until somebody
+     * else connects to it.
+     */
+    public synchronized void disconnect(int slot) {
+        connected[slot] = false;
+        release(slot);
+    }
+
+    private void release(int slot) {
+        Arrays.fill(axes, slot * 4, slot * 4 + 4, 0.0f);
+        buttons[slot] = 0;
+    }
+
+    /**
+     * Ignores anything older than what the slot already has.
+     */
+    public synchronized void set(int slot, int sequence,
+                                 float leftX, float leftY, float rightX, float rightY, int buttons) {
+        if (!connected[slot] || sequence <= received[slot]) {
+            return;
+        }
+        received[slot] = sequence;
+        final int a = slot * 4;
+        axes[a] = leftX;
+        axes[a + 1] = leftY;
+        axes[a + 2] = rightX;
+        axes[a + 3] = rightY;
+        this.buttons[slot] = buttons;
+    }
+
+    /**
+     * Sequence number of the newest input of the slot that made it into a step.
+     */
+    public synchronized int getAppliedSequence(int slot) {
+        return applied[slot];
+    }
+
+    @Override
+    public synchronized boolean poll(long tick, InputFrame frame) {
+        for (int slot = 0; slot < InputFrame.MAX_PLAYERS; ++slot) {
+            if (connected[slot]) {
+                final int a = slot * 4;
+                frame.set(slot, slot, axes[a], axes[a + 1], axes[a + 2], axes[a + 3], buttons[slot]);
+                applied[slot] = received[slot];
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a match the way a console on a bad connection would, all in one process:
+ *
+ *   ant -f server/build.xml remoteplay -Dremoteplay.latency=50 -Dremoteplay.loss=0.05
+ *
+ * A MatchServer sends snapshots at the given rate through an ImpairedLink, to a
+ * RemoteMatch driven by random stick input plus a few SimulatedClients to fill the
+ * match. The RemoteMatch gets stepped and sampled at 60 frames a second, exactly as
+ * GameRenderer would, once for each interpolation delay given.
+ *
+ * For the asteroids (which never stop moving) it counts the frames that show one in
+ * the same place as the frame before, and how much the distance they move from frame
+ * to frame varies ("jerk", relative to the distance itself); both are 0 for perfectly
+ * smooth motion. Fragments that have only just split off still count a few stalls,
+ * since they wait where they first showed up until the snapshot after. For our own player it gives the corrections the server made to the
+ * prediction.
+ */
+public class RemotePlayTest {
+    static private final long c_seed = 12345L;
+    static private final long c_warmupMillis = 1000;
+    static private final int c_holdTicks = 20;
+    static private final int c_otherPlayers = InputFrame.MAX_PLAYERS - 1;
+
+    public static void run(long delayMillis, int snapshotRate, long latencyMillis, long jitterMillis, double loss,
+                           int seconds) throws Exception {
+        MatchServer server = new MatchServer(0, true, 1, 1, Options.Level.BOXY, c_seed);
+        server.setSnapshotRate(snapshotRate);
+        server.start();
+        ImpairedLink link = new ImpairedLink(server.getPort(), latencyMillis * 1000000L, jitterMillis * 1000000L,
+                loss, c_seed);
+        link.start();
+
+        final Random random = new Random(c_seed);
+        InputSource sticks = new InputSource() {
+            private float leftX, leftY, rightX, rightY;
+
+            @Override
+            public boolean poll(long tick, InputFrame frame) {
+                if (tick % c_holdTicks == 0) {
+                    leftX = random.nextFloat() * 2.0f - 1.0f;
+                    leftY = random.nextFloat() * 2.0f - 1.0f;
+                    rightX = random.nextFloat() * 2.0f - 1.0f;
+                    rightY = random.nextFloat() * 2.0f - 1.0f;
+                }
+                frame.set(0, 0, leftX, leftY, rightX, rightY, 0);
+                return true;
+            }
+        };
+        RemoteMatch remote = new RemoteMatch("127.0.0.1", link.getPort(), sticks, Clock.SYSTEM,
+                delayMillis * 1000000L);
+        Histogram roundTrips = new Histogram(1 << 16);
+        List<SimulatedClient> others = new ArrayList<SimulatedClient>();
+        for (int i = 0; i < c_otherPlayers; ++i) {
+            SimulatedClient client = new SimulatedClient("127.0.0.1", link.getPort(), c_seed + i, roundTrips);
+            client.start();
+            others.add(client);
+        }
+
+        final GameWorld world = remote.getWorld();
+        final SnapshotInterpolator interpolator = remote.getInterpolator();
+        Snapshot frame = new Snapshot();
+        Snapshot previous = new Snapshot();
+        float[] moved = new float[1024];
+        float[] previousMoved = new float[1024];
+        boolean havePrevious = false;
+
+        long measuredFrames = 0;
+        long framesBefore = 0;
+        long heldBefore = 0;
+        long correctionsBefore = 0;
+        long snapsBefore = 0;
+        long samples = 0;
+        long stalls = 0;
+        double distance = 0.0;
+        double jerk = 0.0;
+
+        final long start = System.nanoTime();
+        final long measureFrom = start + c_warmupMillis * 1000000L;
+        final long end = measureFrom + seconds * 1000000000L;
+        boolean measuring = false;
+        long next = start;
+        while (next - end < 0) {
+            final long now = System.nanoTime();
+            if (!measuring && now - measureFrom >= 0) {
+                measuring = true;
+                framesBefore = interpolator.getFrameCount();
+                heldBefore = interpolator.getHeldFrameCount();
+                synchronized (world) {
+                    correctionsBefore = remote.getCorrectionCount();
+                    snapsBefore = remote.getSnapCount();
+                }
+            }
+
+            world.advance();
+            if (remote.sample(frame)) {
+                if (moved.length < frame.getCount()) {
+                    moved = new float[frame.getCount() * 2];
+                }
+                int p = 0;
+                for (int i = 0; i < frame.getCount(); ++i) {
+                    moved[i] = -1.0f;
+                    if (frame.getType(i) != RenderObject.TYPE_ASTEROID || !havePrevious) {
+                        continue;
+                    }
+                    final int serial = frame.getSerial(i);
+                    while (p < previous.getCount() && previous.getSerial(p) < serial) {
+                        ++p;
+                    }
+                    if (p == previous.getCount() || previous.getSerial(p) != serial) {
+                        continue;
+                    }
+                    final float dx = Sweep.wrapDelta(frame.getX(i) - previous.getX(p), GameRenderer.BOARD_WIDTH);
+                    final float dy = Sweep.wrapDelta(frame.getY(i) - previous.getY(p), GameRenderer.BOARD_HEIGHT);
+                    final float d = (float) Math.sqrt(dx * dx + dy * dy);
+                    moved[i] = d;
+                    if (measuring && previousMoved[p] >= 0.0f) {
+                        ++samples;
+                        if (d == 0.0f) {
+                            ++stalls;
+                        }
+                        distance += d;
+                        jerk += Math.abs(d - previousMoved[p]);
+                    }
+                }
+                final Snapshot swap = previous;
+                previous = frame;
+                frame = swap;
+                final float[] swapMoved = previousMoved;
+                previousMoved = moved;
+                moved = swapMoved;
+                havePrevious = true;
+            }
+            if (measuring) {
+                ++measuredFrames;
+            }
+
+            next += GameWorld.TICK_NANOS;
+            long wait;
+            while ((wait = next - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+
+        final long frames = interpolator.getFrameCount() - framesBefore;
+        final long held = interpolator.getHeldFrameCount() - heldBefore;
+        final long corrections;
+        final long snaps;
+        final float meanCorrection;
+        final float maxCorrection;
+        synchronized (world) {
+            corrections = remote.getCorrectionCount() - correctionsBefore;
+            snaps = remote.getSnapCount() - snapsBefore;
+            meanCorrection = remote.getMeanCorrection();
+            maxCorrection = remote.getMaxCorrection();
+        }
+        System.out.println(String.format(Locale.US,
+                "delay %3d ms: %d frames, %.1f%% held, asteroid stalls %.1f%%, jerk %.3f; "
+                        + "prediction: %.1f corrections/s, mean %.3f max %.3f, %d snaps",
+                delayMillis, measuredFrames, frames > 0 ? 100.0 * held / frames : 0.0,
+                samples > 0 ? 100.0 * stalls / samples : 0.0, distance > 0.0 ? jerk / distance : 0.0,
+                corrections / (double) seconds, meanCorrection, maxCorrection, snaps));
+
+        remote.close();
+        for (SimulatedClient client : others) {
+            client.stop();
+        }
+        link.stop();
+        server.stop();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String delays = args.length > 0 ? args[0] : "0,50,150";
+        int snapshotRate = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long latency = args.length > 2 ? Long.parseLong(args[2]) : 50;
+        long jitter = args.length > 3 ? Long.parseLong(args[3]) : 20;
+        double loss = args.length > 4 ? Double.parseDouble(args[4]) : 0.05;
+        int seconds = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+
+        System.out.println(String.format(Locale.US,
+                "%d snapshots/s, %d ms latency + up to %d ms jitter each way, %.0f%% loss",
+                snapshotRate, latency, jitter, loss * 100.0));
+        for (String delay : delays.split(",")) {
+            run(Long.parseLong(delay.trim()), snapshotRate, latency, jitter, loss, seconds);
+        }
+    }
+}
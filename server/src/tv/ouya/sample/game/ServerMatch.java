@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * One match on a MatchServer: a GameWorld of its own, fed by a RemoteInput, and up to
+ * InputFrame.MAX_PLAYERS clients, one per player slot.
+ *
+ * The snapshots of the last MatchProtocol.BASELINE_HISTORY steps are kept, so every
+ * client can be sent the newest one against whichever of them it acknowledged last.
+ */
+public class ServerMatch {
+    private final int index;
+    private final Options.Level level;
+    private final int snapshotInterval;     // in ticks
+    private final GameWorld world;
+    private final RemoteInput input = new RemoteInput();
+    private final ClientSession[] clients = new ClientSession[InputFrame.MAX_PLAYERS];
+    private int clientCount = 0;
+
+    private final Snapshot[] history = new Snapshot[MatchProtocol.BASELINE_HISTORY];  // by tick
+    private ByteBuffer encoded = ByteBuffer.allocate(SnapshotCodec.maxEncodedSize(256));
+
+    // step(), for handing to a thread pool
+    final Callable<Void> stepTask = new Callable<Void>() {
+        @Override
+        public Void call() {
+            step();
+            return null;
+        }
+    };
+
+    public ServerMatch(int index, Options.Level level, long seed, int snapshotInterval) {
+        this.index = index;
+        this.level = level;
+        this.snapshotInterval = snapshotInterval;
+        // Stepped by the server's tick, never through advance()
+        world = new GameWorld(Clock.SYSTEM);
+        world.startLevel(level, seed, input);
+        for (int i = 0; i < history.length; ++i) {
+            history[i] = new Snapshot();
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Options.Level getLevel() {
+        return level;
+    }
+
+    public GameWorld getWorld() {
+        return world;
+    }
+
+    RemoteInput getInput() {
+        return input;
+    }
+
+    public synchronized int getClientCount() {
+        return clientCount;
+    }
+
+    /**
+     * Gives the client the lowest free slot, or returns null if there is none.
+     */
+    synchronized ClientSession join(Socket socket, DataInputStream in, DataOutputStream out) {
+        for (int slot = 0; slot < clients.length; ++slot) {
+            if (clients[slot] == null) {
+                clients[slot] = new ClientSession(socket, in, out, this, slot);
+                ++clientCount;
+                input.connect(slot);
+                return clients[slot];
+            }
+        }
+        return null;
+    }
+
+    synchronized void leave(ClientSession client) {
+        final int slot = client.getSlot();
+        if (clients[slot] == client) {
+            clients[slot] = null;
+            --clientCount;
+            input.disconnect(slot);
+        }
+    }
+
+    /**
+     * Runs one step and, every snapshotInterval steps, hands the resulting snapshot to
+     * every client. Only the server's tick calls this, one step at a time.
+     */
+    void step() {
+        world.step();
+        final long tick = world.getTick();
+        if (tick % snapshotInterval != 0) {
+            return;
+        }
+        final Snapshot snapshot = history[(int) (tick % history.length)];
+        snapshot.capture(world, level);
+        final int size = SnapshotCodec.maxEncodedSize(snapshot.getCount());
+        if (encoded.capacity() < size) {
+            encoded = ByteBuffer.allocate(Math.max(size, encoded.capacity() * 2));
+        }
+        synchronized (this) {
+            for (int slot = 0; slot < clients.length; ++slot) {
+                final ClientSession client = clients[slot];
+                if (client == null) {
+                    continue;
+                }
+                encoded.clear();
+                SnapshotCodec.encode(snapshot, getBaseline(client.getAcknowledgedTick(), tick), encoded);
+                // Its own copy, since the client sends it whenever it gets to it
+                final int length = encoded.position();
+                client.publish(Arrays.copyOf(encoded.array(), length), length, input.getAppliedSequence(slot));
+            }
+        }
+    }
+
+    /**
+     * The kept snapshot of the given tick, or null if it's gone or never was.
+     */
+    private Snapshot getBaseline(long acknowledged, long tick) {
+        if (acknowledged < 0 || acknowledged >= tick || tick - acknowledged >= history.length) {
+            return null;
+        }
+        final Snapshot baseline = history[(int) (acknowledged % history.length)];
+        return baseline.getTick() == acknowledged ? baseline : null;
+    }
+
+    public void shutdown() {
+        ClientSession[] leaving;
+        synchronized (this) {
+            leaving = clients.clone();
+        }
+        for (ClientSession client : leaving) {
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+}
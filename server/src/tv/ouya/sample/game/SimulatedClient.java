@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A made-up player for LoadTest: connects to a MatchServer, then sends random stick
+ * and button input once a tick (a new choice every c_holdTicks, like ScriptedInput)
+ * and decodes every snapshot, keeping the last MatchProtocol.BASELINE_HISTORY of them
+ * for the ones after to be written against.
+ *
+ * Round trip latency is from sending an input to the first snapshot that says a step
+ * has used it; it goes into a Histogram that may be shared with other clients.
+ */
+public class SimulatedClient {
+    static private final int c_holdTicks = 20;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Random random;
+    private final Histogram roundTrips;
+    private final int slot;
+    private final int match;
+
+    // Send time of every input not acknowledged yet, by sequence number
+    private final long[] sendTimes = new long[1024];
+    private volatile int lastSent = 0;
+    private volatile boolean running = true;
+
+    private final Snapshot[] received = new Snapshot[MatchProtocol.BASELINE_HISTORY];
+    private byte[] buffer = new byte[4096];
+    private volatile long acknowledgedTick = -1;
+    private long snapshots = 0;
+    private long bytesRead = 0;
+
+    private Thread reader;
+    private Thread writer;
+
+    public SimulatedClient(String host, int port, long seed, Histogram roundTrips) throws IOException {
+        this.random = new Random(seed);
+        this.roundTrips = roundTrips;
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        MatchProtocol.writeHello(out);
+        out.flush();
+        final int message = in.readUnsignedByte();
+        if (message != MatchProtocol.WELCOME) {
+            socket.close();
+            throw new IOException("Server turned us away (" + message + ")");
+        }
+        match = in.readInt();
+        slot = in.readByte();
+        in.readByte();      // level
+        in.readShort();     // tick rate
+        for (int i = 0; i < received.length; ++i) {
+            received[i] = new Snapshot();
+        }
+    }
+
+    public int getMatch() {
+        return match;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public void start() {
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "client-" + match + "-" + slot + "-in");
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "client-" + match + "-" + slot + "-out");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Stopping anyway
+        }
+        reader.join();
+        writer.join();
+    }
+
+    public synchronized long getSnapshotCount() {
+        return snapshots;
+    }
+
+    public synchronized long getBytesRead() {
+        return bytesRead;
+    }
+
+    private void writeLoop() {
+        float leftX = 0.0f, leftY = 0.0f, rightX = 0.0f, rightY = 0.0f;
+        int buttons = 0;
+        long next = System.nanoTime();
+        try {
+            for (int sequence = 1; running; ++sequence) {
+                if (sequence % c_holdTicks == 1) {
+                    leftX = random.nextFloat() * 2.0f - 1.0f;
+                    leftY = random.nextFloat() * 2.0f - 1.0f;
+                    rightX = random.nextFloat() * 2.0f - 1.0f;
+                    rightY = random.nextFloat() * 2.0f - 1.0f;
+                    buttons = random.nextInt(16);
+                }
+                synchronized (sendTimes) {
+                    sendTimes[sequence % sendTimes.length] = System.nanoTime();
+                }
+                MatchProtocol.writeInput(out, sequence, acknowledgedTick, leftX, leftY, rightX, rightY, buttons);
+                out.flush();
+                lastSent = sequence;
+
+                next += GameWorld.TICK_NANOS;
+                while (running && next - System.nanoTime() > 0) {
+                    LockSupport.parkNanos(next - System.nanoTime());
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("client " + match + "/" + slot + " lost the server: " + e);
+            }
+        }
+    }
+
+    private void readLoop() {
+        int acknowledged = 0;
+        long count = 0;
+        try {
+            while (running) {
+                final int message = in.readUnsignedByte();
+                if (message != MatchProtocol.SNAPSHOT) {
+                    throw new IOException("Unexpected message " + message);
+                }
+                final int sequence = in.readInt();
+                final int length = in.readInt();
+                if (length > buffer.length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                in.readFully(buffer, 0, length);
+                decode(ByteBuffer.wrap(buffer, 0, length), received[(int) (count++ % received.length)]);
+                final long now = System.nanoTime();
+
+                // Only the first snapshot to include an input counts for it
+                if (sequence > acknowledged) {
+                    final int oldest = Math.max(acknowledged + 1, sequence - sendTimes.length + 1);
+                    synchronized (sendTimes) {
+                        for (int s = oldest; s <= sequence; ++s) {
+                            roundTrips.record(now - sendTimes[s % sendTimes.length]);
+                        }
+                    }
+                    acknowledged = sequence;
+                }
+                synchronized (this) {
+                    ++snapshots;
+                    bytesRead += length + 9;
+                }
+            }
+        } catch (EOFException e) {
+            // Server hung up
+        } catch (SocketException e) {
+            // Closed by stop()
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("client " + match + "/" + slot + ": " + e);
+            }
+        }
+    }
+
+    private void decode(ByteBuffer bytes, Snapshot out) throws IOException {
+        final long baselineTick = SnapshotCodec.readBaselineTick(bytes);
+        Snapshot baseline = null;
+        if (baselineTick >= 0) {
+            for (Snapshot s : received) {
+                if (s != out && s.getTick() == baselineTick) {
+                    baseline = s;
+                    break;
+                }
+            }
+            if (baseline == null) {
+                throw new IOException("Don't have baseline " + baselineTick);
+            }
+        }
+        SnapshotCodec.decode(bytes, baseline, out);
+        acknowledgedTick = out.getTick();
+    }
+}
@@ -17,119 +17,119 @@
 package tv.ouya.sample.game;
 
 import android.graphics.Color;
-import android.graphics.PointF;
-import android.os.Handler;
-import android.os.Looper;
 
-import javax.microedition.khronos.opengles.GL10;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.Random;
 
 public class Asteroid extends RenderObject {
 
     private int color;
+    // Only break up once, however many bullets hit us in the same step
+    private boolean shattered = false;
+
+    // Owned by an AsteroidField
+    private final AsteroidField field;
+    final int poolSlot;
+    int poolState = AsteroidField.c_free;
+
+    /**
+     * Asteroid against player and wall (bullets are Bullet's business).
+     */
+    static void registerCollisions(CollisionTable table) {
+        table.register(TYPE_ASTEROID, TYPE_PLAYER, new CollisionListener() {
+            @Override
+            public void onCollide(RenderObject me, RenderObject other) {
+                Player p = (Player) other;
+                p.doBurst();
+                p.die();
+                me.destroy();
+                me.world.getAsteroidField().spawn();
+            }
+        });
+        table.register(TYPE_ASTEROID, TYPE_WALL, new CollisionListener() {
+            @Override
+            public void onCollide(RenderObject me, RenderObject other) {
+                me.destroy();
+            }
+        });
+    }
+
+    Asteroid(GameWorld world, AsteroidField field, int poolSlot) {
+        super(world, TYPE_ASTEROID, 1.0f, false);
+        this.field = field;
+        this.poolSlot = poolSlot;
+        color = Color.GRAY;
+        setCollisionMask(LAYER_PLAYER | LAYER_BULLET | LAYER_WALL);
+    }
+
+    /**
+     * Starts a new life somewhere on an edge of the board.
+     */
+    void spawnAtEdge() {
+        shattered = false;
+        Random random = world.getRandom();
 
-    public Asteroid() {
-        super(1.0f);
-        
         // Pick a random starting location somewhere on an edge
-        float randomStart = (float) (Math.random() * (GameRenderer.BOARD_WIDTH - 1.0f) + 1.0f);
+        float randomStart = (float) (random.nextDouble() * (GameRenderer.BOARD_WIDTH - 1.0f) + 1.0f);
         if (randomStart < 0.5f) {
-        		translation.x = randomStart;
-        		translation.y = 0;
+        		setPosition(randomStart, 0);
         } else {
-        		translation.x = 0;
-        		translation.y = randomStart;
+        		setPosition(0, randomStart);
         }
-        rotation = (float) (Math.random() * 360.0f);
+        setRotate((float) (random.nextDouble() * 360.0f));
         
         // Random starting location generates a flight direction
-        float fwdX = (float) Math.sin(Math.toRadians(-rotation));
-        float fwdY = (float) Math.cos(Math.toRadians(-rotation));
-        float speed = (float) (Math.random() * 0.1f);
-        this.flight.set(speed * fwdX, speed * fwdY);
+        float speed = (float) (random.nextDouble() * 0.1f);
+        setVelocity(speed * getForwardX(), speed * getForwardY());
         
         // Pick a random starting omega (which is the standard for rotational velocity)
-        omega = (float) (Math.random() * 5.0f - 2.5f);
+        setOmega((float) (random.nextDouble() * 5.0f - 2.5f));
         
         // Pick a random size and set the radius
-        radius = (float) (Math.random() + 0.25f);
-        scale.x = radius;
-        scale.y = scale.x + (float) (Math.random() * 0.4f - 0.2f);
-        
-        // Set a color
-        color = Color.GRAY;
-
-        setCollisionListener(new CollisionListener() {
-            @Override
-            public void onCollide(PointF prev, RenderObject me, RenderObject other) {
-                if (other instanceof Player) {
-                    Player p = (Player) other;
-                    p.doBurst();
-                    p.die();
-                    Asteroid.this.destroy();
-                    new Asteroid();
-                } else if (other instanceof Wall || other instanceof Bullet) {
-                    Asteroid.this.destroy();
-                }
-            }
-        });
+        float radius = (float) (random.nextDouble() + 0.25f);
+        entities.radius[id] = radius;
+        setScale(radius, radius + (float) (random.nextDouble() * 0.4f - 0.2f));
     }
     
     void spawnedFrom(Asteroid a) {
-    		translation.x = a.translation.x;
-    		translation.y = a.translation.y;
-    		radius = 0.5f * a.radius;
-    		scale.x = radius;
-        scale.y = scale.x + (float) (Math.random() * 0.4f - 0.2f);
+    		Random random = world.getRandom();
+    		setPosition(a.getX(), a.getY());
+    		float radius = 0.5f * a.getRadius();
+    		entities.radius[id] = radius;
+        setScale(radius, radius + (float) (random.nextDouble() * 0.4f - 0.2f));
     }
     
+    static final short[] c_indices = {
+    		0, 1, 2,
+    		0, 2, 3,
+    		0, 3, 4, 
+    		0, 4, 5,
+    		0, 5, 6,
+    		0, 6, 7,
+    		0, 7, 8,
+    		0, 8, 9,
+    		0, 9, 10,
+    		0, 10, 11,
+    		0, 11, 12};
+
+    static final float[] c_coords = {
+            0.0f,  1.0f, 0.0f, // 0
+            0.3f,  0.8f, 0.0f, // 1
+            0.6f,  0.6f, 0.0f, // 2
+            0.7f,  0.0f, 0.0f, // 3
+            0.6f, -0.5f, 0.0f, // 4
+            0.5f, -0.6f, 0.0f, // 5
+            0.0f, -1.0f, 0.0f, // 6
+           -0.4f, -1.0f, 0.0f, // 7
+           -0.7f, -0.5f, 0.0f, // 8
+           -1.2f, -0.1f, 0.0f, // 9
+           -1.0f,  0.3f, 0.0f, // 10
+           -0.7f,  0.7f, 0.0f, // 11
+           -0.3f,  0.9f, 0.0f, // 12
+    };
+
     @Override
     protected void initModel() {
-        final short[] _indicesArray = {
-        		0, 1, 2,
-        		0, 2, 3,
-        		0, 3, 4, 
-        		0, 4, 5,
-        		0, 5, 6,
-        		0, 6, 7,
-        		0, 7, 8,
-        		0, 8, 9,
-        		0, 9, 10,
-        		0, 10, 11,
-        		0, 11, 12};
-
-        // float has 4 bytes
-        ByteBuffer vbb = ByteBuffer.allocateDirect(_indicesArray.length * 3 * 4);
-        vbb.order(ByteOrder.nativeOrder());
-        vertexBuffer = vbb.asFloatBuffer();
-
-        // short has 2 bytes
-        ByteBuffer ibb = ByteBuffer.allocateDirect(_indicesArray.length * 2);
-        ibb.order(ByteOrder.nativeOrder());
-        indexBuffer = ibb.asShortBuffer();
-
-        final float[] coords = {
-                0.0f,  1.0f, 0.0f, // 0
-                0.3f,  0.8f, 0.0f, // 1
-                0.6f,  0.6f, 0.0f, // 2
-                0.7f,  0.0f, 0.0f, // 3
-                0.6f, -0.5f, 0.0f, // 4
-                0.5f, -0.6f, 0.0f, // 5
-                0.0f, -1.0f, 0.0f, // 6
-               -0.4f, -1.0f, 0.0f, // 7
-               -0.7f, -0.5f, 0.0f, // 8
-               -1.2f, -0.1f, 0.0f, // 9
-               -1.0f,  0.3f, 0.0f, // 10
-               -0.7f,  0.7f, 0.0f, // 11
-               -0.3f,  0.9f, 0.0f, // 12
-        };
-
-        vertexBuffer.put(coords);
-        indexBuffer.put(_indicesArray);
-
-        vertexBuffer.position(0);
-        indexBuffer.position(0);
+        mesh = MeshCache.get(MeshCache.MeshType.ASTEROID);
     }
     
     @Override
@@ -139,20 +139,57 @@ public class Asteroid extends RenderObject {
     }
     
     @Override
-    protected void doRender(GL10 gl) {
-        setColor(gl, this.color);
-        super.doRender(gl);
+    public int getColor() {
+        return color;
     }
     
     protected void asteroidDeath() {
-    		if (radius > 0.3) {
-	    	    long n = 3;
-	    	    for (long i = 0; i < n; i++) {
-	    	        Asteroid b = new Asteroid();
-	    	        b.spawnedFrom(this);
-	        		b.flight.x += flight.x;
-	        		b.flight.y += flight.y;
-	    	    }
+    		if (shattered) {
+    		    return;
     		}
+    		shattered = true;
+    		field.split(this);
+    }
+
+    @Override
+    protected void destroy() {
+        if (field.retire(this)) {
+            super.destroy();
+        }
+    }
+
+    @Override
+    boolean isRetiring() {
+        return poolState == AsteroidField.c_dying;
+    }
+
+    @Override
+    void onRemovedFromWorld() {
+        // Keep our entity id, it comes back out of the pool with us
+        field.reclaim(this);
+    }
+
+    // poolState is the field's to save
+    @Override
+    void saveState(WorldState out) {
+        super.saveState(out);
+        out.writeBoolean(shattered);
+    }
+
+    @Override
+    void restoreState(WorldState in) {
+        super.restoreState(in);
+        shattered = in.readBoolean();
+    }
+
+    /**
+     * Back to how a brand new instance starts out, for an asteroid the field created
+     * after the state it is going back to was saved.
+     */
+    void resetState() {
+        shattered = false;
+        owner = null;
+        poolState = AsteroidField.c_free;
+        entities.reset(id);
     }
 }
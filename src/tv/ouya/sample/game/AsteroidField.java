@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Arrays;
+
+/**
+ * Owns every Asteroid in a world: spawns them, splits them and takes them back, so the
+ * population can't run away over a long match.
+ *
+ * Asteroids are pooled like bullets (see BulletPool): an instance is only created the
+ * first time the pool runs dry and is reused after that, fragments included. At most
+ * maxLive are in the world at a time (dying ones count until the world drops them),
+ * and at most spawnBudget come into it per step. A spawn that doesn't fit is held
+ * back for a later step; a fragment that doesn't fit is just never born.
+ */
+public class AsteroidField {
+    static final int c_free = 0;
+    static final int c_live = 1;
+    static final int c_dying = 2;
+
+    static private final int c_fragmentCount = 3;
+    // Anything this small or smaller goes away without breaking up
+    static private final float c_minSplitRadius = 0.3f;
+
+    private final GameWorld world;
+    private Asteroid[] asteroids;
+    private int[] freeSlots;
+    private int freeCount = 0;
+    private int created = 0;
+    private int inUse = 0;
+
+    private int maxLive;
+    private int spawnBudget;
+    private int spawnedThisStep = 0;
+    private int pending = 0;
+
+    private long spawned = 0;
+    private long deferred = 0;
+    private long droppedFragments = 0;
+
+    public AsteroidField(GameWorld world, int maxLive, int spawnBudget) {
+        this.world = world;
+        this.maxLive = maxLive;
+        this.spawnBudget = spawnBudget;
+        asteroids = new Asteroid[maxLive];
+        freeSlots = new int[maxLive];
+    }
+
+    public synchronized void setMaxLive(int maxLive) {
+        if (maxLive > asteroids.length) {
+            asteroids = Arrays.copyOf(asteroids, maxLive);
+            freeSlots = Arrays.copyOf(freeSlots, maxLive);
+        }
+        this.maxLive = maxLive;
+    }
+
+    public synchronized int getMaxLive() {
+        return maxLive;
+    }
+
+    public synchronized void setSpawnBudget(int spawnBudget) {
+        this.spawnBudget = spawnBudget;
+    }
+
+    public synchronized int getSpawnBudget() {
+        return spawnBudget;
+    }
+
+    /**
+     * Called by the world at the start of every step: refills the spawn budget and
+     * spends it on the spawns held back so far.
+     */
+    synchronized void beginStep() {
+        spawnedThisStep = 0;
+        while (pending > 0) {
+            Asteroid a = acquire();
+            if (a == null) {
+                break;
+            }
+            --pending;
+            a.spawnAtEdge();
+            add(a);
+        }
+    }
+
+    /**
+     * A new asteroid somewhere on the edge of the board. Returns null if it has to
+     * wait for a later step.
+     */
+    public synchronized Asteroid spawn() {
+        Asteroid a = acquire();
+        if (a == null) {
+            ++deferred;
+            if (pending < maxLive) {
+                ++pending;
+            }
+            return null;
+        }
+        a.spawnAtEdge();
+        add(a);
+        return a;
+    }
+
+    /**
+     * Breaks a dying asteroid up into smaller ones, as many as the budget allows.
+     */
+    public synchronized void split(Asteroid parent) {
+        if (parent.getRadius() <= c_minSplitRadius) {
+            return;
+        }
+        for (int i = 0; i < c_fragmentCount; ++i) {
+            Asteroid a = acquire();
+            if (a == null) {
+                ++droppedFragments;
+                continue;
+            }
+            a.spawnAtEdge();
+            a.spawnedFrom(parent);
+            a.addVelocity(parent.getVelocityX(), parent.getVelocityY());
+            add(a);
+        }
+    }
+
+    private Asteroid acquire() {
+        if (spawnedThisStep >= spawnBudget || inUse >= maxLive) {
+            return null;
+        }
+        Asteroid a;
+        if (freeCount > 0) {
+            a = asteroids[freeSlots[--freeCount]];
+        } else {
+            a = new Asteroid(world, this, created);
+            asteroids[created++] = a;
+        }
+        ++spawnedThisStep;
+        ++inUse;
+        ++spawned;
+        return a;
+    }
+
+    private void add(Asteroid a) {
+        a.poolState = c_live;
+        a.world.addRenderObject(a);
+    }
+
+    /**
+     * Called when a live asteroid gets destroyed. Returns false if it already was.
+     */
+    synchronized boolean retire(Asteroid a) {
+        if (a.poolState != c_live) {
+            return false;
+        }
+        a.poolState = c_dying;
+        return true;
+    }
+
+    /**
+     * Called once the world has dropped the asteroid from its object list.
+     */
+    synchronized void reclaim(Asteroid a) {
+        a.poolState = c_free;
+        freeSlots[freeCount++] = a.poolSlot;
+        --inUse;
+    }
+
+    /**
+     * Saves which asteroid is where, see WorldState.
+     */
+    synchronized void saveState(WorldState out) {
+        out.writeInt(created);
+        out.writeInt(freeCount);
+        out.writeInts(freeSlots, freeCount);
+        for (int i = 0; i < created; ++i) {
+            out.writeInt(asteroids[i].poolState);
+        }
+        out.writeInt(inUse);
+        out.writeInt(maxLive);
+        out.writeInt(spawnBudget);
+        out.writeInt(spawnedThisStep);
+        out.writeInt(pending);
+        out.writeLong(spawned);
+        out.writeLong(deferred);
+        out.writeLong(droppedFragments);
+    }
+
+    /**
+     * Instances created since the save stay created, the pool never shrinks. They go
+     * under the free ones, newest at the bottom, so the steps that follow hand them out
+     * in the order they were first created, looking just as new as they did then.
+     */
+    synchronized void restoreState(WorldState in) {
+        final int savedCreated = in.readInt();
+        final int extra = created - savedCreated;
+        freeCount = in.readInt();
+        in.readInts(freeSlots, freeCount);
+        if (extra > 0) {
+            System.arraycopy(freeSlots, 0, freeSlots, extra, freeCount);
+            for (int i = 0; i < extra; ++i) {
+                final Asteroid a = asteroids[created - 1 - i];
+                a.resetState();
+                freeSlots[i] = a.poolSlot;
+            }
+            freeCount += extra;
+        }
+        for (int i = 0; i < savedCreated; ++i) {
+            asteroids[i].poolState = in.readInt();
+        }
+        inUse = in.readInt();
+        maxLive = in.readInt();
+        spawnBudget = in.readInt();
+        spawnedThisStep = in.readInt();
+        pending = in.readInt();
+        spawned = in.readLong();
+        deferred = in.readLong();
+        droppedFragments = in.readLong();
+    }
+
+    // Asteroids in the world, dying ones included
+    public synchronized int getLiveCount() {
+        return inUse;
+    }
+
+    // Instances waiting in the pool to be reused
+    public synchronized int getPooledCount() {
+        return freeCount;
+    }
+
+    // Instances ever created; stops growing once the pool has warmed up
+    public synchronized int getCreatedCount() {
+        return created;
+    }
+
+    // Spawns held back for a later step right now
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    public synchronized long getSpawned() {
+        return spawned;
+    }
+
+    // Spawns that had to wait, over the whole match
+    public synchronized long getDeferred() {
+        return deferred;
+    }
+
+    public synchronized long getDroppedFragments() {
+        return droppedFragments;
+    }
+}
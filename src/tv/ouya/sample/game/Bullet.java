@@ -17,13 +17,6 @@
 package tv.ouya.sample.game;
 
 import android.graphics.Color;
-import android.graphics.PointF;
-import android.os.Handler;
-import android.os.Looper;
-
-import javax.microedition.khronos.opengles.GL10;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 public class Bullet extends RenderObject {
     static private final float c_bulletRadius = 0.25f;
@@ -31,68 +24,113 @@ public class Bullet extends RenderObject {
 
     static private final float c_bulletLifetime = 0.5f;
     private long startTime;
-    private Player shooter;
     private int color;
 
-    public Bullet(Player shooter, float translationX, float translationY, float rotation, int color) {
-        super(c_bulletRadius);
-        this.translation.set(translationX, translationY);
-        this.rotation = rotation;
-        this.color = color;
-        this.shooter = shooter;
-        
-        float fwdX = (float) Math.sin(Math.toRadians(-rotation));
-        float fwdY = (float) Math.cos(Math.toRadians(-rotation));
-        this.flight.set(c_bulletSpeed * fwdX, c_bulletSpeed * fwdY);
-        	
-        startTime = System.currentTimeMillis();
-
-        setCollisionListener(new CollisionListener() {
+    // Owned by a BulletPool, see BulletPool.fire()
+    private final BulletPool pool;
+    final int poolSlot;
+    int poolState = BulletPool.c_free;
+
+    Bullet(GameWorld world, BulletPool pool, int poolSlot) {
+        super(world, TYPE_BULLET, c_bulletRadius, false);
+        this.pool = pool;
+        this.poolSlot = poolSlot;
+
+        // Bullets fly through each other (bursts start out all in one spot)
+        setCollisionMask(LAYER_PLAYER | LAYER_ASTEROID | LAYER_WALL);
+    }
+
+    /**
+     * Bullet against player, asteroid and wall. Whoever fired the bullet is its
+     * owner, so it never hits them.
+     */
+    static void registerCollisions(CollisionTable table) {
+        table.register(TYPE_BULLET, TYPE_PLAYER, new CollisionListener() {
+            @Override
+            public void onCollide(RenderObject me, RenderObject other) {
+                Player p = (Player) other;
+                p.doBurst();
+                p.die();
+                me.destroy();
+            }
+        });
+        table.register(TYPE_BULLET, TYPE_ASTEROID, new CollisionListener() {
             @Override
-            public void onCollide(PointF prev, RenderObject me, RenderObject other) {
-                if (other instanceof Player && other != Bullet.this.shooter) {
-                    Player p = (Player) other;
-                    p.doBurst();
-                    p.die();
-                    Bullet.this.destroy();
-                } else if (other instanceof Wall) {
-                    Bullet.this.destroy();
-                } else if (other instanceof Asteroid) {
-                		Asteroid a = (Asteroid)other;
-                		Bullet.this.destroy();
-                		a.asteroidDeath();
-                		a.destroy();
-                }
+            public void onCollide(RenderObject me, RenderObject other) {
+                Asteroid a = (Asteroid) other;
+                me.destroy();
+                a.asteroidDeath();
+                a.destroy();
+            }
+        });
+        table.register(TYPE_BULLET, TYPE_WALL, new CollisionListener() {
+            @Override
+            public void onCollide(RenderObject me, RenderObject other) {
+                me.destroy();
             }
         });
     }
 
+    void spawn(Player shooter, float translationX, float translationY, float rotation, int color) {
+        teleport(translationX, translationY);
+        setRotate(rotation);
+        entities.prevRotation[id] = getRotation();
+        this.color = color;
+        setOwner(shooter);
+
+        float fwdX = (float) SimMath.sin(SimMath.toRadians(-rotation));
+        float fwdY = (float) SimMath.cos(SimMath.toRadians(-rotation));
+        setVelocity(c_bulletSpeed * fwdX, c_bulletSpeed * fwdY);
+
+        startTime = world.getTimeMillis();
+    }
+
+    @Override
+    protected void destroy() {
+        if (pool.retire(this)) {
+            super.destroy();
+        }
+    }
+
+    @Override
+    boolean isRetiring() {
+        return poolState == BulletPool.c_dying;
+    }
+
+    @Override
+    void onRemovedFromWorld() {
+        // Keep our entity id, it comes back out of the pool with us
+        setOwner(null);
+        pool.reclaim(this);
+    }
+
+    // poolState is the pool's to save
+    @Override
+    void saveState(WorldState out) {
+        super.saveState(out);
+        out.writeLong(startTime);
+        out.writeInt(color);
+    }
+
+    @Override
+    void restoreState(WorldState in) {
+        super.restoreState(in);
+        startTime = in.readLong();
+        color = in.readInt();
+    }
+
+    static final short[] c_indices = {0, 1, 2, 0, 2, 3};
+
+    static final float[] c_coords = {
+            0.0f, -0.1f, 0.0f, // 0
+            0.1f,  0.0f, 0.0f, // 1
+            0.0f,  0.6f, 0.0f, // 2
+           -0.1f,  0.0f, 0.0f, // 3
+    };
+
     @Override
     protected void initModel() {
-        final short[] _indicesArray = {0, 1, 2, 0, 2, 3};
-
-        // float has 4 bytes
-        ByteBuffer vbb = ByteBuffer.allocateDirect(_indicesArray.length * 3 * 4);
-        vbb.order(ByteOrder.nativeOrder());
-        vertexBuffer = vbb.asFloatBuffer();
-
-        // short has 2 bytes
-        ByteBuffer ibb = ByteBuffer.allocateDirect(_indicesArray.length * 2);
-        ibb.order(ByteOrder.nativeOrder());
-        indexBuffer = ibb.asShortBuffer();
-
-        final float[] coords = {
-                0.0f, -0.1f, 0.0f, // 0
-                0.1f,  0.0f, 0.0f, // 1
-                0.0f,  0.6f, 0.0f, // 2
-               -0.1f,  0.0f, 0.0f, // 3
-        };
-
-        vertexBuffer.put(coords);
-        indexBuffer.put(_indicesArray);
-
-        vertexBuffer.position(0);
-        indexBuffer.position(0);
+        mesh = MeshCache.get(MeshCache.MeshType.BULLET);
     }
 
     
@@ -102,7 +140,7 @@ public class Bullet extends RenderObject {
         super.update();
         drift();
 
-        long currentTime = System.currentTimeMillis();
+        long currentTime = world.getTimeMillis();
         float elapsedTime = (currentTime - startTime) / 1000.0f;
         if (elapsedTime >= c_bulletLifetime) {
             destroy();
@@ -110,8 +148,7 @@ public class Bullet extends RenderObject {
     }
 
     @Override
-    protected void doRender(GL10 gl) {
-        setColor(gl, this.color);
-        super.doRender(gl);
+    public int getColor() {
+        return color;
     }
 }
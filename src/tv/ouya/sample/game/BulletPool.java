@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+/**
+ * Fixed set of Bullets that get handed out and taken back instead of being created and
+ * garbage collected for every shot.
+ *
+ * A bullet is free, live (in the world), or dying (destroyed, but the world hasn't
+ * dropped it yet). It only becomes free again once the world has removed it, so a
+ * slot is never reused while the old bullet is still in the object list. Live bullets
+ * are kept in firing order, which makes finding the oldest one cheap.
+ */
+public class BulletPool {
+
+    public enum ExhaustedPolicy {
+        RECYCLE_OLDEST,     // take over the oldest live bullet
+        DROP,               // don't fire
+    }
+
+    static final int c_free = 0;
+    static final int c_live = 1;
+    static final int c_dying = 2;
+
+    private final Bullet[] bullets;
+    private final int[] freeSlots;
+    private int freeCount;
+
+    // Live bullets, oldest first, as a doubly linked list of slots
+    private final int[] liveNext;
+    private final int[] livePrev;
+    private int liveHead = -1;
+    private int liveTail = -1;
+    private int liveCount = 0;
+
+    private ExhaustedPolicy exhaustedPolicy = ExhaustedPolicy.RECYCLE_OLDEST;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long recycled = 0;
+    private long dropped = 0;
+
+    public BulletPool(GameWorld world, int capacity) {
+        bullets = new Bullet[capacity];
+        freeSlots = new int[capacity];
+        liveNext = new int[capacity];
+        livePrev = new int[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            bullets[i] = new Bullet(world, this, i);
+            // Hand out the low slots first
+            freeSlots[i] = capacity - 1 - i;
+        }
+        freeCount = capacity;
+    }
+
+    public void setExhaustedPolicy(ExhaustedPolicy policy) {
+        exhaustedPolicy = policy;
+    }
+
+    public ExhaustedPolicy getExhaustedPolicy() {
+        return exhaustedPolicy;
+    }
+
+    /**
+     * Spawns a bullet into the world, or returns null if the pool is exhausted and the
+     * policy says to drop the shot.
+     */
+    public synchronized Bullet fire(Player shooter, float x, float y, float rotation, int color) {
+        Bullet b;
+        if (freeCount > 0) {
+            ++hits;
+            b = bullets[freeSlots[--freeCount]];
+            b.spawn(shooter, x, y, rotation, color);
+            b.world.addRenderObject(b);
+        } else {
+            ++misses;
+            if (exhaustedPolicy == ExhaustedPolicy.DROP || liveHead < 0) {
+                ++dropped;
+                return null;
+            }
+            // Still in the world, so just restart it
+            ++recycled;
+            b = bullets[liveHead];
+            unlinkLive(b.poolSlot);
+            b.spawn(shooter, x, y, rotation, color);
+        }
+        b.poolState = c_live;
+        linkLive(b.poolSlot);
+        return b;
+    }
+
+    /**
+     * Called when a live bullet gets destroyed. Returns false if it already was.
+     */
+    synchronized boolean retire(Bullet b) {
+        if (b.poolState != c_live) {
+            return false;
+        }
+        unlinkLive(b.poolSlot);
+        b.poolState = c_dying;
+        return true;
+    }
+
+    /**
+     * Called once the world has dropped the bullet from its object list.
+     */
+    synchronized void reclaim(Bullet b) {
+        if (b.poolState == c_live) {
+            unlinkLive(b.poolSlot);
+        }
+        b.poolState = c_free;
+        freeSlots[freeCount++] = b.poolSlot;
+    }
+
+    /**
+     * Saves which bullet is where, see WorldState. The bullets keep their own state
+     * for as long as they are in the world.
+     */
+    synchronized void saveState(WorldState out) {
+        final int capacity = bullets.length;
+        out.writeInt(freeCount);
+        out.writeInts(freeSlots, freeCount);
+        out.writeInts(liveNext, capacity);
+        out.writeInts(livePrev, capacity);
+        out.writeInt(liveHead);
+        out.writeInt(liveTail);
+        out.writeInt(liveCount);
+        for (int i = 0; i < capacity; ++i) {
+            out.writeInt(bullets[i].poolState);
+        }
+        out.writeLong(hits);
+        out.writeLong(misses);
+        out.writeLong(recycled);
+        out.writeLong(dropped);
+    }
+
+    synchronized void restoreState(WorldState in) {
+        final int capacity = bullets.length;
+        freeCount = in.readInt();
+        in.readInts(freeSlots, freeCount);
+        in.readInts(liveNext, capacity);
+        in.readInts(livePrev, capacity);
+        liveHead = in.readInt();
+        liveTail = in.readInt();
+        liveCount = in.readInt();
+        for (int i = 0; i < capacity; ++i) {
+            bullets[i].poolState = in.readInt();
+        }
+        hits = in.readLong();
+        misses = in.readLong();
+        recycled = in.readLong();
+        dropped = in.readLong();
+    }
+
+    public int getCapacity() {
+        return bullets.length;
+    }
+
+    public synchronized int getLiveCount() {
+        return liveCount;
+    }
+
+    public synchronized int getFreeCount() {
+        return freeCount;
+    }
+
+    // Shots served from a free slot
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    // Shots fired while no slot was free, whether recycled or dropped
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getRecycled() {
+        return recycled;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    private void linkLive(int slot) {
+        liveNext[slot] = -1;
+        livePrev[slot] = liveTail;
+        if (liveTail >= 0) {
+            liveNext[liveTail] = slot;
+        } else {
+            liveHead = slot;
+        }
+        liveTail = slot;
+        ++liveCount;
+    }
+
+    private void unlinkLive(int slot) {
+        int prev = livePrev[slot];
+        int next = liveNext[slot];
+        if (prev >= 0) {
+            liveNext[prev] = next;
+        } else {
+            liveHead = next;
+        }
+        if (next >= 0) {
+            livePrev[next] = prev;
+        } else {
+            liveTail = prev;
+        }
+        --liveCount;
+    }
+}
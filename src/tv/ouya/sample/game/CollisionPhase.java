@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The query half of a step's collision phase: for every object that moved and has a
+ * collision mask, find everything it ran into (GameWorld.findContacts()). Queries
+ * only read the grids and entity state, so they can run on several threads at once;
+ * GameWorld then runs the responses to the contacts one at a time, in object order,
+ * which makes the outcome the same whatever the thread count.
+ *
+ * The objects are split into fixed-size chunks that the calling thread and the
+ * workers claim one at a time, each with a ContactBuffer of its own, so a crowded part of the board doesn't leave everybody
+ * else waiting on one thread. Small worlds aren't worth waking the workers for and
+ * just run on the calling thread.
+ */
+public class CollisionPhase {
+    static private final int c_chunkSize = 64;
+    static private final int c_minParallelObjects = 256;
+
+    private final Thread[] workers;
+    private final AtomicInteger nextChunk = new AtomicInteger();
+
+    // Inputs and results of the run in progress. Handed to the workers through the
+    // monitor, see run().
+    private GameWorld world;
+    private RenderObject[] objects;
+    private int count;
+    private ContactBuffer[] chunkContacts = new ContactBuffer[0];
+    private int chunkCapacity = 0;      // the most any chunk has ever needed
+    private final ContactBuffer contacts = new ContactBuffer();
+
+    private int generation = 0;
+    private int busyWorkers = 0;
+    private boolean shutdown = false;
+
+    /**
+     * threads counts the calling thread, so 1 means no extra threads at all.
+     */
+    public CollisionPhase(int threads) {
+        workers = new Thread[Math.max(0, threads - 1)];
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop();
+                }
+            }, "collision-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    public int getThreadCount() {
+        return workers.length + 1;
+    }
+
+    /**
+     * Queries objects[0 .. count) and returns once all of them are done; see
+     * getContacts().
+     */
+    public void run(GameWorld world, RenderObject[] objects, int count) {
+        final int chunks = (count + c_chunkSize - 1) / c_chunkSize;
+        if (chunkContacts.length < chunks) {
+            final int oldLength = chunkContacts.length;
+            chunkContacts = Arrays.copyOf(chunkContacts, Math.max(chunks, oldLength * 2));
+            for (int i = oldLength; i < chunkContacts.length; ++i) {
+                chunkContacts[i] = new ContactBuffer();
+                chunkContacts[i].ensureCapacity(chunkCapacity);
+            }
+        }
+        this.world = world;
+        this.objects = objects;
+        this.count = count;
+        nextChunk.set(0);
+
+        if (workers.length == 0 || count < c_minParallelObjects) {
+            queryChunks();
+        } else {
+            synchronized (this) {
+                ++generation;
+                busyWorkers = workers.length;
+                notifyAll();
+            }
+            queryChunks();
+            synchronized (this) {
+                boolean interrupted = false;
+                while (busyWorkers > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Can't leave with the workers still writing hits
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        this.world = null;
+        this.objects = null;
+
+        contacts.clear();
+        int capacity = chunkCapacity;
+        for (int i = 0; i < chunks; ++i) {
+            contacts.addAll(chunkContacts[i]);
+            capacity = Math.max(capacity, chunkContacts[i].getCapacity());
+        }
+        // Which objects share a chunk changes from step to step, so once one chunk
+        // had to grow the others get the same room, rather than each of them growing
+        // on its own the first time it runs into that many contacts
+        if (capacity > chunkCapacity) {
+            chunkCapacity = capacity;
+            for (ContactBuffer buffer : chunkContacts) {
+                buffer.ensureCapacity(capacity);
+            }
+        }
+    }
+
+    /**
+     * Every contact the last run() found, ordered by object.
+     */
+    public ContactBuffer getContacts() {
+        return contacts;
+    }
+
+    /**
+     * Stops the workers. Only run() on the calling thread works after this.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            notifyAll();
+        }
+    }
+
+    private void queryChunks() {
+        final GameWorld world = this.world;
+        final RenderObject[] objects = this.objects;
+        final int count = this.count;
+        int chunk;
+        while ((chunk = nextChunk.getAndIncrement()) * c_chunkSize < count) {
+            final ContactBuffer out = chunkContacts[chunk];
+            out.clear();
+            final int start = chunk * c_chunkSize;
+            final int end = Math.min(count, start + c_chunkSize);
+            for (int i = start; i < end; ++i) {
+                final RenderObject o = objects[i];
+                if (o.findsOwnContacts()) {
+                    world.findContacts(o, out);
+                }
+            }
+        }
+    }
+
+    private void workerLoop() {
+        int seen = 0;
+        while (true) {
+            synchronized (this) {
+                while (generation == seen && !shutdown) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (shutdown) {
+                    return;
+                }
+                seen = generation;
+            }
+
+            queryChunks();
+
+            synchronized (this) {
+                if (--busyWorkers == 0) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+/**
+ * What happens when two objects touch, looked up by their type tags
+ * (RenderObject.TYPE_*) in a [typeA][typeB] table instead of each object working it
+ * out from instanceof checks.
+ *
+ * There is one response per pair of types, and it runs once per contact with its
+ * arguments in the order it was registered in, whichever object found the contact.
+ * Pairs without a response just don't do anything; whether two objects can touch at
+ * all is up to their collision layers and masks (see RenderObject.canCollide()).
+ */
+public class CollisionTable {
+    private final RenderObject.CollisionListener[] responses;
+    private final boolean[] swapped;
+
+    public CollisionTable() {
+        responses = new RenderObject.CollisionListener[RenderObject.TYPE_COUNT * RenderObject.TYPE_COUNT];
+        swapped = new boolean[RenderObject.TYPE_COUNT * RenderObject.TYPE_COUNT];
+    }
+
+    /**
+     * Sets the response for an object of typeA touching one of typeB, replacing any
+     * earlier one for the pair. It gets called with the typeA object first.
+     */
+    public void register(int typeA, int typeB, RenderObject.CollisionListener response) {
+        responses[typeA * RenderObject.TYPE_COUNT + typeB] = response;
+        swapped[typeA * RenderObject.TYPE_COUNT + typeB] = false;
+        if (typeA != typeB) {
+            responses[typeB * RenderObject.TYPE_COUNT + typeA] = response;
+            swapped[typeB * RenderObject.TYPE_COUNT + typeA] = true;
+        }
+    }
+
+    public boolean hasResponse(int typeA, int typeB) {
+        return responses[typeA * RenderObject.TYPE_COUNT + typeB] != null;
+    }
+
+    /**
+     * Runs the response for a and b touching, if there is one.
+     */
+    public void dispatch(RenderObject a, RenderObject b) {
+        final int index = a.type * RenderObject.TYPE_COUNT + b.type;
+        final RenderObject.CollisionListener response = responses[index];
+        if (response == null) {
+            return;
+        }
+        if (swapped[index]) {
+            response.onCollide(b, a);
+        } else {
+            response.onCollide(a, b);
+        }
+    }
+}
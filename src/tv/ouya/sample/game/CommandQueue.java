@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded ring of spawn/despawn commands that any thread can post to without taking
+ * a lock, drained by the simulation thread only.
+ *
+ * Every slot carries a sequence number. A producer claims the next position with a
+ * CAS on the tail, fills the slot and then publishes it by bumping the slot's sequence;
+ * the consumer only reads a slot once its sequence says it has been published, and
+ * hands it back by advancing the sequence a full lap.
+ *
+ * If the ring ever fills up, commands spill into a locked overflow list instead of
+ * failing. Once anything is in there, everything posted after it goes there too until
+ * the consumer has caught up, so a despawn can never overtake the spawn it follows.
+ */
+public class CommandQueue {
+
+    public interface Listener {
+        public void onSpawn(RenderObject obj);
+        public void onDespawn(RenderObject obj);
+    }
+
+    static final int c_spawn = 0;
+    static final int c_despawn = 1;
+
+    private final int mask;
+    private final int[] ops;
+    private final RenderObject[] targets;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;      // only touched by the consumer
+
+    // Only used if the ring ever fills up, guarded by overflowLock
+    private final Object overflowLock = new Object();
+    private int[] overflowOps = new int[16];
+    private RenderObject[] overflowTargets = new RenderObject[16];
+    private int overflowCount = 0;
+    private volatile boolean overflowed = false;
+
+    public CommandQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        ops = new int[size];
+        targets = new RenderObject[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            sequences.set(i, i);
+        }
+    }
+
+    public void spawn(RenderObject obj) {
+        post(c_spawn, obj);
+    }
+
+    public void despawn(RenderObject obj) {
+        post(c_despawn, obj);
+    }
+
+    private void post(int op, RenderObject obj) {
+        if (!overflowed && offer(op, obj)) {
+            return;
+        }
+        synchronized (overflowLock) {
+            if (overflowCount == overflowOps.length) {
+                overflowOps = Arrays.copyOf(overflowOps, overflowCount * 2);
+                overflowTargets = Arrays.copyOf(overflowTargets, overflowCount * 2);
+            }
+            overflowOps[overflowCount] = op;
+            overflowTargets[overflowCount] = obj;
+            ++overflowCount;
+            overflowed = true;
+        }
+    }
+
+    /**
+     * Returns false without blocking when the ring is full.
+     */
+    private boolean offer(int op, RenderObject obj) {
+        while (true) {
+            final long t = tail.get();
+            final int slot = (int) t & mask;
+            final long available = sequences.get(slot) - t;
+            if (available == 0) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    ops[slot] = op;
+                    targets[slot] = obj;
+                    sequences.lazySet(slot, t + 1);
+                    return true;
+                }
+            } else if (available < 0) {
+                return false;
+            }
+            // Somebody else claimed this position first, try the next one
+        }
+    }
+
+    /**
+     * Hands every command published so far to the listener, in posting order. Only the
+     * simulation thread may call this.
+     */
+    public int drain(Listener listener) {
+        int drained = drainRing(listener);
+        // Anything still claimed but unpublished in the ring may have been posted before
+        // the overflow, so the overflow waits for the next drain
+        if (overflowed && head == tail.get()) {
+            synchronized (overflowLock) {
+                overflowed = false;
+                // Re-read the count, a listener may post more behind us
+                for (int i = 0; i < overflowCount; ++i) {
+                    final RenderObject obj = overflowTargets[i];
+                    overflowTargets[i] = null;
+                    dispatch(listener, overflowOps[i], obj);
+                    ++drained;
+                }
+                overflowCount = 0;
+            }
+        }
+        return drained;
+    }
+
+    private int drainRing(Listener listener) {
+        int drained = 0;
+        while (true) {
+            final int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) {
+                return drained;
+            }
+            final int op = ops[slot];
+            final RenderObject obj = targets[slot];
+            targets[slot] = null;
+            sequences.lazySet(slot, head + mask + 1);
+            ++head;
+            ++drained;
+
+            dispatch(listener, op, obj);
+        }
+    }
+
+    static private void dispatch(Listener listener, int op, RenderObject obj) {
+        if (op == c_spawn) {
+            listener.onSpawn(obj);
+        } else {
+            listener.onDespawn(obj);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Arrays;
+
+/**
+ * Every contact a collision phase found, in parallel primitive arrays that only ever
+ * grow, so a step that stays under its peak contact count doesn't allocate.
+ *
+ * A contact is between a live object (its index in GameWorld's object array) and
+ * either another live object or a wall (its index in the level's wall list); the
+ * type tags (RenderObject.TYPE_*) say which. Each pair is only in here once.
+ *
+ * Contacts are added one object at a time, between begin() and the next begin():
+ * within that run they are kept sorted by time of impact, walls ahead of objects
+ * hit at the same time and otherwise by the tie key (a wall's index or an object's
+ * serial), and a second hit on the same thing only keeps the earlier one. So the
+ * order doesn't depend on the order the grids were scanned in.
+ */
+public class ContactBuffer {
+    static private final int c_initialCapacity = 256;
+
+    int[] first;
+    int[] firstType;
+    int[] second;
+    int[] secondType;
+    int[] tieKey;
+    float[] time;       // fraction of the step, see Sweep
+
+    private int count = 0;
+    private int runStart = 0;
+    // Narrow phase tests that went into finding these, hit or not
+    int tests = 0;
+
+    public ContactBuffer() {
+        first = new int[c_initialCapacity];
+        firstType = new int[c_initialCapacity];
+        second = new int[c_initialCapacity];
+        secondType = new int[c_initialCapacity];
+        tieKey = new int[c_initialCapacity];
+        time = new float[c_initialCapacity];
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return first.length;
+    }
+
+    /**
+     * Grows up front so the next capacity contacts go in without allocating.
+     */
+    public void ensureCapacity(int capacity) {
+        while (first.length < capacity) {
+            grow();
+        }
+    }
+
+    public int getTestCount() {
+        return tests;
+    }
+
+    public void clear() {
+        count = 0;
+        runStart = 0;
+        tests = 0;
+    }
+
+    /**
+     * Starts the run of contacts for the next object.
+     */
+    public void begin() {
+        runStart = count;
+    }
+
+    public void add(int first, int firstType, int second, int secondType, int tieKey, float time) {
+        // Already touching this one (a wall sits in several cells, or a path that
+        // wrapped found it on both sides of the board)
+        for (int i = runStart; i < count; ++i) {
+            if (this.second[i] == second && this.secondType[i] == secondType) {
+                if (this.time[i] <= time) {
+                    return;
+                }
+                remove(i);
+                break;
+            }
+        }
+
+        if (count == this.first.length) {
+            grow();
+        }
+        int i = count++;
+        for (; i > runStart && comesBefore(time, secondType, tieKey, i - 1); --i) {
+            copy(i - 1, i);
+        }
+        this.first[i] = first;
+        this.firstType[i] = firstType;
+        this.second[i] = second;
+        this.secondType[i] = secondType;
+        this.tieKey[i] = tieKey;
+        this.time[i] = time;
+    }
+
+    /**
+     * Appends everything in other, in order.
+     */
+    public void addAll(ContactBuffer other) {
+        ensureCapacity(count + other.count);
+        System.arraycopy(other.first, 0, first, count, other.count);
+        System.arraycopy(other.firstType, 0, firstType, count, other.count);
+        System.arraycopy(other.second, 0, second, count, other.count);
+        System.arraycopy(other.secondType, 0, secondType, count, other.count);
+        System.arraycopy(other.tieKey, 0, tieKey, count, other.count);
+        System.arraycopy(other.time, 0, time, count, other.count);
+        count += other.count;
+        runStart = count;
+        tests += other.tests;
+    }
+
+    private boolean comesBefore(float time, int secondType, int tieKey, int i) {
+        if (time != this.time[i]) {
+            return time < this.time[i];
+        }
+        final boolean wall = secondType == RenderObject.TYPE_WALL;
+        if (wall != (this.secondType[i] == RenderObject.TYPE_WALL)) {
+            return wall;
+        }
+        return tieKey < this.tieKey[i];
+    }
+
+    private void remove(int index) {
+        for (int i = index + 1; i < count; ++i) {
+            copy(i, i - 1);
+        }
+        --count;
+    }
+
+    private void copy(int from, int to) {
+        first[to] = first[from];
+        firstType[to] = firstType[from];
+        second[to] = second[from];
+        secondType[to] = secondType[from];
+        tieKey[to] = tieKey[from];
+        time[to] = time[from];
+    }
+
+    private void grow() {
+        final int capacity = first.length * 2;
+        first = Arrays.copyOf(first, capacity);
+        firstType = Arrays.copyOf(firstType, capacity);
+        second = Arrays.copyOf(second, capacity);
+        secondType = Arrays.copyOf(secondType, capacity);
+        tieKey = Arrays.copyOf(tieKey, capacity);
+        time = Arrays.copyOf(time, capacity);
+    }
+}
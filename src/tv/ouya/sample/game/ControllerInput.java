@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import tv.ouya.console.api.OuyaController;
+
+import java.util.Arrays;
+
+/**
+ * Live input from the OUYA controllers. A controller gets a player slot the first time
+ * it's used and keeps it for the rest of the match.
+ *
+ * The activity feeds in key and motion events as they arrive on the UI thread, and
+ * they only update the latest state of the device's slot, packed by slot the same
+ * way InputFrame is. poll() then just copies that over in one go, so the step never
+ * touches OuyaController and costs the same however many events came in; the world
+ * can be stepped on any thread.
+ */
+public class ControllerInput implements InputSource {
+    // Slot to device id, -1 for a free slot. Small enough that scanning it is the map.
+    private final int[] deviceIds = new int[InputFrame.MAX_PLAYERS];
+    private final float[] axes = new float[InputFrame.MAX_PLAYERS * 4];     // LS x, y, RS x, y
+    private final int[] buttons = new int[InputFrame.MAX_PLAYERS];          // InputFrame.BUTTON_*
+
+    public ControllerInput() {
+        Arrays.fill(deviceIds, -1);
+    }
+
+    /**
+     * Returns the slot of the given device, or -1 if it doesn't have one.
+     */
+    public synchronized int getSlot(int deviceId) {
+        for (int i = 0; i < deviceIds.length; ++i) {
+            if (deviceIds[i] == deviceId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the slot of the given device, handing it a free one if it doesn't have
+     * one yet, or -1 if every slot is taken. Safe from any thread.
+     */
+    public synchronized int assign(int deviceId) {
+        int free = -1;
+        for (int i = 0; i < deviceIds.length; ++i) {
+            if (deviceIds[i] == deviceId) {
+                return i;
+            }
+            if (free < 0 && deviceIds[i] < 0) {
+                free = i;
+            }
+        }
+        if (free >= 0) {
+            deviceIds[free] = deviceId;
+        }
+        return free;
+    }
+
+    /**
+     * Any button joins the game. keyCode is one of OuyaController.BUTTON_*.
+     */
+    public synchronized void onKeyDown(int deviceId, int keyCode) {
+        final int slot = assign(deviceId);
+        if (slot >= 0) {
+            buttons[slot] |= toButton(keyCode);
+        }
+    }
+
+    public synchronized void onKeyUp(int deviceId, int keyCode) {
+        final int slot = getSlot(deviceId);
+        if (slot >= 0) {
+            buttons[slot] &= ~toButton(keyCode);
+        }
+    }
+
+    /**
+     * New stick positions. Pushing the left stick joins the game.
+     */
+    public synchronized void onSticks(int deviceId, float leftX, float leftY, float rightX, float rightY) {
+        int slot = getSlot(deviceId);
+        if (slot < 0 && Player.isStickNotCentered(leftX, leftY)) {
+            slot = assign(deviceId);
+        }
+        if (slot < 0) {
+            return;
+        }
+        final int a = slot * 4;
+        axes[a] = leftX;
+        axes[a + 1] = leftY;
+        axes[a + 2] = rightX;
+        axes[a + 3] = rightY;
+    }
+
+    /**
+     * The device went away. Its player keeps the slot but lets go of everything.
+     */
+    public synchronized void onDisconnected(int deviceId) {
+        final int slot = getSlot(deviceId);
+        if (slot >= 0) {
+            Arrays.fill(axes, slot * 4, slot * 4 + 4, 0.0f);
+            buttons[slot] = 0;
+        }
+    }
+
+    static private int toButton(int keyCode) {
+        switch (keyCode) {
+            case OuyaController.BUTTON_O: return InputFrame.BUTTON_O;
+            case OuyaController.BUTTON_U: return InputFrame.BUTTON_U;
+            case OuyaController.BUTTON_Y: return InputFrame.BUTTON_Y;
+            case OuyaController.BUTTON_R2: return InputFrame.BUTTON_R2;
+            default: return 0;
+        }
+    }
+
+    @Override
+    public synchronized boolean poll(long tick, InputFrame frame) {
+        for (int slot = 0; slot < deviceIds.length; ++slot) {
+            if (deviceIds[slot] >= 0) {
+                final int a = slot * 4;
+                frame.set(slot, deviceIds[slot], axes[a], axes[a + 1], axes[a + 2], axes[a + 3], buttons[slot]);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import java.util.Arrays;
+
+/**
+ * Physics state of every entity in a world, kept in parallel primitive arrays indexed
+ * by entity id. RenderObjects only hold their id and read and write through here.
+ *
+ * Ids are handed out from a free list and stay valid until released. The arrays only
+ * ever grow (doubling), so a world that has reached its peak population doesn't
+ * allocate anything per step.
+ */
+public class EntityStore {
+    static private final int c_initialCapacity = 256;
+
+    float[] x;
+    float[] y;
+    float[] vx;
+    float[] vy;
+    float[] rotation;       // degrees about the Z-axis
+    float[] omega;          // rotational velocity
+    float[] radius;
+    float[] scaleX;
+    float[] scaleY;
+
+    // State as of the start of the current step
+    float[] prevX;
+    float[] prevY;
+    float[] prevRotation;
+
+    // Set by RenderObject.drift() for the entities that move this step
+    boolean[] drifting;
+
+    // When during the step the entity's last collision happened, see Sweep
+    float[] impactTime;
+
+    private int capacity;
+    private int highWater = 0;      // every id ever handed out is below this
+    private int[] freeIds;
+    private int freeCount = 0;
+
+    public EntityStore() {
+        capacity = c_initialCapacity;
+        x = new float[capacity];
+        y = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        rotation = new float[capacity];
+        omega = new float[capacity];
+        radius = new float[capacity];
+        scaleX = new float[capacity];
+        scaleY = new float[capacity];
+        prevX = new float[capacity];
+        prevY = new float[capacity];
+        prevRotation = new float[capacity];
+        drifting = new boolean[capacity];
+        impactTime = new float[capacity];
+        freeIds = new int[capacity];
+    }
+
+    public synchronized int allocate() {
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            if (highWater == capacity) {
+                grow();
+            }
+            id = highWater++;
+        }
+        reset(id);
+        return id;
+    }
+
+    /**
+     * Puts an entity back the way allocate() hands it out.
+     */
+    void reset(int id) {
+        x[id] = 0.0f;
+        y[id] = 0.0f;
+        vx[id] = 0.0f;
+        vy[id] = 0.0f;
+        rotation[id] = 0.0f;
+        omega[id] = 0.0f;
+        radius[id] = 1.0f;
+        scaleX[id] = 1.0f;
+        scaleY[id] = 1.0f;
+        prevX[id] = 0.0f;
+        prevY[id] = 0.0f;
+        prevRotation[id] = 0.0f;
+        drifting[id] = false;
+        impactTime[id] = 0.0f;
+    }
+
+    public synchronized void release(int id) {
+        drifting[id] = false;
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * Number of slots worth iterating over; released ids below this are never drifting.
+     */
+    public int getHighWater() {
+        return highWater;
+    }
+
+    /**
+     * Saves the state of every id handed out so far. Which ids are handed out isn't
+     * part of it: an id belongs to its object for good (see WorldState), so a restore
+     * leaves allocation alone and only puts the values back.
+     */
+    void saveState(WorldState out) {
+        final int n = highWater;
+        out.writeInt(n);
+        out.writeFloats(x, n);
+        out.writeFloats(y, n);
+        out.writeFloats(vx, n);
+        out.writeFloats(vy, n);
+        out.writeFloats(rotation, n);
+        out.writeFloats(omega, n);
+        out.writeFloats(radius, n);
+        out.writeFloats(scaleX, n);
+        out.writeFloats(scaleY, n);
+        out.writeFloats(prevX, n);
+        out.writeFloats(prevY, n);
+        out.writeFloats(prevRotation, n);
+        out.writeBooleans(drifting, n);
+        out.writeFloats(impactTime, n);
+    }
+
+    void restoreState(WorldState in) {
+        final int n = in.readInt();
+        in.readFloats(x, n);
+        in.readFloats(y, n);
+        in.readFloats(vx, n);
+        in.readFloats(vy, n);
+        in.readFloats(rotation, n);
+        in.readFloats(omega, n);
+        in.readFloats(radius, n);
+        in.readFloats(scaleX, n);
+        in.readFloats(scaleY, n);
+        in.readFloats(prevX, n);
+        in.readFloats(prevY, n);
+        in.readFloats(prevRotation, n);
+        in.readBooleans(drifting, n);
+        in.readFloats(impactTime, n);
+        // Handed out since the save; their objects weren't in the world back then
+        Arrays.fill(drifting, n, highWater, false);
+    }
+
+    void beginStep() {
+        System.arraycopy(x, 0, prevX, 0, highWater);
+        System.arraycopy(y, 0, prevY, 0, highWater);
+        System.arraycopy(rotation, 0, prevRotation, 0, highWater);
+        Arrays.fill(drifting, 0, highWater, false);
+    }
+
+    /**
+     * Makes an entity that joins mid-step look like it has been sitting still.
+     */
+    void resetPreviousState(int id) {
+        prevX[id] = x[id];
+        prevY[id] = y[id];
+        prevRotation[id] = rotation[id];
+    }
+
+    /**
+     * Moves every drifting entity by its velocity and wraps it around the board.
+     */
+    void integrate(float width, float height) {
+        final float[] x = this.x;
+        final float[] y = this.y;
+        final float[] vx = this.vx;
+        final float[] vy = this.vy;
+        final float[] rotation = this.rotation;
+        final float[] omega = this.omega;
+        final boolean[] drifting = this.drifting;
+
+        for (int i = 0; i < highWater; ++i) {
+            if (!drifting[i]) {
+                continue;
+            }
+            x[i] += vx[i];
+            y[i] += vy[i];
+            rotation[i] += omega[i];
+
+            if (x[i] < 0.0f) x[i] += width;
+            else if (x[i] >= width) x[i] -= width;
+            if (y[i] < 0.0f) y[i] += height;
+            else if (y[i] >= height) y[i] -= height;
+        }
+    }
+
+    private void grow() {
+        capacity *= 2;
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        rotation = Arrays.copyOf(rotation, capacity);
+        omega = Arrays.copyOf(omega, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        scaleX = Arrays.copyOf(scaleX, capacity);
+        scaleY = Arrays.copyOf(scaleY, capacity);
+        prevX = Arrays.copyOf(prevX, capacity);
+        prevY = Arrays.copyOf(prevY, capacity);
+        prevRotation = Arrays.copyOf(prevRotation, capacity);
+        drifting = Arrays.copyOf(drifting, capacity);
+        impactTime = Arrays.copyOf(impactTime, capacity);
+        freeIds = Arrays.copyOf(freeIds, capacity);
+    }
+}
@@ -17,18 +17,59 @@
 package tv.ouya.sample.game;
 
 import android.app.Activity;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.hardware.input.InputManager;
 import android.os.Bundle;
+import android.util.Log;
+import android.view.InputDevice;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
 import tv.ouya.console.api.OuyaController;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+
 import static tv.ouya.sample.game.R.*;
 
 public class GameActivity extends Activity {
-    private Player[] players;
-    private Asteroid[] asteroids;
+    // host[:port] of a MatchServer to play on instead of a local match
+    static public final String EXTRA_SERVER = "tv.ouya.sample.game.SERVER";
+
+    static private final String TAG = "GameActivity";
+    static private final String c_replayFileName = "last_match.replay";
+    static private final String c_profileFileName = "profile.txt";
+    // Three snapshots' worth at 20 a second, to ride out a late or lost one
+    static private final long c_interpolationDelayNanos = 150L * 1000000L;
+
+    private GameWorld world;
+    private GameRenderer renderer;
+    private ControllerInput controllers;
+    private InputRecorder recorder;
+    private InputManager inputManager;
+    private RemoteMatch remote;
+    private boolean destroyed = false;
+
+    private final InputManager.InputDeviceListener deviceListener = new InputManager.InputDeviceListener() {
+        @Override
+        public void onInputDeviceAdded(int deviceId) {
+        }
+
+        @Override
+        public void onInputDeviceRemoved(int deviceId) {
+            controllers.onDisconnected(deviceId);
+        }
+
+        @Override
+        public void onInputDeviceChanged(int deviceId) {
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -43,56 +84,126 @@ public class GameActivity extends Activity {
             }
         });
 
-        players = new Player[4];
-        for(int i = 0; i < 4; ++i) {
-            players[i] = new Player(i);
+        renderer = ((GameView) findViewById(id.game_view)).getRenderer();
+        world = renderer.getWorld();
+        // Debug builds measure themselves; L3 shows the overlay, R3 dumps the numbers
+        world.getProfiler().setEnabled((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+        controllers = new ControllerInput();
+        inputManager = (InputManager) getSystemService(Context.INPUT_SERVICE);
+        inputManager.registerInputDeviceListener(deviceListener, null);
+
+        String server = getIntent().getStringExtra(EXTRA_SERVER);
+        if (server != null) {
+            join(server);
+            return;
         }
-        
-        asteroids = new Asteroid[8];
-        for(int i = 0; i < 8; ++i) {
-        		asteroids[i] = new Asteroid();
+        Options.Level level = Options.getInstance().getLevel();
+        long seed = System.nanoTime();
+        InputSource input = controllers;
+        try {
+            // Always keep the last match, so a bad one can be replayed offline
+            recorder = new InputRecorder(new File(getFilesDir(), c_replayFileName), seed, level, controllers);
+            input = recorder;
+        } catch (IOException e) {
+            Log.w(TAG, "Not recording this match", e);
         }
+        world.startLevel(level, seed, input);
+    }
 
-        switch (Options.getInstance().getLevel()) {
-            case FREEDOM:
-                break;
-            case ALLEYWAY:
-                new Wall(GameRenderer.BOARD_WIDTH * 0.25f, GameRenderer.BOARD_HEIGHT * 0.25f,
-                         GameRenderer.BOARD_WIDTH * 0.75f, GameRenderer.BOARD_HEIGHT * 0.25f);
-                new Wall(GameRenderer.BOARD_WIDTH * 0.25f, GameRenderer.BOARD_HEIGHT * 0.50f,
-                         GameRenderer.BOARD_WIDTH * 0.75f, GameRenderer.BOARD_HEIGHT * 0.50f);
-                new Wall(GameRenderer.BOARD_WIDTH * 0.25f, GameRenderer.BOARD_HEIGHT * 0.75f,
-                         GameRenderer.BOARD_WIDTH * 0.75f, GameRenderer.BOARD_HEIGHT * 0.75f);
-                break;
-            case BOXY:
-                final float c_numPieces = 10;
-                float wallWidth = GameRenderer.BOARD_WIDTH / c_numPieces;
-                float wallHeight = GameRenderer.BOARD_HEIGHT / c_numPieces;
-                float wallXOfs = wallWidth * 0.5f;
-                float wallYOfs = wallHeight * 0.5f;
-                for (int i = 1; i < c_numPieces; i += 2) {
-                    for (int j = 1; j < c_numPieces; j += 2) {
-                        if (i != c_numPieces - 1) {
-                            new Wall(wallXOfs + wallWidth * i, wallHeight * j,
-                                     wallXOfs + wallWidth * (i+1), wallHeight * j);
-                        }
-                        if (j != c_numPieces - 1) {
-                            new Wall(wallWidth * i, wallYOfs + wallHeight * j,
-                                     wallWidth * i, wallYOfs + wallHeight * (j+1));
+    /**
+     * Connects off the UI thread (Android won't have network calls on it) and hands the
+     * match to the renderer once it's in. Gives up and leaves if the server won't have us
+     * or the address doesn't make sense.
+     */
+    private void join(final String server) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final InetSocketAddress address = parseServer(server);
+                    RemoteMatch match = new RemoteMatch(address.getHostName(), address.getPort(), controllers,
+                            Clock.SYSTEM, c_interpolationDelayNanos);
+                    synchronized (GameActivity.this) {
+                        if (destroyed) {
+                            match.close();
+                            return;
                         }
+                        remote = match;
                     }
+                    renderer.setRemoteMatch(match);
+                } catch (IOException e) {
+                    Log.w(TAG, "Couldn't join " + server, e);
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            finish();
+                        }
+                    });
                 }
-                break;
+            }
+        }, "join").start();
+    }
+
+    /**
+     * host, host:port, [address]:port or a bare IPv6 address, without looking anything
+     * up yet. The port defaults to MatchProtocol.DEFAULT_PORT.
+     */
+    static private InetSocketAddress parseServer(String server) throws IOException {
+        String host = server;
+        int port = MatchProtocol.DEFAULT_PORT;
+        final int colon = server.lastIndexOf(':');
+        final int bracket = server.lastIndexOf(']');
+        // The last colon starts a port if it's the only one or comes after [address];
+        // otherwise the colons are all part of a bare IPv6 address
+        if (colon > bracket && (bracket >= 0 || server.indexOf(':') == colon)) {
+            host = server.substring(0, colon);
+            try {
+                port = Integer.parseInt(server.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad port in " + server);
+            }
+        }
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        if (host.length() == 0 || port <= 0 || port > 65535) {
+            throw new IOException("Not a server address: " + server);
+        }
+        return InetSocketAddress.createUnresolved(host, port);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        dumpProfile();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        inputManager.unregisterInputDeviceListener(deviceListener);
+        if (recorder != null) {
+            recorder.close();
+        }
+        synchronized (this) {
+            destroyed = true;
+            if (remote != null) {
+                remote.close();
+            }
         }
     }
 
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
         boolean handled = OuyaController.onKeyDown(keyCode, event);
-        Player p = findOrCreatePlayer(event.getDeviceId());
-        	System.out.println(keyCode);
+        controllers.onKeyDown(event.getDeviceId(), keyCode);
         if (keyCode == OuyaController.BUTTON_A) {
             finish();
+        } else if (keyCode == OuyaController.BUTTON_L3) {
+            Profiler profiler = world.getProfiler();
+            profiler.setOverlayVisible(!profiler.isOverlayVisible());
+        } else if (keyCode == OuyaController.BUTTON_R3) {
+            dumpProfile();
         }
 
         return handled || super.onKeyDown(keyCode, event);
@@ -101,52 +212,49 @@ public class GameActivity extends Activity {
     @Override
     public boolean onKeyUp(int keyCode, KeyEvent event) {
         boolean handled = OuyaController.onKeyUp(keyCode, event);
+        controllers.onKeyUp(event.getDeviceId(), keyCode);
         return handled || super.onKeyUp(keyCode, event);
     }
 
     @Override
     public boolean onGenericMotionEvent(MotionEvent event) {
-        int odid = event.getDeviceId();
         boolean handled = OuyaController.onGenericMotionEvent(event);
-
-        OuyaController c = OuyaController.getControllerByDeviceId(event.getDeviceId());
-        if (c != null) {
-            if (Player.isStickNotCentered(
-                    c.getAxisValue(OuyaController.AXIS_LS_X),
-                    c.getAxisValue(OuyaController.AXIS_LS_Y))) {
-                // Create the player if necessary
-                Player p = findOrCreatePlayer(event.getDeviceId());
-            }
+        // The touchpad shows up as a mouse; only the sticks steer
+        if ((event.getSource() & InputDevice.SOURCE_CLASS_JOYSTICK) != 0) {
+            controllers.onSticks(event.getDeviceId(),
+                    event.getAxisValue(OuyaController.AXIS_LS_X),
+                    event.getAxisValue(OuyaController.AXIS_LS_Y),
+                    event.getAxisValue(OuyaController.AXIS_RS_X),
+                    event.getAxisValue(OuyaController.AXIS_RS_Y));
         }
 
         return handled || super.onGenericMotionEvent(event);
     }
 
-    private Player findPlayer(int deviceId) {
-        for(Player p : players) {
-            if (p.isValid() && p.getDeviceId() == deviceId) {
-                return p;
-            }
+    /**
+     * Writes the profiler's numbers to logcat and to profile.txt in the app's files.
+     */
+    private void dumpProfile() {
+        Profiler profiler = world.getProfiler();
+        if (!profiler.isEnabled()) {
+            return;
         }
-        return null;
-    }
-
-    private Player findOrCreatePlayer(int deviceId) {
-        for(Player p : players) {
-            if (p.isValid() && p.getDeviceId() == deviceId) {
-                return p;
-            }
+        StringWriter text = new StringWriter();
+        profiler.dump(new PrintWriter(text));
+        for (String line : text.toString().split("\n")) {
+            Log.i(TAG, line);
         }
 
-        int i = 0;
-        for(Player p : players) {
-            if (!p.isValid()) {
-                p.init(deviceId);
-                return p;
+        File file = new File(getFilesDir(), c_profileFileName);
+        try {
+            FileWriter out = new FileWriter(file);
+            try {
+                out.write(text.toString());
+            } finally {
+                out.close();
             }
-            ++i;
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write " + file, e);
         }
-        return null;
     }
-
 }
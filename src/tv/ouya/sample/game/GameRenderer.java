@@ -20,19 +20,27 @@ import android.opengl.GLSurfaceView;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
 
 public class GameRenderer implements GLSurfaceView.Renderer {
 
-    static public GameRenderer s_instance = null;
     static public final float BOARD_WIDTH = 40.0f;
     static public final float BOARD_HEIGHT = 40.0f;
 
-    private final List<RenderObject> objects;
-    private final List<RenderObject> toBeAdded;
-    private final List<RenderObject> toBeDeleted;
+    private final GameWorld world;
+    private final MeshBatch[] batches;
+    private final ProfilerOverlay profilerOverlay = new ProfilerOverlay();
+
+    // Set once a match on a server takes over from the local one
+    private volatile RemoteMatch remote = null;
+    private final Snapshot remoteFrame = new Snapshot();
+
+    static private final int c_maxBatchVertices = 4096;
+    // By RenderObject.TYPE_*, for drawing snapshots
+    static private final MeshCache.MeshType[] c_meshTypes = {
+            MeshCache.MeshType.PLAYER,
+            MeshCache.MeshType.ASTEROID,
+            MeshCache.MeshType.BULLET,
+    };
 
     private float _red = 0.01f;
     private float _green = 0.1f;
@@ -41,10 +49,30 @@ public class GameRenderer implements GLSurfaceView.Renderer {
     private float height = 1080;
 
     public GameRenderer() {
-        s_instance = this;
-        objects = new LinkedList<RenderObject>();
-        toBeAdded = new ArrayList<RenderObject>();
-        toBeDeleted = new ArrayList<RenderObject>();
+        this(new GameWorld(Clock.SYSTEM));
+    }
+
+    public GameRenderer(GameWorld world) {
+        this.world = world;
+
+        MeshCache.MeshType[] types = MeshCache.MeshType.values();
+        batches = new MeshBatch[types.length];
+        for (int i = 0; i < types.length; ++i) {
+            batches[i] = new MeshBatch(MeshCache.get(types[i]), c_maxBatchVertices);
+        }
+    }
+
+    public GameWorld getWorld() {
+        return world;
+    }
+
+    /**
+     * Switches to drawing a match running on a server: everybody else from its
+     * snapshots, our own player from the prediction in remote's world. The local
+     * world doesn't get stepped any more after this.
+     */
+    public void setRemoteMatch(RemoteMatch remote) {
+        this.remote = remote;
     }
 
     @Override
@@ -63,6 +91,10 @@ public class GameRenderer implements GLSurfaceView.Renderer {
         gl.glMatrixMode(GL10.GL_MODELVIEW);
 
         gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
+        // Fresh context, so any buffer objects from a previous one are gone
+        for (MeshBatch batch : batches) {
+            batch.onSurfaceCreated(gl);
+        }
         gl.glClearColor(_red, _green, _blue, 1.0f);
     }
 
@@ -75,58 +107,79 @@ public class GameRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        // The local world's, which is the one the overlay and the dumps look at
+        final Profiler profiler = this.world.getProfiler();
+        final long frameStart = profiler.begin();
         gl.glClear(GL10.GL_COLOR_BUFFER_BIT);
         gl.glLoadIdentity();
 
-        synchronized (objects) {
-
-            synchronized (toBeDeleted) {
-                for(RenderObject o : toBeDeleted) {
-                    objects.remove(o);
-                }
-                toBeDeleted.clear();
+        // The renderer drives the simulation here, but it only ever draws what the
+        // world hands it. A separate simulation thread could call advance() instead.
+        final RemoteMatch remote = this.remote;
+        final GameWorld world = remote != null ? remote.getWorld() : this.world;
+        world.advance();
+
+        final long renderStart = profiler.begin();
+        synchronized (world) {
+            final float alpha = world.getInterpolationAlpha();
+            final int wallCount = world.getWallCount();
+            for (int i = 0; i < wallCount; ++i) {
+                world.getWall(i).doRender(gl, alpha);
             }
-            synchronized (toBeAdded) {
-                for(RenderObject o : toBeAdded) {
-                    objects.add(o);
+            if (remote != null) {
+                drawRemote(gl, remote, alpha);
+            } else {
+                final int objectCount = world.getObjectCount();
+                for (int i = 0; i < objectCount; ++i) {
+                    final RenderObject o = world.getObject(i);
+                    final Mesh mesh = o.mesh;
+                    if (mesh == null) {
+                        o.doRender(gl, alpha);
+                    } else if (o.isVisible()) {
+                        batches[mesh.type.ordinal()].add(gl,
+                                o.getRenderX(alpha), o.getRenderY(alpha), o.getRenderRotation(alpha),
+                                o.getScaleX(), o.getScaleY(), o.getColor());
+                    }
                 }
-                toBeAdded.clear();
-            }
-
-            for(RenderObject o : objects) {
-                o.update();
-                o.doRender(gl);
             }
         }
-    }
-
-    public void addRenderObject(RenderObject obj) {
-        synchronized (toBeAdded) {
-            toBeAdded.add(obj);
+        // One draw call per mesh type, unless a batch filled up along the way
+        for (MeshBatch batch : batches) {
+            batch.flush(gl);
         }
-    }
-
-    public void removeRenderObject(RenderObject obj) {
-        synchronized (toBeDeleted) {
-            toBeDeleted.add(obj);
+        if (profiler.isOverlayVisible()) {
+            profilerOverlay.draw(gl, profiler);
         }
+        profiler.end(Profiler.RENDER, renderStart);
+        profiler.end(Profiler.FRAME, frameStart);
     }
 
-    public RenderObject getCollidingObject(RenderObject obj) {
-        for(RenderObject o : objects) {
-            if (o != obj && o instanceof Wall) {
-                if (o.doesCollide(obj)) {
-                    return o;
+    /**
+     * The interpolated snapshot, with our predicted player in place of the server's
+     * once a controller is driving it. The prediction world has nothing else to draw.
+     */
+    private void drawRemote(GL10 gl, RemoteMatch remote, float alpha) {
+        final Player player = remote.getPlayer();
+        final boolean predicting = player.isVisible();
+        if (remote.sample(remoteFrame)) {
+            final Snapshot s = remoteFrame;
+            final int count = s.getCount();
+            for (int i = 0; i < count; ++i) {
+                final int type = s.getType(i);
+                if (!s.isVisible(i) || type >= c_meshTypes.length
+                        || (predicting && type == RenderObject.TYPE_PLAYER && s.getSlot(i) == remote.getSlot())) {
+                    continue;
                 }
+                batches[c_meshTypes[type].ordinal()].add(gl,
+                        s.getX(i), s.getY(i), s.getRotation(i), s.getScaleX(i), s.getScaleY(i), s.getColor(i));
             }
         }
-        for(RenderObject o : objects) {
-            if (o != obj && !(o instanceof Wall)) {
-                if (o.doesCollide(obj)) {
-                    return o;
-                }
-            }
+        if (predicting) {
+            batches[MeshCache.MeshType.PLAYER.ordinal()].add(gl,
+                    player.getRenderX(alpha) + remote.getRenderOffsetX(),
+                    player.getRenderY(alpha) + remote.getRenderOffsetY(),
+                    player.getRenderRotation(alpha),
+                    player.getScaleX(), player.getScaleY(), player.getColor());
         }
-        return null;
     }
 }
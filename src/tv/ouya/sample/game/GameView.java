@@ -37,4 +37,12 @@ public class GameView extends GLSurfaceView {
         _renderer = new GameRenderer();
         setRenderer(_renderer);
     }
+
+    public GameWorld getWorld() {
+        return _renderer.getWorld();
+    }
+
+    public GameRenderer getRenderer() {
+        return _renderer;
+    }
 }
@@ -0,0 +1,562 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Owns every RenderObject and advances the game in fixed steps, independent of how
+ * often frames get drawn. Nothing in here touches GL, so it runs just as well on its
+ * own thread or in a plain JVM.
+ *
+ * Whoever drives it calls advance() with the clock running; every TICK_NANOS of
+ * elapsed time turns into one step(). The time left over in the accumulator is what
+ * the renderer uses to interpolate between the last two steps.
+ *
+ * A step only depends on the state before it, the world's seeded Random and the
+ * InputFrame polled for it, so a match started with startLevel() can be recorded and
+ * played back exactly (see InputRecorder and InputPlayback). For the same reason the
+ * state between two steps can be saved and gone back to (see WorldState), which is
+ * what RollbackSession is built on.
+ */
+public class GameWorld {
+
+    static public final int TICKS_PER_SECOND = 60;
+    static public final long TICK_NANOS = 1000000000L / TICKS_PER_SECOND;
+    // Don't try to catch up on more than this after a hitch (or a debugger pause)
+    static private final long c_maxFrameNanos = TICK_NANOS * 8;
+
+    // Live objects, packed. Each one knows its slot (RenderObject.liveIndex), so removal
+    // swaps the last object into the hole instead of searching the list.
+    private RenderObject[] objects;
+    private int objectCount = 0;
+    private final int[] liveByType = new int[RenderObject.TYPE_COUNT];
+    private final CommandQueue commands;
+    private final CommandQueue.Listener commandListener;
+    private final EntityStore entities;
+    private final SpatialGrid grid;
+    private final WallGrid walls;
+    private final BulletPool bulletPool;
+    private final AsteroidField asteroidField;
+    private CollisionPhase collisions = new CollisionPhase(1);
+    private final CollisionTable collisionTable = new CollisionTable();
+    private final Profiler profiler = new Profiler();
+    private int spawnsThisStep = 0;
+    private int despawnsThisStep = 0;
+    private int nextSerial = 0;
+
+    // Everything random in the simulation has to come from here
+    private final SimRandom random = new SimRandom(0);
+    private InputSource input = null;
+    private final InputFrame inputFrame = new InputFrame();
+
+    private final Clock clock;
+    private long lastNanos;
+    private long accumulatorNanos;
+    private boolean started = false;
+    private long tick = 0;
+
+    static private final int c_bulletPoolSize = 512;
+    static private final int c_commandQueueSize = 4096;
+    static private final int c_initialObjectCapacity = 1024;
+    static private final int c_startingAsteroids = 8;
+    static private final int c_maxAsteroids = 128;
+    static private final int c_asteroidSpawnBudget = 12;      // per step
+
+    public GameWorld(Clock clock) {
+        this(clock, c_bulletPoolSize);
+    }
+
+    public GameWorld(Clock clock, int bulletPoolSize) {
+        this.clock = clock;
+        objects = new RenderObject[c_initialObjectCapacity];
+        commands = new CommandQueue(c_commandQueueSize);
+        commandListener = new CommandQueue.Listener() {
+            @Override
+            public void onSpawn(RenderObject obj) {
+                ++spawnsThisStep;
+                obj.serial = nextSerial++;
+                entities.resetPreviousState(obj.id);
+                addObject(obj);
+                grid.insert(obj);
+            }
+
+            @Override
+            public void onDespawn(RenderObject obj) {
+                if (removeObject(obj)) {
+                    ++despawnsThisStep;
+                    grid.remove(obj);
+                    obj.onRemovedFromWorld();
+                }
+            }
+        };
+        entities = new EntityStore();
+        grid = new SpatialGrid(GameRenderer.BOARD_WIDTH, GameRenderer.BOARD_HEIGHT);
+        walls = new WallGrid(GameRenderer.BOARD_WIDTH, GameRenderer.BOARD_HEIGHT);
+        bulletPool = new BulletPool(this, bulletPoolSize);
+        asteroidField = new AsteroidField(this, c_maxAsteroids, c_asteroidSpawnBudget);
+
+        Player.registerCollisions(collisionTable);
+        Asteroid.registerCollisions(collisionTable);
+        Bullet.registerCollisions(collisionTable);
+    }
+
+    /**
+     * Runs as many fixed steps as the clock says are due and returns how many ran.
+     */
+    public synchronized int advance() {
+        long now = clock.nanoTime();
+        if (!started) {
+            started = true;
+            lastNanos = now;
+        }
+
+        long frameNanos = now - lastNanos;
+        lastNanos = now;
+        if (frameNanos > c_maxFrameNanos) {
+            frameNanos = c_maxFrameNanos;
+        }
+
+        accumulatorNanos += frameNanos;
+        int steps = 0;
+        while (accumulatorNanos >= TICK_NANOS) {
+            if (!step()) {
+                // Out of input, nothing more will happen
+                accumulatorNanos = 0;
+                break;
+            }
+            accumulatorNanos -= TICK_NANOS;
+            ++steps;
+        }
+        return steps;
+    }
+
+    /**
+     * Sets up a new match: reseeds the world, switches to the given input and builds
+     * the level with its players and asteroids. The objects are in the world when this
+     * returns and the clock starts over, so the first step after it is tick 0 no
+     * matter what ran before. Meant for an empty world.
+     */
+    public synchronized void startLevel(Options.Level level, long seed, InputSource input) {
+        random.setSeed(seed);
+        this.input = input;
+        inputFrame.clear();
+        tick = 0;
+        started = false;
+        accumulatorNanos = 0;
+
+        // Players join once their slot shows up in the input
+        for (int i = 0; i < InputFrame.MAX_PLAYERS; ++i) {
+            new Player(this, i);
+        }
+        asteroidField.beginStep();
+        for (int i = 0; i < c_startingAsteroids; ++i) {
+            asteroidField.spawn();
+        }
+
+        loadWalls(level);
+
+        // Holding the lock, so no step can be draining the queue at the same time
+        applyCommands();
+    }
+
+    /**
+     * Sets up a world for a client of a remote match to run its own player ahead of
+     * the server in (see RemoteMatch): the level's walls and the one player, no
+     * asteroids and nobody else. Meant for an empty world, like startLevel().
+     */
+    public synchronized Player startPrediction(Options.Level level, int slot, InputSource input) {
+        this.input = input;
+        inputFrame.clear();
+        tick = 0;
+        started = false;
+        accumulatorNanos = 0;
+
+        Player player = new Player(this, slot);
+        loadWalls(level);
+        applyCommands();
+        return player;
+    }
+
+    /**
+     * Spreads the collision queries of each step over this many threads, counting the
+     * one that steps the world. 1, the default, starts no threads at all. Changing it
+     * (e.g. back to 1 when the world is done with) stops the old workers.
+     */
+    public synchronized void setCollisionThreads(int threads) {
+        if (threads == collisions.getThreadCount()) {
+            return;
+        }
+        collisions.shutdown();
+        collisions = new CollisionPhase(threads);
+    }
+
+    public synchronized int getCollisionThreads() {
+        return collisions.getThreadCount();
+    }
+
+    /**
+     * How far we are between the previous step and the current one, in [0, 1).
+     */
+    public synchronized float getInterpolationAlpha() {
+        return (float) accumulatorNanos / TICK_NANOS;
+    }
+
+    /**
+     * Builds the walls of the given level and bakes them into the wall grid.
+     */
+    public synchronized void loadWalls(Options.Level level) {
+        List<Wall> walls = new ArrayList<Wall>();
+        switch (level) {
+            case FREEDOM:
+                break;
+            case ALLEYWAY:
+                walls.add(new Wall(this, GameRenderer.BOARD_WIDTH * 0.25f, GameRenderer.BOARD_HEIGHT * 0.25f,
+                                   GameRenderer.BOARD_WIDTH * 0.75f, GameRenderer.BOARD_HEIGHT * 0.25f));
+                walls.add(new Wall(this, GameRenderer.BOARD_WIDTH * 0.25f, GameRenderer.BOARD_HEIGHT * 0.50f,
+                                   GameRenderer.BOARD_WIDTH * 0.75f, GameRenderer.BOARD_HEIGHT * 0.50f));
+                walls.add(new Wall(this, GameRenderer.BOARD_WIDTH * 0.25f, GameRenderer.BOARD_HEIGHT * 0.75f,
+                                   GameRenderer.BOARD_WIDTH * 0.75f, GameRenderer.BOARD_HEIGHT * 0.75f));
+                break;
+            case BOXY:
+                final float c_numPieces = 10;
+                float wallWidth = GameRenderer.BOARD_WIDTH / c_numPieces;
+                float wallHeight = GameRenderer.BOARD_HEIGHT / c_numPieces;
+                float wallXOfs = wallWidth * 0.5f;
+                float wallYOfs = wallHeight * 0.5f;
+                for (int i = 1; i < c_numPieces; i += 2) {
+                    for (int j = 1; j < c_numPieces; j += 2) {
+                        if (i != c_numPieces - 1) {
+                            walls.add(new Wall(this, wallXOfs + wallWidth * i, wallHeight * j,
+                                               wallXOfs + wallWidth * (i+1), wallHeight * j));
+                        }
+                        if (j != c_numPieces - 1) {
+                            walls.add(new Wall(this, wallWidth * i, wallYOfs + wallHeight * j,
+                                               wallWidth * i, wallYOfs + wallHeight * (j+1)));
+                        }
+                    }
+                }
+                break;
+        }
+        setWalls(walls);
+    }
+
+    /**
+     * Replaces the walls with the given ones. Walls are static from here on.
+     */
+    public synchronized void setWalls(List<Wall> walls) {
+        for (int i = 0; i < this.walls.getWallCount(); ++i) {
+            this.walls.getWall(i).onRemovedFromWorld();
+        }
+        this.walls.bake(walls);
+    }
+
+    /**
+     * Runs one step. Returns false without doing anything once the input source has
+     * run out.
+     */
+    public synchronized boolean step() {
+        final long start = profiler.begin();
+        inputFrame.clear();
+        if (input != null && !input.poll(tick, inputFrame)) {
+            return false;
+        }
+        final long polled = profiler.end(Profiler.INPUT, start);
+        spawnsThisStep = 0;
+        despawnsThisStep = 0;
+
+        asteroidField.beginStep();
+        applyCommands();
+        final long drained = profiler.begin();
+
+        // Spawns and despawns only land in applyCommands(), so the object array holds
+        // still for the whole step
+        final RenderObject[] objects = this.objects;
+        final int objectCount = this.objectCount;
+
+        entities.beginStep();
+        for (int i = 0; i < objectCount; ++i) {
+            objects[i].update();
+        }
+        entities.integrate(GameRenderer.BOARD_WIDTH, GameRenderer.BOARD_HEIGHT);
+        final long updated = profiler.end(Profiler.UPDATE, drained);
+
+        // Positions can also change outside of a step (e.g. Player.init), so bin
+        // everything from scratch now that this step's moves are done.
+        grid.rebuild(objects, objectCount);
+        // Find every contact against the state the moves left behind first (possibly
+        // on several threads), then run the response for each one in order (see
+        // CollisionTable), so the outcome doesn't depend on the thread count
+        collisions.run(this, objects, objectCount);
+        final ContactBuffer contacts = collisions.getContacts();
+        for (int i = 0; i < contacts.getCount(); ++i) {
+            final RenderObject first = objects[contacts.first[i]];
+            final int second = contacts.second[i];
+            final RenderObject other = contacts.secondType[i] == RenderObject.TYPE_WALL
+                    ? walls.getWall(second) : objects[second];
+            // A response earlier on already destroyed one of them (a bullet that hit a
+            // wall, an asteroid that took out a player), so it hits nothing else
+            if (first.isRetiring() || other.isRetiring()) {
+                continue;
+            }
+            entities.impactTime[first.id] = contacts.time[i];
+            entities.impactTime[other.id] = contacts.time[i];
+            collisionTable.dispatch(first, other);
+            // The response may have pushed them somewhere else (e.g. sliding along a wall)
+            grid.move(first);
+            grid.move(other);
+        }
+        final long collided = profiler.end(Profiler.COLLISION, updated);
+        // Whatever got destroyed or spawned during this step takes effect right away
+        applyCommands();
+        ++tick;
+
+        if (profiler.isEnabled()) {
+            final long end = profiler.begin();
+            profiler.record(Profiler.COMMANDS, (drained - polled) + (end - collided));
+            profiler.record(Profiler.STEP, end - start);
+            profiler.record(Profiler.CONTACTS_TESTED, contacts.getTestCount());
+            profiler.record(Profiler.CONTACTS_HIT, contacts.getCount());
+            profiler.record(Profiler.SPAWNS, spawnsThisStep);
+            profiler.record(Profiler.DESPAWNS, despawnsThisStep);
+            profiler.record(Profiler.LIVE_PLAYERS, liveByType[RenderObject.TYPE_PLAYER]);
+            profiler.record(Profiler.LIVE_ASTEROIDS, liveByType[RenderObject.TYPE_ASTEROID]);
+            profiler.record(Profiler.LIVE_BULLETS, liveByType[RenderObject.TYPE_BULLET]);
+        }
+        return true;
+    }
+
+    private void addObject(RenderObject obj) {
+        if (objectCount == objects.length) {
+            objects = Arrays.copyOf(objects, objects.length * 2);
+        }
+        obj.liveIndex = objectCount;
+        objects[objectCount++] = obj;
+        ++liveByType[obj.type];
+    }
+
+    /**
+     * Saves the state of the world between two steps, everything the next step depends
+     * on. Objects added or removed from outside since the last step join or leave first,
+     * so nothing is left waiting; they would have at the start of the next step anyway.
+     * Takes a few microseconds and allocates nothing once out has grown to size.
+     */
+    public synchronized void saveState(WorldState out) {
+        applyCommands();
+        out.clear();
+        out.tick = tick;
+        out.writeLong(tick);
+        out.writeLong(random.getState());
+        out.writeInt(nextSerial);
+        out.writeInts(liveByType, liveByType.length);
+        out.writeInt(objectCount);
+        out.writeObjects(objects, objectCount);
+        for (int i = 0; i < objectCount; ++i) {
+            objects[i].saveState(out);
+        }
+        entities.saveState(out);
+        bulletPool.saveState(out);
+        asteroidField.saveState(out);
+    }
+
+    /**
+     * Puts the world back to a state saved from it, so that the steps after it run
+     * exactly the way they did the first time round given the same input. Anything
+     * done to the world from outside the steps since the save is undone with the rest,
+     * objects still waiting to join or leave included. The clock is left alone.
+     */
+    public synchronized void restoreState(WorldState in) {
+        // Settle the pools first, or whatever is still waiting would end up in two places
+        applyCommands();
+        for (int i = 0; i < objectCount; ++i) {
+            objects[i].liveIndex = -1;
+        }
+        in.rewind();
+        tick = in.readLong();
+        random.setState(in.readLong());
+        nextSerial = in.readInt();
+        in.readInts(liveByType, liveByType.length);
+        final int count = in.readInt();
+        if (count > objects.length) {
+            objects = Arrays.copyOf(objects, Math.max(count, objects.length * 2));
+        }
+        if (objectCount > count) {
+            Arrays.fill(objects, count, objectCount, null);
+        }
+        in.readObjects(objects, count);
+        objectCount = count;
+        for (int i = 0; i < count; ++i) {
+            objects[i].liveIndex = i;
+            objects[i].restoreState(in);
+        }
+        // Pooled objects created since the save get reset by their pool, so after the
+        // EntityStore, which may have given one of them a released id from back then
+        entities.restoreState(in);
+        bulletPool.restoreState(in);
+        asteroidField.restoreState(in);
+        grid.rebuild(objects, objectCount);
+    }
+
+    private boolean removeObject(RenderObject obj) {
+        final int index = obj.liveIndex;
+        if (index < 0) {
+            return false;
+        }
+        final int last = --objectCount;
+        final RenderObject moved = objects[last];
+        objects[index] = moved;
+        moved.liveIndex = index;
+        objects[last] = null;
+        obj.liveIndex = -1;
+        --liveByType[obj.type];
+        return true;
+    }
+
+    private void applyCommands() {
+        commands.drain(commandListener);
+    }
+
+    public synchronized long getTick() {
+        return tick;
+    }
+
+    /**
+     * Simulated time, which only moves forward when a step runs.
+     */
+    public synchronized long getTimeMillis() {
+        return tick * 1000L / TICKS_PER_SECOND;
+    }
+
+    public Random getRandom() {
+        return random;
+    }
+
+    /**
+     * Controller state for the step that is running.
+     */
+    public InputFrame getInput() {
+        return inputFrame;
+    }
+
+    /**
+     * Hash over the tick and the physics state of every live object, for checking that
+     * a replay (or anything else that should be deterministic) ended up in the same
+     * place.
+     */
+    public synchronized long getStateHash() {
+        long hash = tick;
+        for (int i = 0; i < objectCount; ++i) {
+            final int id = objects[i].id;
+            hash = hash * 31 + objects[i].serial;
+            hash = hash * 31 + Float.floatToIntBits(entities.x[id]);
+            hash = hash * 31 + Float.floatToIntBits(entities.y[id]);
+            hash = hash * 31 + Float.floatToIntBits(entities.vx[id]);
+            hash = hash * 31 + Float.floatToIntBits(entities.vy[id]);
+            hash = hash * 31 + Float.floatToIntBits(entities.rotation[id]);
+        }
+        return hash;
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Objects of the given type (RenderObject.TYPE_*) in the world.
+     */
+    public synchronized int getLiveCount(int type) {
+        return liveByType[type];
+    }
+
+    public CollisionTable getCollisionTable() {
+        return collisionTable;
+    }
+
+    public BulletPool getBulletPool() {
+        return bulletPool;
+    }
+
+    public AsteroidField getAsteroidField() {
+        return asteroidField;
+    }
+
+    public EntityStore getEntities() {
+        return entities;
+    }
+
+    /**
+     * Live objects, in no particular order. Only touch these while holding the world's
+     * lock.
+     */
+    int getObjectCount() {
+        return objectCount;
+    }
+
+    RenderObject getObject(int index) {
+        return objects[index];
+    }
+
+    int getWallCount() {
+        return walls.getWallCount();
+    }
+
+    Wall getWall(int index) {
+        return walls.getWall(index);
+    }
+
+    /**
+     * Safe from any thread. The object joins at the end of the current step, or at the
+     * start of the next one if no step is running.
+     */
+    public void addRenderObject(RenderObject obj) {
+        commands.spawn(obj);
+    }
+
+    /**
+     * Safe from any thread, same timing as addRenderObject.
+     */
+    public void removeRenderObject(RenderObject obj) {
+        commands.despawn(obj);
+    }
+
+    /**
+     * Adds everything obj ran into on its way from its previous to its current
+     * position (see Sweep) to out, as a run of its own (see ContactBuffer). Only
+     * meaningful once the grid is up to date, i.e. during the collision phase of a
+     * step.
+     */
+    public void findContacts(RenderObject obj, ContactBuffer out) {
+        final float endX = obj.getX();
+        final float endY = obj.getY();
+        final float prevX = obj.getPrevX();
+        final float prevY = obj.getPrevY();
+        final float dx = Sweep.wrapDelta(endX - prevX, GameRenderer.BOARD_WIDTH);
+        final float dy = Sweep.wrapDelta(endY - prevY, GameRenderer.BOARD_HEIGHT);
+
+        out.begin();
+        // Walls don't wrap, so a path that went across the edge of the board gets
+        // tested on both sides of it
+        walls.sweep(obj, endX - dx, endY - dy, dx, dy, out);
+        if (dx != endX - prevX || dy != endY - prevY) {
+            walls.sweep(obj, prevX, prevY, dx, dy, out);
+        }
+        grid.sweep(obj, dx, dy, out);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+/**
+ * Distribution of the last few thousand values of something (a phase's nanoseconds,
+ * a per-step count), with percentiles, in the spirit of HdrHistogram: buckets are
+ * exact up to 64 and after that 32 per power of two, so any value comes back within
+ * about 3% of what was recorded, from 1 all the way to Long.MAX_VALUE.
+ *
+ * Every value also goes into a ring; once the ring is full, recording a value drops
+ * the oldest one from the buckets, so the percentiles describe the recent past
+ * rather than everything since startup. Both arrays are allocated up front and
+ * record() never allocates.
+ */
+public class Histogram {
+    static private final int c_subBucketBits = 5;
+    static private final int c_subBucketCount = 1 << c_subBucketBits;
+    static private final int c_bucketCount = 2 * c_subBucketCount + (63 - c_subBucketBits - 1) * c_subBucketCount;
+
+    private final long[] counts = new long[c_bucketCount];
+    private final long[] ring;
+    private int ringNext = 0;
+    private int size = 0;
+    private long sum = 0;
+    private long max = 0;       // over the whole lifetime
+    private long total = 0;     // values ever recorded
+
+    public Histogram(int window) {
+        ring = new long[window];
+    }
+
+    public synchronized void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        if (size == ring.length) {
+            final long old = ring[ringNext];
+            --counts[bucketOf(old)];
+            sum -= old;
+        } else {
+            ++size;
+        }
+        ring[ringNext] = value;
+        if (++ringNext == ring.length) {
+            ringNext = 0;
+        }
+        ++counts[bucketOf(value)];
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+        ++total;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = 0;
+        }
+        ringNext = 0;
+        size = 0;
+        sum = 0;
+        max = 0;
+        total = 0;
+    }
+
+    /**
+     * Values in the window right now.
+     */
+    public synchronized int getCount() {
+        return size;
+    }
+
+    public synchronized long getTotalCount() {
+        return total;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized double getMean() {
+        return size == 0 ? 0.0 : (double) sum / size;
+    }
+
+    /**
+     * The value below which the given percentage (0 to 100) of the window falls,
+     * rounded up to the top of its bucket.
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * size);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValueIn(i);
+            }
+        }
+        return max;
+    }
+
+    static int bucketOf(long value) {
+        if (value < 2 * c_subBucketCount) {
+            return (int) value;
+        }
+        // The top c_subBucketBits + 1 bits pick the bucket within a power of two
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - c_subBucketBits;
+        return (shift << c_subBucketBits) + (int) (value >>> shift);
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < 2 * c_subBucketCount) {
+            return bucket;
+        }
+        final int shift = (bucket >> c_subBucketBits) - 1;
+        final long top = bucket - (shift << c_subBucketBits);
+        return ((top + 1) << shift) - 1;
+    }
+}
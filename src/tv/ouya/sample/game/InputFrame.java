@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Arrays;
+
+/**
+ * Controller state of every player slot for one step.
+ *
+ * The world polls its InputSource into one of these at the start of each step and
+ * players only ever read from it, never from the controllers themselves. That keeps
+ * the whole step a function of the previous state plus this frame, which is what lets
+ * a recorded match play back exactly.
+ */
+public class InputFrame {
+    static public final int MAX_PLAYERS = 4;
+
+    static public final int BUTTON_O = 1;
+    static public final int BUTTON_U = 1 << 1;
+    static public final int BUTTON_Y = 1 << 2;
+    static public final int BUTTON_R2 = 1 << 3;
+
+    private final int[] deviceIds = new int[MAX_PLAYERS];   // -1 when nobody holds the slot
+    private final float[] leftX = new float[MAX_PLAYERS];
+    private final float[] leftY = new float[MAX_PLAYERS];
+    private final float[] rightX = new float[MAX_PLAYERS];
+    private final float[] rightY = new float[MAX_PLAYERS];
+    private final int[] buttons = new int[MAX_PLAYERS];
+
+    public InputFrame() {
+        clear();
+    }
+
+    public void clear() {
+        Arrays.fill(deviceIds, -1);
+        Arrays.fill(leftX, 0.0f);
+        Arrays.fill(leftY, 0.0f);
+        Arrays.fill(rightX, 0.0f);
+        Arrays.fill(rightY, 0.0f);
+        Arrays.fill(buttons, 0);
+    }
+
+    public void set(int slot, int deviceId, float leftX, float leftY, float rightX, float rightY, int buttons) {
+        deviceIds[slot] = deviceId;
+        this.leftX[slot] = leftX;
+        this.leftY[slot] = leftY;
+        this.rightX[slot] = rightX;
+        this.rightY[slot] = rightY;
+        this.buttons[slot] = buttons;
+    }
+
+    public boolean isConnected(int slot) {
+        return deviceIds[slot] >= 0;
+    }
+
+    public int getDeviceId(int slot) {
+        return deviceIds[slot];
+    }
+
+    public float getLeftX(int slot) {
+        return leftX[slot];
+    }
+
+    public float getLeftY(int slot) {
+        return leftY[slot];
+    }
+
+    public float getRightX(int slot) {
+        return rightX[slot];
+    }
+
+    public float getRightY(int slot) {
+        return rightY[slot];
+    }
+
+    public int getButtons(int slot) {
+        return buttons[slot];
+    }
+
+    public boolean isPressed(int slot, int button) {
+        return (buttons[slot] & button) != 0;
+    }
+}
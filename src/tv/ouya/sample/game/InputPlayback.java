@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays back a log written by InputRecorder. Start a world with the recording's seed
+ * and level and this as its input, and it goes through exactly the same steps as the
+ * recorded match; nothing waits on a clock, so stepping it in a loop re-simulates the
+ * match as fast as the CPU allows.
+ *
+ * Slots get their own index as device id, the real ones aren't recorded.
+ */
+public class InputPlayback implements InputSource {
+    private final MappedByteBuffer buffer;
+    private final long seed;
+    private final Options.Level level;
+    private final int tickCount;
+    private int ticksRead = 0;
+
+    public InputPlayback(File path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            // The mapping stays valid after the file is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+
+        if (buffer.remaining() < InputRecorder.HEADER_SIZE
+                || buffer.getInt() != InputRecorder.MAGIC
+                || buffer.getInt() != InputRecorder.VERSION) {
+            throw new IOException("Not an input recording: " + path);
+        }
+        seed = buffer.getLong();
+        final int levelIndex = buffer.getInt();
+        if (levelIndex < 0 || levelIndex >= Options.Level.values().length) {
+            throw new IOException("Unknown level " + levelIndex + " in input recording: " + path);
+        }
+        level = Options.Level.values()[levelIndex];
+        tickCount = buffer.getInt();
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public Options.Level getLevel() {
+        return level;
+    }
+
+    public int getTickCount() {
+        return tickCount;
+    }
+
+    @Override
+    public boolean poll(long tick, InputFrame frame) {
+        if (ticksRead >= tickCount) {
+            return false;
+        }
+
+        final int connected = buffer.get();
+        for (int slot = 0; slot < InputFrame.MAX_PLAYERS; ++slot) {
+            if ((connected & (1 << slot)) != 0) {
+                frame.set(slot, slot,
+                        buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat(),
+                        buffer.get() & 0xff);
+            }
+        }
+        ++ticksRead;
+        return true;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Passes input through from another source and logs every frame of it, along with the
+ * seed and level the world started from, to a memory-mapped file that InputPlayback
+ * can replay.
+ *
+ * The file starts with a header (magic, version, seed, level, step count), followed by
+ * one record per step: a byte with a bit for each connected slot, then for every
+ * connected slot its four stick axes as floats and its buttons as a byte. The step
+ * count in the header is bumped after every record, so a log that got cut off by a
+ * crash still plays back up to its last full step.
+ *
+ * Writing is just stores into the mapping; every c_growBytes the file gets extended
+ * and the next c_growBytes of it mapped, starting where the last record ended. The
+ * header has a mapping of its own for the step count.
+ */
+public class InputRecorder implements InputSource {
+    static final int MAGIC = 0x4f555250;    // "OURP"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int TICK_COUNT_OFFSET = 20;
+    static final int SLOT_SIZE = 4 * 4 + 1;
+
+    static private final int c_growBytes = 64 * 1024;
+
+    private final InputSource source;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer buffer;
+    private long bufferOffset;      // where buffer starts in the file
+    private int tickCount = 0;
+
+    public InputRecorder(File path, long seed, Options.Level level, InputSource source) throws IOException {
+        this.source = source;
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(seed);
+        header.putInt(level.ordinal());
+        header.putInt(tickCount);
+        bufferOffset = HEADER_SIZE;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, bufferOffset, c_growBytes);
+    }
+
+    @Override
+    public synchronized boolean poll(long tick, InputFrame frame) {
+        final boolean more = source.poll(tick, frame);
+        if (buffer != null) {
+            try {
+                write(frame);
+            } catch (IOException e) {
+                // Out of space or similar; the match goes on, the log ends here
+                close();
+            }
+        }
+        return more;
+    }
+
+    public synchronized boolean isRecording() {
+        return buffer != null;
+    }
+
+    public synchronized int getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Trims the file to what was written. Input keeps passing through afterwards, it
+     * just isn't logged any more.
+     */
+    public synchronized void close() {
+        if (buffer == null) {
+            return;
+        }
+        final long length = bufferOffset + buffer.position();
+        header.force();
+        buffer.force();
+        header = null;
+        buffer = null;
+        try {
+            channel.truncate(length);
+            file.close();
+        } catch (IOException e) {
+            // Still readable, it just has some zeroes at the end
+        }
+        channel = null;
+        file = null;
+    }
+
+    private void write(InputFrame frame) throws IOException {
+        if (buffer.remaining() < 1 + InputFrame.MAX_PLAYERS * SLOT_SIZE) {
+            bufferOffset += buffer.position();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, bufferOffset, c_growBytes);
+        }
+
+        int connected = 0;
+        for (int slot = 0; slot < InputFrame.MAX_PLAYERS; ++slot) {
+            if (frame.isConnected(slot)) {
+                connected |= 1 << slot;
+            }
+        }
+        buffer.put((byte) connected);
+        for (int slot = 0; slot < InputFrame.MAX_PLAYERS; ++slot) {
+            if (frame.isConnected(slot)) {
+                buffer.putFloat(frame.getLeftX(slot));
+                buffer.putFloat(frame.getLeftY(slot));
+                buffer.putFloat(frame.getRightX(slot));
+                buffer.putFloat(frame.getRightY(slot));
+                buffer.put((byte) frame.getButtons(slot));
+            }
+        }
+        header.putInt(TICK_COUNT_OFFSET, ++tickCount);
+    }
+}
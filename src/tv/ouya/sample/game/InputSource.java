@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+/**
+ * Where a GameWorld gets its controller state from, once per step: the real
+ * controllers, a recording being played back, or anything else that can fill in an
+ * InputFrame.
+ */
+public interface InputSource {
+    /**
+     * Fills in the frame for the given step, which starts out cleared. Returns false
+     * once there is no more input (the end of a recording); the world stops stepping
+     * then.
+     */
+    public boolean poll(long tick, InputFrame frame);
+}
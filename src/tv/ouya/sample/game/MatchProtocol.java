@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Wire format between a match server and its clients, over a plain TCP stream of
+ * big-endian DataOutput values.
+ *
+ * A client opens with MAGIC and VERSION. The server answers with WELCOME (the match
+ * it was put in, its player slot, the level and the tick rate) or FULL and hangs up.
+ * After that the client sends an INPUT whenever its controller changes, or once a
+ * tick anyway, each with a sequence number one higher than the last; the server
+ * sends a SNAPSHOT after every step it runs, together with the sequence number of
+ * the newest input of that client the step used.
+ *
+ * Snapshots are in SnapshotCodec's format. Every INPUT also carries the tick of the
+ * newest snapshot the client has decoded (-1 before the first), and the server writes
+ * the next ones against that one for as long as it is less than BASELINE_HISTORY ticks
+ * old.
+ */
+public class MatchProtocol {
+    static public final int MAGIC = 0x4f55594d;     // "OUYM"
+    static public final int VERSION = 2;
+    static public final int DEFAULT_PORT = 7760;
+
+    static public final int WELCOME = 1;
+    static public final int FULL = 2;
+    static public final int INPUT = 3;
+    static public final int SNAPSHOT = 4;
+
+    // How many ticks back a snapshot can still be a baseline. A client has to keep at
+    // least this many of the ones it got.
+    static public final int BASELINE_HISTORY = 32;
+
+    static public void writeHello(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * Throws if the other end isn't a client speaking this version.
+     */
+    static public void readHello(DataInput in) throws IOException {
+        final int magic = in.readInt();
+        final int version = in.readInt();
+        if (magic != MAGIC || version != VERSION) {
+            throw new IOException("Not a match client: " + Integer.toHexString(magic) + " version " + version);
+        }
+    }
+
+    static public void writeWelcome(DataOutput out, int match, int slot, Options.Level level, int ticksPerSecond)
+            throws IOException {
+        out.writeByte(WELCOME);
+        out.writeInt(match);
+        out.writeByte(slot);
+        out.writeByte(level.ordinal());
+        out.writeShort(ticksPerSecond);
+    }
+
+    static public void writeInput(DataOutput out, int sequence, long acknowledgedTick,
+                                  float leftX, float leftY, float rightX, float rightY, int buttons)
+            throws IOException {
+        out.writeByte(INPUT);
+        out.writeInt(sequence);
+        out.writeLong(acknowledgedTick);
+        out.writeFloat(leftX);
+        out.writeFloat(leftY);
+        out.writeFloat(rightX);
+        out.writeFloat(rightY);
+        out.writeByte(buttons);
+    }
+
+    /**
+     * The snapshot goes in already encoded, see SnapshotCodec.
+     */
+    static public void writeSnapshot(DataOutput out, int inputSequence, byte[] snapshot, int length)
+            throws IOException {
+        out.writeByte(SNAPSHOT);
+        out.writeInt(inputSequence);
+        out.writeInt(length);
+        out.write(snapshot, 0, length);
+    }
+}
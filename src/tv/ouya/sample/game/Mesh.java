@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+/**
+ * Triangle geometry shared by every object of one kind, in model space. Nothing writes
+ * to the arrays after construction; MeshBatch transforms copies of the vertices.
+ */
+public class Mesh {
+    final MeshCache.MeshType type;
+    final float[] coords;       // x, y, z per vertex
+    final short[] indices;
+    final int vertexCount;
+
+    Mesh(MeshCache.MeshType type, float[] coords, short[] indices) {
+        this.type = type;
+        this.coords = coords.clone();
+        this.indices = indices.clone();
+        this.vertexCount = coords.length / 3;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getIndexCount() {
+        return indices.length;
+    }
+}
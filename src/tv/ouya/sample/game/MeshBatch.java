@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import android.graphics.Color;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Collects every instance of one Mesh for a frame and draws them all with a single
+ * glDrawElements.
+ *
+ * Instances are transformed on the CPU (same scale, rotate, translate order the old
+ * glPushMatrix path used) into one streaming vertex array, with the color carried per
+ * vertex. The index array never changes: instance i just uses the mesh's indices
+ * offset by i * vertexCount, so it gets built once and, where GL11 is available,
+ * uploaded once into a buffer object.
+ */
+public class MeshBatch {
+    static private final float c_depth = 5.0f;
+    static private final float c_alpha = 0.75f;
+
+    private final Mesh mesh;
+    private final int capacity;     // instances per draw call
+
+    private final float[] positions;
+    private final float[] colors;
+    private final FloatBuffer positionBuffer;
+    private final FloatBuffer colorBuffer;
+    private final ShortBuffer indexBuffer;
+    private int indexVbo = 0;
+
+    private int count = 0;
+    private int drawCalls = 0;
+
+    public MeshBatch(Mesh mesh, int maxVertices) {
+        this.mesh = mesh;
+        // Indices are shorts, so one draw can't reach past vertex 65535
+        capacity = Math.max(1, Math.min(maxVertices, 65536) / mesh.vertexCount);
+
+        positions = new float[capacity * mesh.vertexCount * 3];
+        colors = new float[capacity * mesh.vertexCount * 4];
+        positionBuffer = allocateFloats(positions.length);
+        colorBuffer = allocateFloats(colors.length);
+
+        final short[] meshIndices = mesh.indices;
+        ByteBuffer ibb = ByteBuffer.allocateDirect(capacity * meshIndices.length * 2);
+        ibb.order(ByteOrder.nativeOrder());
+        indexBuffer = ibb.asShortBuffer();
+        for (int i = 0; i < capacity; ++i) {
+            final int base = i * mesh.vertexCount;
+            for (int j = 0; j < meshIndices.length; ++j) {
+                indexBuffer.put((short) (base + meshIndices[j]));
+            }
+        }
+        indexBuffer.position(0);
+    }
+
+    static private FloatBuffer allocateFloats(int count) {
+        // float has 4 bytes
+        ByteBuffer bb = ByteBuffer.allocateDirect(count * 4);
+        bb.order(ByteOrder.nativeOrder());
+        return bb.asFloatBuffer();
+    }
+
+    public Mesh getMesh() {
+        return mesh;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Has to run on every new context; buffer object names don't survive a lost one.
+     */
+    public void onSurfaceCreated(GL10 gl) {
+        indexVbo = 0;
+        if (!(gl instanceof GL11)) {
+            return;
+        }
+        GL11 gl11 = (GL11) gl;
+        int[] names = new int[1];
+        gl11.glGenBuffers(1, names, 0);
+        indexVbo = names[0];
+        gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, indexVbo);
+        gl11.glBufferData(GL11.GL_ELEMENT_ARRAY_BUFFER, indexBuffer.capacity() * 2, indexBuffer, GL11.GL_STATIC_DRAW);
+        gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Appends one instance, flushing first if the batch is full.
+     */
+    public void add(GL10 gl, float x, float y, float rotationDegrees, float scaleX, float scaleY, int color) {
+        if (count == capacity) {
+            flush(gl);
+        }
+
+        final double theta = Math.toRadians(rotationDegrees);
+        final float cos = (float) Math.cos(theta);
+        final float sin = (float) Math.sin(theta);
+        final float[] coords = mesh.coords;
+        final int vertexCount = mesh.vertexCount;
+
+        int p = count * vertexCount * 3;
+        for (int v = 0; v < vertexCount; ++v) {
+            float mx = coords[v * 3] * scaleX;
+            float my = coords[v * 3 + 1] * scaleY;
+            positions[p++] = x + cos * mx - sin * my;
+            positions[p++] = y + sin * mx + cos * my;
+            positions[p++] = c_depth + coords[v * 3 + 2];
+        }
+
+        final float r = Color.red(color) / 255.0f;
+        final float g = Color.green(color) / 255.0f;
+        final float b = Color.blue(color) / 255.0f;
+        int c = count * vertexCount * 4;
+        for (int v = 0; v < vertexCount; ++v) {
+            colors[c++] = r;
+            colors[c++] = g;
+            colors[c++] = b;
+            colors[c++] = c_alpha;
+        }
+
+        ++count;
+    }
+
+    public void flush(GL10 gl) {
+        if (count == 0) {
+            return;
+        }
+
+        final int vertexFloats = count * mesh.vertexCount * 3;
+        positionBuffer.clear();
+        positionBuffer.put(positions, 0, vertexFloats);
+        positionBuffer.position(0);
+
+        final int colorFloats = count * mesh.vertexCount * 4;
+        colorBuffer.clear();
+        colorBuffer.put(colors, 0, colorFloats);
+        colorBuffer.position(0);
+
+        final int indexCount = count * mesh.indices.length;
+
+        gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
+        gl.glColorPointer(4, GL10.GL_FLOAT, 0, colorBuffer);
+        gl.glVertexPointer(3, GL10.GL_FLOAT, 0, positionBuffer);
+        if (indexVbo != 0) {
+            GL11 gl11 = (GL11) gl;
+            gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, indexVbo);
+            gl11.glDrawElements(GL10.GL_TRIANGLES, indexCount, GL10.GL_UNSIGNED_SHORT, 0);
+            gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, 0);
+        } else {
+            gl.glDrawElements(GL10.GL_TRIANGLES, indexCount, GL10.GL_UNSIGNED_SHORT, indexBuffer);
+        }
+        gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
+
+        count = 0;
+        ++drawCalls;
+    }
+
+    /**
+     * Draw calls issued since the last call, for keeping an eye on batching.
+     */
+    public int takeDrawCalls() {
+        int calls = drawCalls;
+        drawCalls = 0;
+        return calls;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+/**
+ * One Mesh per kind of object, built the first time somebody asks for it and shared
+ * by every instance after that. GameRenderer keeps one MeshBatch per type.
+ */
+public class MeshCache {
+
+    public enum MeshType {
+        PLAYER,
+        BULLET,
+        ASTEROID,
+    }
+
+    static private final Mesh[] meshes = new Mesh[MeshType.values().length];
+
+    static public synchronized Mesh get(MeshType type) {
+        Mesh mesh = meshes[type.ordinal()];
+        if (mesh == null) {
+            mesh = build(type);
+            meshes[type.ordinal()] = mesh;
+        }
+        return mesh;
+    }
+
+    static private Mesh build(MeshType type) {
+        switch (type) {
+            case PLAYER:
+                return new Mesh(type, Player.c_coords, Player.c_indices);
+            case BULLET:
+                return new Mesh(type, Bullet.c_coords, Bullet.c_indices);
+            case ASTEROID:
+                return new Mesh(type, Asteroid.c_coords, Asteroid.c_indices);
+        }
+        throw new IllegalArgumentException("No mesh for " + type);
+    }
+
+    private MeshCache() {
+    }
+}
@@ -18,11 +18,8 @@ package tv.ouya.sample.game;
 
 import android.graphics.Color;
 import android.graphics.PointF;
-import tv.ouya.console.api.OuyaController;
 
-import javax.microedition.khronos.opengles.GL10;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.Random;
 
 public class Player extends RenderObject {
     private int playerNum = -1;
@@ -32,8 +29,10 @@ public class Player extends RenderObject {
     private long lastDeadTime = 0;
     final private float c_thrustPower = 0.1f;
 
-    private PointF shootDir;
+    private float shootDirX;
+    private float shootDirY;
     private float forwardAmount;
+    private final PointF slid = new PointF();   // scratch for sliding along walls
 
     static final private int[] c_playerColors = {
             Color.CYAN,
@@ -46,30 +45,41 @@ public class Player extends RenderObject {
     static final private float c_timeBetweenShots = 0.1f;
     static final private float c_maxSpeed = 1.0f;
 
-    public Player(int playerNum) {
-        super(c_playerRadius);
+    public Player(GameWorld world, int playerNum) {
+        super(world, TYPE_PLAYER, c_playerRadius);
         this.playerNum = playerNum;
-        shootDir = new PointF();
 
-        setCollisionListener(new CollisionListener() {
-            @Override
-            public void onCollide(PointF prev, RenderObject me, RenderObject other) {
-                if (other instanceof Wall) {
-                    Wall wall = (Wall) other;
+        // Players never collide with players
+        setCollisionMask(LAYER_ASTEROID | LAYER_BULLET | LAYER_WALL);
+    }
 
-                    translation = wall.slideAgainst(prev, translation, getRadius());
-                }
+    /**
+     * Player against wall; asteroids and bullets register theirs.
+     */
+    static void registerCollisions(CollisionTable table) {
+        table.register(TYPE_PLAYER, TYPE_WALL, new CollisionListener() {
+            @Override
+            public void onCollide(RenderObject me, RenderObject other) {
+                ((Player) me).slideAgainst((Wall) other);
             }
         });
     }
 
+    private void slideAgainst(Wall wall) {
+        wall.slideAgainst(getPrevX(), getPrevY(), getX(), getY(), getRadius(), slid);
+        setPosition(slid.x, slid.y);
+    }
+
     public void init(int deviceId) {
         this.deviceId = deviceId;
 
         // Pick a random starting location
-        translation.x = (float) (Math.random() * (GameRenderer.BOARD_WIDTH - 1.0f) + 1.0f);
-        translation.y = (float) (Math.random() * (GameRenderer.BOARD_HEIGHT - 1.0f) + 1.0f);
-        rotation = (float) (Math.random() * 360.0f);
+        Random random = world.getRandom();
+        teleport(
+                (float) (random.nextDouble() * (GameRenderer.BOARD_WIDTH - 1.0f) + 1.0f),
+                (float) (random.nextDouble() * (GameRenderer.BOARD_HEIGHT - 1.0f) + 1.0f));
+        setRotate((float) (random.nextDouble() * 360.0f));
+        entities.prevRotation[id] = getRotation();
     }
 
     public boolean isValid() {
@@ -80,117 +90,142 @@ public class Player extends RenderObject {
         return deviceId;
     }
 
+    public int getPlayerNum() {
+        return playerNum;
+    }
+
     public void shoot(float dirX, float dirY) {
-        shootDir.set(dirX, dirY);
+        shootDirX = dirX;
+        shootDirY = dirY;
     }
 
     public void die() {
         isDead = true;
-        this.flight.set(0.0f, 0.0f);
-        lastDeadTime = System.currentTimeMillis();
+        setVelocity(0.0f, 0.0f);
+        lastDeadTime = world.getTimeMillis();
+    }
+
+    public boolean isDead() {
+        return isDead;
+    }
+
+    /**
+     * Back in the game before the usual wait is up, for when somebody else (a remote
+     * server) decides that.
+     */
+    public void revive() {
+        isDead = false;
     }
 
     @Override
-    protected void initModel() {
-        final short[] _indicesArray = {
-        		
-        		0, 	1, 2, //(left circle)
-        		0, 	2, 3,	
-        		0, 	3, 4,    			    
-        		0, 	4, 5,    
-        		0, 	5, 6,
-        		0, 	6, 7,
-        		0, 	19,	20, //(left circle)
-        		0, 	20,	21,	
-        		0, 	21,	22,    			    
-        		0, 	22,	23,    
-        		0, 	23, 	24,
-        		0, 	24, 	25,
-        		1,	19, 0,
-        		7,	25, 0,
-        		1,	19,	37,
-        		7, 	17, 	26, //(center rect)
-        		7, 	35, 	25,
-        		16,	9,	27, //(strut)
-        		27, 	34, 	16,
-        		12,	11, 10, //(left engine)
-        		12,	13, 15,
-        		12,	10, 15,
-        		13,	15, 14,
-        		30,	29, 28, //(right engine)
-        		30,	31, 33,
-        		30,	28, 33,
-        		31,	33, 32,
-        		17,	35, 18,
-        };
-        	
+    void saveState(WorldState out) {
+        super.saveState(out);
+        out.writeInt(deviceId);
+        out.writeBoolean(isDead);
+        out.writeLong(lastShotTime);
+        out.writeLong(lastDeadTime);
+        out.writeFloat(shootDirX);
+        out.writeFloat(shootDirY);
+        out.writeFloat(forwardAmount);
+    }
+
+    @Override
+    void restoreState(WorldState in) {
+        super.restoreState(in);
+        deviceId = in.readInt();
+        isDead = in.readBoolean();
+        lastShotTime = in.readLong();
+        lastDeadTime = in.readLong();
+        shootDirX = in.readFloat();
+        shootDirY = in.readFloat();
+        forwardAmount = in.readFloat();
+    }
+
+    static final short[] c_indices = {
+    		
+    		0, 	1, 2, //(left circle)
+    		0, 	2, 3,	
+    		0, 	3, 4,    			    
+    		0, 	4, 5,    
+    		0, 	5, 6,
+    		0, 	6, 7,
+    		0, 	19,	20, //(left circle)
+    		0, 	20,	21,	
+    		0, 	21,	22,    			    
+    		0, 	22,	23,    
+    		0, 	23, 	24,
+    		0, 	24, 	25,
+    		1,	19, 0,
+    		7,	25, 0,
+    		1,	19,	37,
+    		7, 	17, 	26, //(center rect)
+    		7, 	35, 	25,
+    		16,	9,	27, //(strut)
+    		27, 	34, 	16,
+    		12,	11, 10, //(left engine)
+    		12,	13, 15,
+    		12,	10, 15,
+    		13,	15, 14,
+    		30,	29, 28, //(right engine)
+    		30,	31, 33,
+    		30,	28, 33,
+    		31,	33, 32,
+    		17,	35, 18,
+    };
+    	
 //        	{0, 1, 2, 1, 3, 2};
 
-        // float has 4 bytes
-        ByteBuffer vbb = ByteBuffer.allocateDirect(_indicesArray.length * 3 * 4);
-        vbb.order(ByteOrder.nativeOrder());
-        vertexBuffer = vbb.asFloatBuffer();
-
-        // short has 2 bytes
-        ByteBuffer ibb = ByteBuffer.allocateDirect(_indicesArray.length * 2);
-        ibb.order(ByteOrder.nativeOrder());
-        indexBuffer = ibb.asShortBuffer();
-
-        final float[] coords = {
-        		0.0f,    0.0f,   0.0f,		//0
-        	    -0.5f,    0.866f, 0.0f,		//1
-        		-0.707f,  0.707f, 0.0f,		//2
-        		-0.866f,  0.5f,   0.0f,		//3
-        		-1.0f,    0.0f,   0.0f,		//4
-        		-0.866f, -0.5f,   0.0f,		//5
-        		-0.707f, -0.707f, 0.0f,		//6
-        		-0.5f,   -0.866f, 0.0f,		//7
-        		-0.5f,   -1.2f,   0.0f,		//8
-        		-0.707f, -1.2f,   0.0f,		//9
-        		-0.707f, -1.0f,   0.0f,		//10
-        		-0.866f, -0.866f, 0.0f,		//11
-        		-1.025f, -1.0f,   0.0f,		//12
-        		-1.025f, -1.7f,   0.0f,		//13
-        		-0.866f, -1.834f, 0.0f,		//14
-        		-0.707f, -1.7f,   0.0f,		//15
-        		-0.707f, -1.4f,   0.0f,		//16
-        		-0.5f,   -1.4f,   0.0f,		//17
-        		-0.3f,   -1.5f,   0.0f,		//18
-        		0.5f, 	  0.866f, 0.0f,		//19	r1
-        		0.707f, 	  0.707f, 0.0f,		//	20	r2					
-        		0.866f, 	  0.5f,   0.0f,		//21	r3
-        		1.0f, 	  0.0f,   0.0f,		//	22	r4
-        		0.866f, 	 -0.5f,   0.0f,		//		23	r5
-        		0.707f, 	 -0.707f, 0.0f,		//	24	r6
-        		0.5f, 	 -0.866f, 0.0f,		//		25	r7
-        		0.5f, 	 -1.2f,   0.0f,		//		26	r8
-        		0.707f,	 -1.2f,   0.0f,		//		27	r9
-        		0.707f,	 -1.0f,   0.0f,		//		28	r10
-        		0.866f,	 -0.866f, 0.0f,		//29	r11
-        		1.025f,	 -1.0f,   0.0f,		//		30	r12
-        		1.025f, 	 -1.7f,   0.0f,		//		31	r13
-        		0.866f,	 -1.834f, 0.0f,		//32	r14
-        		0.707f, 	 -1.72f,   0.0f,		//		33	r15
-        		0.707f,	 -1.4f,   0.0f,		//		34	r16
-        		0.5f,	 -1.4f,   0.0f,		//	35	r17
-        		0.3f,	 -1.5f,   0.0f,		//	36	r18
-        		0.0f,	  1.0f,	  0.0f,		//	37
-            		};		
-        
+    static final float[] c_coords = {
+    		0.0f,    0.0f,   0.0f,		//0
+    	    -0.5f,    0.866f, 0.0f,		//1
+    		-0.707f,  0.707f, 0.0f,		//2
+    		-0.866f,  0.5f,   0.0f,		//3
+    		-1.0f,    0.0f,   0.0f,		//4
+    		-0.866f, -0.5f,   0.0f,		//5
+    		-0.707f, -0.707f, 0.0f,		//6
+    		-0.5f,   -0.866f, 0.0f,		//7
+    		-0.5f,   -1.2f,   0.0f,		//8
+    		-0.707f, -1.2f,   0.0f,		//9
+    		-0.707f, -1.0f,   0.0f,		//10
+    		-0.866f, -0.866f, 0.0f,		//11
+    		-1.025f, -1.0f,   0.0f,		//12
+    		-1.025f, -1.7f,   0.0f,		//13
+    		-0.866f, -1.834f, 0.0f,		//14
+    		-0.707f, -1.7f,   0.0f,		//15
+    		-0.707f, -1.4f,   0.0f,		//16
+    		-0.5f,   -1.4f,   0.0f,		//17
+    		-0.3f,   -1.5f,   0.0f,		//18
+    		0.5f, 	  0.866f, 0.0f,		//19	r1
+    		0.707f, 	  0.707f, 0.0f,		//	20	r2					
+    		0.866f, 	  0.5f,   0.0f,		//21	r3
+    		1.0f, 	  0.0f,   0.0f,		//	22	r4
+    		0.866f, 	 -0.5f,   0.0f,		//		23	r5
+    		0.707f, 	 -0.707f, 0.0f,		//	24	r6
+    		0.5f, 	 -0.866f, 0.0f,		//		25	r7
+    		0.5f, 	 -1.2f,   0.0f,		//		26	r8
+    		0.707f,	 -1.2f,   0.0f,		//		27	r9
+    		0.707f,	 -1.0f,   0.0f,		//		28	r10
+    		0.866f,	 -0.866f, 0.0f,		//29	r11
+    		1.025f,	 -1.0f,   0.0f,		//		30	r12
+    		1.025f, 	 -1.7f,   0.0f,		//		31	r13
+    		0.866f,	 -1.834f, 0.0f,		//32	r14
+    		0.707f, 	 -1.72f,   0.0f,		//		33	r15
+    		0.707f,	 -1.4f,   0.0f,		//		34	r16
+    		0.5f,	 -1.4f,   0.0f,		//	35	r17
+    		0.3f,	 -1.5f,   0.0f,		//	36	r18
+    		0.0f,	  1.0f,	  0.0f,		//	37
+        		};		
+    
     				/*{
-                -0.9f, -0.9f, 0.0f, // 0
-                 0.0f, -0.2f, 0.0f, // 1
-                 0.0f,  0.1f, 0.0f, // 2
-                 0.9f, -0.9f, 0.0f, // 3
+            -0.9f, -0.9f, 0.0f, // 0
+             0.0f, -0.2f, 0.0f, // 1
+             0.0f,  0.1f, 0.0f, // 2
+             0.9f, -0.9f, 0.0f, // 3
        			};*/
-        
-        
 
-        vertexBuffer.put(coords);
-        indexBuffer.put(_indicesArray);
-
-        vertexBuffer.position(0);
-        indexBuffer.position(0);
+    @Override
+    protected void initModel() {
+        mesh = MeshCache.get(MeshCache.MeshType.PLAYER);
     }
 
     final float c_forwardSpeed = 0.1f;
@@ -206,14 +241,14 @@ public class Player extends RenderObject {
         return (stickMag >= c_minStickDistance);
     }
 
-    private void getForwardAmountFromController(OuyaController c) {
-        float axisX = c.getAxisValue(OuyaController.AXIS_LS_X);
+    private void getForwardAmountFromInput(InputFrame input) {
+        float axisX = input.getLeftX(playerNum);
         axisX = Math.min(axisX, 1.0f);
-        float axisY = c.getAxisValue(OuyaController.AXIS_LS_Y);
+        float axisY = input.getLeftY(playerNum);
         axisY = Math.min(axisY, 1.0f);
         if (isStickNotCentered(axisX, axisY)) {
             float stickMag = stickMag(axisX, axisY);
-            float desiredDir = (float) Math.toDegrees( Math.atan2(-axisX, axisY) );
+            float desiredDir = (float) SimMath.toDegrees( SimMath.atan2(-axisX, axisY) );
             setRotate(desiredDir);
             forwardAmount = stickMag * c_forwardSpeed;
         } else {
@@ -221,53 +256,63 @@ public class Player extends RenderObject {
         }
     }
 
-    private void getShootDirFromController(OuyaController c) {
-        float axisX = c.getAxisValue(OuyaController.AXIS_RS_X);
+    private void getShootDirFromInput(InputFrame input) {
+        float axisX = input.getRightX(playerNum);
         axisX = Math.min(axisX, 1.0f);
-        float axisY = c.getAxisValue(OuyaController.AXIS_RS_Y);
+        float axisY = input.getRightY(playerNum);
         axisY = Math.min(axisY, 1.0f);
         if (isStickNotCentered(axisX, axisY)) {
             float stickMag = stickMag(axisX, axisY);
             // normalize the direction vec
-            shootDir.x = axisX / stickMag;
-            shootDir.y = axisY / stickMag;
+            shootDirX = axisX / stickMag;
+            shootDirY = axisY / stickMag;
         } else {
-            shootDir.set(0.0f, 0.0f);
+            shootDirX = 0.0f;
+            shootDirY = 0.0f;
 
             // Stick isn't pressed, check the buttons
-            if (c.getButton(OuyaController.BUTTON_O)
-                   || c.getButton(OuyaController.BUTTON_U)) {
-                PointF fwdVec = getForwardVector();
-                shootDir = fwdVec;
+            if (input.isPressed(playerNum, InputFrame.BUTTON_O)
+                   || input.isPressed(playerNum, InputFrame.BUTTON_U)) {
+                shootDirX = getForwardX();
+                shootDirY = getForwardY();
             }
             
-            if (c.getButton(OuyaController.BUTTON_Y)
-            		   || c.getButton(OuyaController.BUTTON_R2)) {
-            		PointF fwdVec = getForwardVector();
-                shootDir = fwdVec;
+            if (input.isPressed(playerNum, InputFrame.BUTTON_Y)
+            		   || input.isPressed(playerNum, InputFrame.BUTTON_R2)) {
+                shootDirX = getForwardX();
+                shootDirY = getForwardY();
             }
         }
     }
     
     private void thrust(float amount) {
-    		PointF direction = getForwardVector();
-    		flight.x += direction.x * c_thrustPower * amount;
-    		flight.y += direction.y * c_thrustPower * amount;
+    		addVelocity(
+    		        getForwardX() * c_thrustPower * amount,
+    		        getForwardY() * c_thrustPower * amount);
     }
     
     @Override
     protected void update() {
+        final InputFrame input = world.getInput();
+        final boolean connected = input.isConnected(playerNum);
         if (!isValid()) {
-            return;
+            if (!connected) {
+                return;
+            }
+            // Somebody picked up a controller for our slot
+            init(input.getDeviceId(playerNum));
         }
         
         super.update();
         
-        OuyaController c = OuyaController.getControllerByDeviceId(deviceId);
-        getForwardAmountFromController(c);
-        getShootDirFromController(c);
+        // A slot with nobody on it (or a player driven headless through shoot())
+        // keeps whatever it was last asked to do
+        if (connected) {
+            getForwardAmountFromInput(input);
+            getShootDirFromInput(input);
+        }
         	
-        long currentTime = System.currentTimeMillis();
+        long currentTime = world.getTimeMillis();
         
         if (isDead) {
             float timeSinceDead = (currentTime - lastDeadTime) / 1000.0f;
@@ -277,61 +322,55 @@ public class Player extends RenderObject {
         } else {
         		thrust(forwardAmount);
             drift();
-            float l = flight.length();
+            float vx = getVelocityX();
+            float vy = getVelocityY();
+            float l = (float) Math.sqrt(vx * vx + vy * vy);
     			if (l > c_maxSpeed){
-    				flight.x = flight.x*c_maxSpeed/l;
-    				flight.y = flight.y*c_maxSpeed/l;
+    				setVelocity(vx*c_maxSpeed/l, vy*c_maxSpeed/l);
     			}
         }
         
         float timeSinceLastShot = (currentTime - lastShotTime) / 1000.0f;
         
-        if (c.getButton(OuyaController.BUTTON_Y)) {
+        if (input.isPressed(playerNum, InputFrame.BUTTON_Y)) {
 	        	if (timeSinceLastShot > c_timeBetweenShots * 5) {
 	        	    final float c_bulletDistance = 0.0f;
 	        	    long n = 10;
 	        	    for (long i = 0; i < n; i++) {
 	        	    	    double theta = i * 2.0 * Math.PI / n;
-	        	        Bullet b = new Bullet(this,
-	        	        		(float) (translation.x + Math.cos(theta) * c_bulletDistance),
-	        	        		(float) (translation.y + Math.sin(theta) * c_bulletDistance),
-	        	        		(float) Math.toDegrees(theta), Color.GREEN );
-	        	        		b.flight.x += flight.x;
-	        	        		b.flight.y += flight.y;
+	        	        Bullet b = world.getBulletPool().fire(this,
+	        	        		(float) (getX() + SimMath.cos(theta) * c_bulletDistance),
+	        	        		(float) (getY() + SimMath.sin(theta) * c_bulletDistance),
+	        	        		(float) SimMath.toDegrees(theta), Color.GREEN );
+	        	        if (b != null) {
+	        	            b.addVelocity(getVelocityX(), getVelocityY());
+	        	        }
 	        	    }
 	        	}
         }
         
-        if (shootDir.x != 0.0f || shootDir.y != 0.0f) {
+        if (shootDirX != 0.0f || shootDirY != 0.0f) {
             if (timeSinceLastShot > c_timeBetweenShots) {
                 lastShotTime = currentTime;
-                float desiredDir = (float) Math.toDegrees( Math.atan2(-shootDir.x, shootDir.y) );
+                float desiredDir = (float) SimMath.toDegrees( SimMath.atan2(-shootDirX, shootDirY) );
 
                 final float c_bulletDistance = 0.0f;
-                Bullet b = new Bullet(this, translation.x + shootDir.x * c_bulletDistance, translation.y + shootDir.y * c_bulletDistance, desiredDir, c_playerColors[playerNum]);
-                b.flight.x += flight.x;
-    	        		b.flight.y += flight.y;
+                Bullet b = world.getBulletPool().fire(this, getX() + shootDirX * c_bulletDistance, getY() + shootDirY * c_bulletDistance, desiredDir, c_playerColors[playerNum]);
+                if (b != null) {
+                    b.addVelocity(getVelocityX(), getVelocityY());
+                }
             }
         }
     }
 
     @Override
-    protected void doRender(GL10 gl) {
-        if (!isValid()) {
-            return;
-        }
-
-        int color = isDead ? c_deadColor : c_playerColors[playerNum];
-        setColor(gl, color);
-        super.doRender(gl);
+    public boolean isVisible() {
+        return isValid();
     }
 
     @Override
-    public boolean doesCollide(RenderObject other) {
-        if (other instanceof Player) {
-            return false;
-        }
-        return super.doesCollide(other);
+    public int getColor() {
+        return isDead ? c_deadColor : c_playerColors[playerNum];
     }
     
     public void doBurst(){
@@ -339,12 +378,13 @@ public class Player extends RenderObject {
 	    long n = 10;
 	    for (long i = 0; i < n; i++) {
 	    	    double theta = i * 2.0 * Math.PI / n;
-	        Bullet b = new Bullet(this,
-	        		(float) (translation.x + Math.cos(theta) * c_bulletDistance),
-	        		(float) (translation.y + Math.sin(theta) * c_bulletDistance),
-	        		(float) Math.toDegrees(theta), Color.GREEN );
-	        		b.flight.x += flight.x;
-	        		b.flight.y += flight.y;
+	        Bullet b = world.getBulletPool().fire(this,
+	        		(float) (getX() + SimMath.cos(theta) * c_bulletDistance),
+	        		(float) (getY() + SimMath.sin(theta) * c_bulletDistance),
+	        		(float) SimMath.toDegrees(theta), Color.GREEN );
+	        if (b != null) {
+	            b.addVelocity(getVelocityX(), getVelocityY());
+	        }
 	    }
     }
    }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Where the time of a frame goes, and how busy the world is while it does.
+ *
+ * Spans are System.nanoTime() differences around the phases of a step and of a
+ * frame; counters are per-step numbers (contacts tested and hit, spawns, live
+ * objects of each type). Each metric keeps a Histogram over its last c_window values.
+ * Everything is allocated up front: with the profiler on, a frame costs a couple of
+ * nanoTime() calls and uncontended locks per metric, and with it off, begin() and
+ * end() just check a flag.
+ *
+ * Usage around a phase:
+ *
+ *   final long start = profiler.begin();
+ *   ...
+ *   profiler.end(Profiler.UPDATE, start);
+ */
+public class Profiler {
+    // Spans, in nanoseconds
+    static public final int FRAME = 0;          // onDrawFrame, start to end
+    static public final int STEP = 1;           // one GameWorld.step()
+    static public final int INPUT = 2;          // polling the InputSource
+    static public final int UPDATE = 3;         // update() on every object and integration
+    static public final int COLLISION = 4;      // binning, contact search and responses
+    static public final int COMMANDS = 5;       // applying spawns and despawns
+    static public final int RENDER = 6;         // drawing, advance() not included
+    static final int c_spanCount = 7;
+
+    // Counters, per step
+    static public final int CONTACTS_TESTED = 7;
+    static public final int CONTACTS_HIT = 8;
+    static public final int SPAWNS = 9;
+    static public final int DESPAWNS = 10;
+    static public final int LIVE_PLAYERS = 11;
+    static public final int LIVE_ASTEROIDS = 12;
+    static public final int LIVE_BULLETS = 13;
+    static public final int METRIC_COUNT = 14;
+
+    static private final String[] c_names = {
+            "frame", "step", "input", "update", "collision", "commands", "render",
+            "contactsTested", "contactsHit", "spawns", "despawns",
+            "livePlayers", "liveAsteroids", "liveBullets",
+    };
+
+    // About 17 seconds of frames at 60 per second
+    static private final int c_window = 1024;
+
+    private final Histogram[] histograms = new Histogram[METRIC_COUNT];
+    private volatile boolean enabled = false;
+    private volatile boolean overlayVisible = false;
+
+    public Profiler() {
+        for (int i = 0; i < METRIC_COUNT; ++i) {
+            histograms[i] = new Histogram(c_window);
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether GameRenderer should draw ProfilerOverlay. Only does anything while the
+     * profiler is enabled.
+     */
+    public void setOverlayVisible(boolean visible) {
+        overlayVisible = visible;
+    }
+
+    public boolean isOverlayVisible() {
+        return enabled && overlayVisible;
+    }
+
+    /**
+     * Start of a span; 0 when disabled.
+     */
+    public long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * End of a span that started with begin(); returns the end time, so it can start
+     * the next span.
+     */
+    public long end(int span, long start) {
+        if (!enabled) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        histograms[span].record(now - start);
+        return now;
+    }
+
+    public void record(int metric, long value) {
+        if (enabled) {
+            histograms[metric].record(value);
+        }
+    }
+
+    public Histogram getHistogram(int metric) {
+        return histograms[metric];
+    }
+
+    static public String getName(int metric) {
+        return c_names[metric];
+    }
+
+    static public boolean isSpan(int metric) {
+        return metric < c_spanCount;
+    }
+
+    public void reset() {
+        for (Histogram h : histograms) {
+            h.reset();
+        }
+    }
+
+    /**
+     * One line per metric with its percentiles over the window; spans in
+     * milliseconds. Allocates, so keep it off the frame.
+     */
+    public void dump(PrintWriter out) {
+        out.println(String.format(Locale.US, "%-16s %8s %8s %8s %8s %8s %8s %10s",
+                "metric", "mean", "p50", "p90", "p99", "p99.9", "max", "samples"));
+        for (int i = 0; i < METRIC_COUNT; ++i) {
+            final Histogram h = histograms[i];
+            final double scale = isSpan(i) ? 1e-6 : 1.0;
+            out.println(String.format(Locale.US, "%-16s %8.3f %8.3f %8.3f %8.3f %8.3f %8.3f %10d",
+                    c_names[i],
+                    h.getMean() * scale,
+                    h.getValueAtPercentile(50.0) * scale,
+                    h.getValueAtPercentile(90.0) * scale,
+                    h.getValueAtPercentile(99.0) * scale,
+                    h.getValueAtPercentile(99.9) * scale,
+                    h.getMax() * scale,
+                    h.getTotalCount()));
+        }
+        out.flush();
+    }
+}
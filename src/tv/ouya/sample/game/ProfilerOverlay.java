@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import javax.microedition.khronos.opengles.GL10;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Draws the profiler's spans as bars over the top left of the board: one row per
+ * span, p50 bright and p99 dim behind it, with a marker at one 60 Hz frame. No text,
+ * so there's nothing to allocate; the dump has the exact numbers.
+ */
+public class ProfilerOverlay {
+    static private final float c_left = 0.5f;
+    static private final float c_top = 0.5f;
+    static private final float c_rowHeight = 0.6f;
+    static private final float c_barHeight = 0.4f;
+    static private final float c_unitsPerMilli = 1.2f;      // a whole frame is 20 units
+    static private final float c_depth = 5.0f;
+    static private final float c_frameMillis = 1000.0f / GameWorld.TICKS_PER_SECOND;
+
+    static private final float[][] c_colors = {
+            {1.0f, 1.0f, 1.0f},     // frame
+            {0.3f, 0.6f, 1.0f},     // step
+            {0.6f, 0.3f, 1.0f},     // input
+            {0.2f, 0.9f, 0.3f},     // update
+            {1.0f, 0.4f, 0.2f},     // collision
+            {1.0f, 0.9f, 0.2f},     // commands
+            {0.2f, 0.9f, 0.9f},     // render
+    };
+
+    // Two bars per span plus the marker, two triangles each
+    static private final int c_quadCount = Profiler.c_spanCount * 2 + 1;
+    private final float[] vertices = new float[c_quadCount * 6 * 3];
+    private final FloatBuffer vertexBuffer;
+
+    public ProfilerOverlay() {
+        ByteBuffer bb = ByteBuffer.allocateDirect(vertices.length * 4);
+        bb.order(ByteOrder.nativeOrder());
+        vertexBuffer = bb.asFloatBuffer();
+    }
+
+    public void draw(GL10 gl, Profiler profiler) {
+        int quad = 0;
+        for (int span = 0; span < Profiler.c_spanCount; ++span) {
+            final Histogram h = profiler.getHistogram(span);
+            final float y = c_top + span * c_rowHeight;
+            quad = putBar(quad, y, h.getValueAtPercentile(99.0));
+            quad = putBar(quad, y, h.getValueAtPercentile(50.0));
+        }
+        final float markerX = c_left + c_frameMillis * c_unitsPerMilli;
+        quad = putQuad(quad, markerX, c_top - 0.2f, markerX + 0.1f, c_top + Profiler.c_spanCount * c_rowHeight);
+
+        vertexBuffer.clear();
+        vertexBuffer.put(vertices, 0, quad * 18);
+        vertexBuffer.position(0);
+        gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertexBuffer);
+
+        for (int span = 0; span < Profiler.c_spanCount; ++span) {
+            final float[] c = c_colors[span];
+            gl.glColor4f(c[0] * 0.4f, c[1] * 0.4f, c[2] * 0.4f, 1.0f);
+            gl.glDrawArrays(GL10.GL_TRIANGLES, span * 12, 6);
+            gl.glColor4f(c[0], c[1], c[2], 1.0f);
+            gl.glDrawArrays(GL10.GL_TRIANGLES, span * 12 + 6, 6);
+        }
+        gl.glColor4f(1.0f, 0.0f, 0.0f, 1.0f);
+        gl.glDrawArrays(GL10.GL_TRIANGLES, (quad - 1) * 6, 6);
+        gl.glColor4f(1.0f, 1.0f, 1.0f, 1.0f);
+    }
+
+    private int putBar(int quad, float y, long nanos) {
+        final float length = nanos / 1e6f * c_unitsPerMilli;
+        return putQuad(quad, c_left, y, c_left + length, y + c_barHeight);
+    }
+
+    private int putQuad(int quad, float x0, float y0, float x1, float y1) {
+        int v = quad * 18;
+        v = put(v, x0, y0);
+        v = put(v, x1, y0);
+        v = put(v, x1, y1);
+        v = put(v, x0, y0);
+        v = put(v, x1, y1);
+        put(v, x0, y1);
+        return quad + 1;
+    }
+
+    private int put(int v, float x, float y) {
+        vertices[v] = x;
+        vertices[v + 1] = y;
+        vertices[v + 2] = c_depth;
+        return v + 3;
+    }
+}
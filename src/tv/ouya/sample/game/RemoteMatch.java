@@ -0,0 +1,472 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * The client end of a match on a MatchServer, for playing it from this console.
+ *
+ * Everybody else is drawn from the server's snapshots through a SnapshotInterpolator.
+ * Our own player can't wait a round trip for its moves to show, so it also runs in a
+ * world of our own (just the walls and that player, see GameWorld.startPrediction())
+ * on the first local controller, one step per input sent. Each snapshot says which of
+ * our inputs the server had used by then; where the server put the player is compared
+ * with where that input left it here, and the difference gets added to the player
+ * (and to every prediction made since). On screen the correction is worked off over a
+ * few steps rather than jumping, unless it's too big for that to look right.
+ *
+ * Three threads: whoever steps getWorld() (normally the renderer), a reader decoding
+ * snapshots and a writer sending the newest input.
+ */
+public class RemoteMatch {
+    static private final int c_historyLength = 256;         // predicted positions, by input sequence
+    static private final float c_minCorrection = 0.01f;
+    static private final float c_snapDistance = 4.0f;       // teleport instead of smoothing beyond this
+    static private final float c_smoothing = 0.85f;         // of a correction still to work off after a step
+    static private final int c_handshakeTimeoutMillis = 5000;   // for connecting, and for each reply while joining
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final int match;
+    private final int slot;
+    private final Options.Level level;
+
+    private final GameWorld world;
+    private final Player player;
+    private final InputSource controllers;
+    private final InputFrame local = new InputFrame();
+    private final SnapshotInterpolator interpolator;
+
+    // Snapshots decoded so far, for the next ones to be written against
+    private final Snapshot[] received = new Snapshot[MatchProtocol.BASELINE_HISTORY];
+    private byte[] buffer = new byte[4096];
+    private volatile long acknowledgedTick = -1;
+
+    // Newest input, for the writer thread
+    private boolean inputPending = false;
+    private int pendingSequence;
+    private final float[] pendingAxes = new float[4];
+    private int pendingButtons;
+    private boolean closed = false;
+
+    // Newest word from the server on our player, for the stepping thread
+    private boolean correctionPending = false;
+    private int correctionSequence;
+    private float correctionX;
+    private float correctionY;
+    private boolean correctionDead;
+
+    // Everything below is only touched while the world steps or is locked
+    private int sequence = 0;
+    private int historyStart = 1;       // inputs before this one have no usable prediction
+    private boolean placed = false;     // the server has told us where we are since we joined
+    private final float[] historyX = new float[c_historyLength];
+    private final float[] historyY = new float[c_historyLength];
+    private float errorX;
+    private float errorY;
+    private long corrections = 0;
+    private long snaps = 0;
+    private double correctionSum = 0.0;
+    private float correctionMax = 0.0f;
+
+    private Thread reader;
+    private Thread writer;
+
+    /**
+     * Connects and joins, or throws if the server is full, not there, or doesn't answer
+     * within c_handshakeTimeoutMillis.
+     */
+    public RemoteMatch(String host, int port, InputSource controllers, Clock clock, long delayNanos)
+            throws IOException {
+        this.controllers = controllers;
+        socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), c_handshakeTimeoutMillis);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(c_handshakeTimeoutMillis);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            MatchProtocol.writeHello(out);
+            out.flush();
+            final int message = in.readUnsignedByte();
+            if (message != MatchProtocol.WELCOME) {
+                throw new IOException("Server turned us away (" + message + ")");
+            }
+            match = in.readInt();
+            slot = in.readByte();
+            if (slot < 0 || slot >= InputFrame.MAX_PLAYERS) {
+                throw new IOException("Server gave us slot " + slot);
+            }
+            final int levelIndex = in.readByte();
+            if (levelIndex < 0 || levelIndex >= Options.Level.values().length) {
+                throw new IOException("Server picked unknown level " + levelIndex);
+            }
+            level = Options.Level.values()[levelIndex];
+            in.readShort();     // tick rate, always GameWorld.TICKS_PER_SECOND so far
+            // Snapshots can take as long as they like from here on
+            socket.setSoTimeout(0);
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException closing) {
+                // Failing anyway
+            }
+            throw e;
+        }
+
+        for (int i = 0; i < received.length; ++i) {
+            received[i] = new Snapshot();
+        }
+        interpolator = new SnapshotInterpolator(clock, delayNanos);
+        world = new GameWorld(clock, 0);
+        player = world.startPrediction(level, slot, new InputSource() {
+            @Override
+            public boolean poll(long tick, InputFrame frame) {
+                return predict(tick, frame);
+            }
+        });
+        start();
+    }
+
+    public int getMatch() {
+        return match;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public Options.Level getLevel() {
+        return level;
+    }
+
+    /**
+     * The walls and our predicted player. Step it like a local match, with advance().
+     */
+    public GameWorld getWorld() {
+        return world;
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    public SnapshotInterpolator getInterpolator() {
+        return interpolator;
+    }
+
+    /**
+     * Everything the server has, as of the interpolation delay ago. Our own player is
+     * in there too, lagging behind; draw getPlayer() instead.
+     */
+    public boolean sample(Snapshot out) {
+        return interpolator.sample(out);
+    }
+
+    /**
+     * How far off the player should be drawn from where it really is, while a
+     * correction is being worked off. Call with the world locked.
+     */
+    float getRenderOffsetX() {
+        return -errorX;
+    }
+
+    float getRenderOffsetY() {
+        return -errorY;
+    }
+
+    private void start() {
+        final String name = "remote-" + match + "-" + slot;
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, name + "-in");
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, name + "-out");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * The world's InputSource: settles the server's latest correction, then takes the
+     * first local controller as our slot's input for this step and sends it off.
+     */
+    private boolean predict(long tick, InputFrame frame) {
+        if (sequence > 0) {
+            // The step before this one ran on input number sequence
+            historyX[sequence % c_historyLength] = player.getX();
+            historyY[sequence % c_historyLength] = player.getY();
+        }
+        correct();
+        errorX *= c_smoothing;
+        errorY *= c_smoothing;
+
+        local.clear();
+        controllers.poll(tick, local);
+        ++sequence;
+        synchronized (this) {
+            inputPending = true;
+            pendingSequence = sequence;
+            if (local.isConnected(0)) {
+                frame.set(slot, local.getDeviceId(0),
+                        local.getLeftX(0), local.getLeftY(0), local.getRightX(0), local.getRightY(0),
+                        local.getButtons(0));
+                pendingAxes[0] = local.getLeftX(0);
+                pendingAxes[1] = local.getLeftY(0);
+                pendingAxes[2] = local.getRightX(0);
+                pendingAxes[3] = local.getRightY(0);
+                pendingButtons = local.getButtons(0);
+            } else {
+                pendingAxes[0] = pendingAxes[1] = pendingAxes[2] = pendingAxes[3] = 0.0f;
+                pendingButtons = 0;
+            }
+            notifyAll();
+        }
+        return true;
+    }
+
+    private void correct() {
+        final int applied;
+        final float x;
+        final float y;
+        final boolean dead;
+        synchronized (this) {
+            if (!correctionPending) {
+                return;
+            }
+            correctionPending = false;
+            applied = correctionSequence;
+            x = correctionX;
+            y = correctionY;
+            dead = correctionDead;
+        }
+
+        if (dead) {
+            // Nothing to predict while we wait to come back
+            if (!player.isDead()) {
+                player.die();
+            }
+            snap(x, y);
+            return;
+        }
+        if (player.isDead()) {
+            player.revive();
+            snap(x, y);
+            return;
+        }
+        if (!placed) {
+            // Wherever Player.init() put us, the server picked somewhere else
+            snap(x, y);
+            return;
+        }
+        if (applied < historyStart || applied > sequence || sequence - applied >= c_historyLength) {
+            // From before the last snap, or never predicted at all
+            return;
+        }
+
+        final float dx = Sweep.wrapDelta(x - historyX[applied % c_historyLength], GameRenderer.BOARD_WIDTH);
+        final float dy = Sweep.wrapDelta(y - historyY[applied % c_historyLength], GameRenderer.BOARD_HEIGHT);
+        final float distance = (float) Math.sqrt(dx * dx + dy * dy);
+        if (distance < c_minCorrection) {
+            return;
+        }
+        ++corrections;
+        correctionSum += distance;
+        correctionMax = Math.max(correctionMax, distance);
+        if (distance > c_snapDistance) {
+            ++snaps;
+            snap(wrap(player.getX() + dx, GameRenderer.BOARD_WIDTH),
+                 wrap(player.getY() + dy, GameRenderer.BOARD_HEIGHT));
+            return;
+        }
+
+        player.setPosition(wrap(player.getX() + dx, GameRenderer.BOARD_WIDTH),
+                           wrap(player.getY() + dy, GameRenderer.BOARD_HEIGHT));
+        for (int s = applied + 1; s <= sequence; ++s) {
+            historyX[s % c_historyLength] += dx;
+            historyY[s % c_historyLength] += dy;
+        }
+        errorX += dx;
+        errorY += dy;
+    }
+
+    private void snap(float x, float y) {
+        // Player.init() picks a spot of its own once a controller shows up
+        placed = player.isValid();
+        player.teleport(x, y);
+        historyStart = sequence + 1;
+        errorX = 0.0f;
+        errorY = 0.0f;
+    }
+
+    static private float wrap(float value, float size) {
+        if (value < 0.0f) {
+            return value + size;
+        }
+        if (value >= size) {
+            return value - size;
+        }
+        return value;
+    }
+
+    private void writeLoop() {
+        final float[] axes = new float[4];
+        try {
+            while (true) {
+                final int sending;
+                final int buttons;
+                synchronized (this) {
+                    while (!inputPending && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    inputPending = false;
+                    sending = pendingSequence;
+                    System.arraycopy(pendingAxes, 0, axes, 0, 4);
+                    buttons = pendingButtons;
+                }
+                MatchProtocol.writeInput(out, sending, acknowledgedTick, axes[0], axes[1], axes[2], axes[3], buttons);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The reader notices too
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    private void readLoop() {
+        long count = 0;
+        try {
+            while (true) {
+                final int message = in.readUnsignedByte();
+                if (message != MatchProtocol.SNAPSHOT) {
+                    throw new IOException("Unexpected message " + message);
+                }
+                final int applied = in.readInt();
+                final int length = in.readInt();
+                if (length > buffer.length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                in.readFully(buffer, 0, length);
+                final Snapshot snapshot = received[(int) (count++ % received.length)];
+                decode(ByteBuffer.wrap(buffer, 0, length), snapshot);
+                interpolator.add(snapshot);
+
+                for (int i = 0; i < snapshot.getCount(); ++i) {
+                    if (snapshot.getType(i) == RenderObject.TYPE_PLAYER && snapshot.getSlot(i) == slot) {
+                        synchronized (this) {
+                            correctionPending = true;
+                            correctionSequence = applied;
+                            correctionX = snapshot.getX(i);
+                            correctionY = snapshot.getY(i);
+                            correctionDead = snapshot.isDead(i);
+                        }
+                        break;
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            // Server hung up
+        } catch (IOException e) {
+            // Lost the connection, or closed by close()
+        } finally {
+            close();
+        }
+    }
+
+    private void decode(ByteBuffer bytes, Snapshot out) throws IOException {
+        final long baselineTick = SnapshotCodec.readBaselineTick(bytes);
+        Snapshot baseline = null;
+        if (baselineTick >= 0) {
+            for (Snapshot s : received) {
+                if (s != out && s.getTick() == baselineTick) {
+                    baseline = s;
+                    break;
+                }
+            }
+            if (baseline == null) {
+                throw new IOException("Don't have baseline " + baselineTick);
+            }
+        }
+        SnapshotCodec.decode(bytes, baseline, out);
+        acknowledgedTick = out.getTick();
+    }
+
+    /**
+     * Corrections to our player so far, how many were too big to smooth over, and
+     * their mean and largest size in board units. Call with the world locked.
+     */
+    public long getCorrectionCount() {
+        return corrections;
+    }
+
+    public long getSnapCount() {
+        return snaps;
+    }
+
+    public float getMeanCorrection() {
+        return corrections > 0 ? (float) (correctionSum / corrections) : 0.0f;
+    }
+
+    public float getMaxCorrection() {
+        return correctionMax;
+    }
+}
@@ -17,83 +17,208 @@
 package tv.ouya.sample.game;
 
 import android.graphics.Color;
-import android.graphics.PointF;
-import android.os.Handler;
-import android.os.Looper;
 
 import javax.microedition.khronos.opengles.GL10;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 
+/**
+ * Handle onto one entity of a GameWorld. Position, velocity, rotation and size live in
+ * the world's EntityStore under this object's id; the subclasses add behavior and a
+ * model to draw.
+ */
 public abstract class RenderObject {
-    protected ShortBuffer indexBuffer;
-    protected FloatBuffer vertexBuffer;
+    // What kind of object this is, for the collision code (see ContactBuffer)
+    static public final int TYPE_PLAYER = 0;
+    static public final int TYPE_ASTEROID = 1;
+    static public final int TYPE_BULLET = 2;
+    static public final int TYPE_WALL = 3;
+    static public final int TYPE_COUNT = 4;
 
-    protected float rotation = 0.0f;    // rotation about the Z-axis
-    protected PointF translation;
-    protected PointF scale;
+    // Collision layer bits, one per type by default
+    static public final int LAYER_PLAYER = 1 << TYPE_PLAYER;
+    static public final int LAYER_ASTEROID = 1 << TYPE_ASTEROID;
+    static public final int LAYER_BULLET = 1 << TYPE_BULLET;
+    static public final int LAYER_WALL = 1 << TYPE_WALL;
+    static public final int LAYER_ALL = (1 << TYPE_COUNT) - 1;
 
-    protected float radius = 1.0f;
+    protected Mesh mesh;    // shared with every other object of our kind, null to draw ourselves
 
-    protected CollisionListener collisionListener;
-    
-    protected PointF flight;
-    protected float omega; 				// rotational velocity
+    // See canCollide()
+    protected int collisionLayers;
+    protected int collisionMask = 0;
+    protected RenderObject owner = null;
+
+    protected final GameWorld world;
+    protected final EntityStore entities;
+    protected final int id;
+    protected final int type;
 
+    // Slot in GameWorld's live object array, -1 when not in the world
+    int liveIndex = -1;
+
+    // Bookkeeping for GameWorld's broad phase, see SpatialGrid
+    int serial;
+    int gridCell = -1;
+    RenderObject gridPrev;
+    RenderObject gridNext;
+
+    /**
+     * Collision response, see CollisionTable.
+     */
     public interface CollisionListener {
-        // Return false if the move should fail
-        public void onCollide(PointF prev, RenderObject me, RenderObject other);
+        public void onCollide(RenderObject me, RenderObject other);
     }
 
-    public RenderObject(float radius) {
-        this.radius = radius;
-        translation = new PointF();
-        scale = new PointF(1.0f, 1.0f);
-        flight = new PointF();
+    /**
+     * Joins the given world; everything about the object lives there from now on.
+     */
+    public RenderObject(GameWorld world, int type, float radius) {
+        this(world, type, radius, true);
+    }
+
+    // Pooled objects are created up front and only added to the world once handed out
+    protected RenderObject(GameWorld world, int type, float radius, boolean addToWorld) {
+        this.type = type;
+        collisionLayers = 1 << type;
+        this.world = world;
+        entities = world.getEntities();
+        id = entities.allocate();
+        entities.radius[id] = radius;
         initModel();
-        GameRenderer.s_instance.addRenderObject(this);
+        if (addToWorld) {
+            world.addRenderObject(this);
+        }
+    }
+
+    /**
+     * Called by the world once it has dropped this object from its list.
+     */
+    void onRemovedFromWorld() {
+        entities.release(id);
+    }
+
+    /**
+     * Saves whatever the object keeps outside the EntityStore, see WorldState. Only
+     * called for objects in the world; subclasses add their own fields after these.
+     */
+    void saveState(WorldState out) {
+        out.writeInt(serial);
+        out.writeInt(collisionMask);
+        out.writeObject(owner);
+    }
+
+    void restoreState(WorldState in) {
+        serial = in.readInt();
+        collisionMask = in.readInt();
+        owner = in.readObject();
+    }
+
+    /**
+     * Which layers this object can run into. A contact needs both masks to take in the
+     * other object's layers (see canCollide()), so 0, the default, means it takes part
+     * in no contacts at all, either way round.
+     */
+    public void setCollisionMask(int mask) {
+        collisionMask = mask;
+    }
+
+    public int getCollisionMask() {
+        return collisionMask;
+    }
+
+    /**
+     * Something this object never collides with, e.g. whoever fired it.
+     */
+    public void setOwner(RenderObject owner) {
+        this.owner = owner;
+    }
+
+    public float getX() {
+        return entities.x[id];
+    }
+
+    public float getY() {
+        return entities.y[id];
+    }
+
+    public void setPosition(float x, float y) {
+        entities.x[id] = x;
+        entities.y[id] = y;
+    }
+
+    // Where we were at the start of the current step
+    public float getPrevX() {
+        return entities.prevX[id];
+    }
+
+    public float getPrevY() {
+        return entities.prevY[id];
+    }
+
+    public float getVelocityX() {
+        return entities.vx[id];
+    }
+
+    public float getVelocityY() {
+        return entities.vy[id];
+    }
+
+    public void setVelocity(float vx, float vy) {
+        entities.vx[id] = vx;
+        entities.vy[id] = vy;
+    }
+
+    public void addVelocity(float dvx, float dvy) {
+        entities.vx[id] += dvx;
+        entities.vy[id] += dvy;
+    }
+
+    public float getRotation() {
+        return entities.rotation[id];
+    }
+
+    public void setOmega(float omega) {
+        entities.omega[id] = omega;
+    }
+
+    public void setScale(float x, float y) {
+        entities.scaleX[id] = x;
+        entities.scaleY[id] = y;
     }
 
-    public void setCollisionListener(CollisionListener collisionListener) {
-        this.collisionListener = collisionListener;
+    /**
+     * Moves without sweeping through the space in between when drawn.
+     */
+    public void teleport(float x, float y) {
+        entities.x[id] = x;
+        entities.y[id] = y;
+        entities.prevX[id] = x;
+        entities.prevY[id] = y;
     }
 
     public void setRotate(float degrees) {
-        float delta =  degrees - rotation;
+        float delta =  degrees - entities.rotation[id];
         rotate(delta);
     }
 
     public void rotate(float degreeDelta) {
-        rotation += degreeDelta;
-        rotation %= 360.0f;
+        float rotation = entities.rotation[id] + degreeDelta;
+        entities.rotation[id] = rotation % 360.0f;
     }
-    
-    public PointF getForwardVector() {
-        float x = (float) Math.sin(Math.toRadians(-rotation));
-        float y = (float) Math.cos(Math.toRadians(-rotation));
-        
-        return new PointF(x, y);
+
+    public float getForwardX() {
+        return (float) SimMath.sin(SimMath.toRadians(-entities.rotation[id]));
     }
-    
+
+    public float getForwardY() {
+        return (float) SimMath.cos(SimMath.toRadians(-entities.rotation[id]));
+    }
+
+    /**
+     * Moves this object by its velocity this step. The actual move happens for all
+     * drifting objects at once once every update() has run, followed by collisions.
+     */
     public void drift() {
-        final PointF prev = new PointF(translation.x, translation.y);
-        
-		translation.x += flight.x;
-		translation.y += flight.y;
-		
-		rotation += omega;
-        		
-        if (translation.x < 0.0f) translation.x += GameRenderer.BOARD_WIDTH;
-        if (translation.x > 10.0f) translation.x %= GameRenderer.BOARD_WIDTH;
-        if (translation.y < 0.0f) translation.y += GameRenderer.BOARD_HEIGHT;
-        if (translation.y > 10.0f) translation.y %= GameRenderer.BOARD_HEIGHT;
-
-        if (collisionListener != null) {
-            final RenderObject collidingObject = GameRenderer.s_instance.getCollidingObject(this);
-            if (collidingObject != null) {
-                collisionListener.onCollide(prev, this, collidingObject);
-            }
-        }
+        entities.drifting[id] = true;
     }
 
     protected abstract void initModel();
@@ -109,28 +234,107 @@ public abstract class RenderObject {
                 0.75f);
     }
 
-    protected void doRender(GL10 gl) {
-        gl.glPushMatrix();
+    public boolean isVisible() {
+        return true;
+    }
+
+    public int getColor() {
+        return Color.WHITE;
+    }
+
+    static private float lerp(float from, float to, float alpha, float wrapAt) {
+        float delta = to - from;
+        if (Math.abs(delta) > wrapAt * 0.5f) {
+            // Went across the edge of the board, don't sweep back over the whole thing
+            return to;
+        }
+        return from + delta * alpha;
+    }
 
-        gl.glTranslatef(translation.x, translation.y, 5.0f);
-        gl.glRotatef(rotation, 0.0f, 0.0f, 1.0f);
-        gl.glScalef(scale.x, scale.y, 1.0f);
+    static private float lerpDegrees(float from, float to, float alpha) {
+        float delta = (to - from) % 360.0f;
+        if (delta > 180.0f) {
+            delta -= 360.0f;
+        } else if (delta < -180.0f) {
+            delta += 360.0f;
+        }
+        return from + delta * alpha;
+    }
 
-        gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertexBuffer);
-        gl.glDrawElements(GL10.GL_TRIANGLES, indexBuffer.limit(), GL10.GL_UNSIGNED_SHORT, indexBuffer);
+    // alpha is how far we are between the previous step (0) and the current one (1)
+    float getRenderX(float alpha) {
+        return lerp(entities.prevX[id], entities.x[id], alpha, GameRenderer.BOARD_WIDTH);
+    }
 
-        gl.glPopMatrix();
+    float getRenderY(float alpha) {
+        return lerp(entities.prevY[id], entities.y[id], alpha, GameRenderer.BOARD_HEIGHT);
+    }
+
+    float getRenderRotation(float alpha) {
+        return lerpDegrees(entities.prevRotation[id], entities.rotation[id], alpha);
+    }
+
+    float getScaleX() {
+        return entities.scaleX[id];
+    }
+
+    float getScaleY() {
+        return entities.scaleY[id];
+    }
+
+    /**
+     * Anything with a mesh gets drawn in batches by GameRenderer. Objects without one
+     * (walls) draw themselves here.
+     */
+    protected void doRender(GL10 gl, float alpha) {
+    }
+
+    /**
+     * One of the TYPE_* constants.
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Fraction of the last step, in [0, 1], at which this object ran into whatever its
+     * collision listener was last told about.
+     */
+    public float getImpactTime() {
+        return entities.impactTime[id];
     }
 
     public float getRadius() {
-        return radius;
+        return entities.radius[id];
+    }
+
+    /**
+     * Whether a and b can hit each other at all, whatever their positions: each one's
+     * mask has to take in a layer of the other, and neither may own the other.
+     */
+    static public boolean canCollide(RenderObject a, RenderObject b) {
+        return (a.collisionMask & b.collisionLayers) != 0
+                && (b.collisionMask & a.collisionLayers) != 0
+                && a.owner != b && b.owner != a;
+    }
+
+    /**
+     * Whether the collision phase looks for this object's contacts this step: it
+     * moved, and there is something it can run into.
+     */
+    boolean findsOwnContacts() {
+        return collisionMask != 0 && entities.drifting[id];
     }
 
     public boolean doesCollide(RenderObject other) {
-        float deltaX = translation.x - other.translation.x;
-        float deltaY = translation.y - other.translation.y;
+        if (!canCollide(this, other)) {
+            return false;
+        }
+        final EntityStore e = entities;
+        float deltaX = e.x[id] - e.x[other.id];
+        float deltaY = e.y[id] - e.y[other.id];
         float distSq = deltaX * deltaX + deltaY * deltaY;
-        float radiiSq = getRadius() + other.getRadius();
+        float radiiSq = e.radius[id] + e.radius[other.id];
         radiiSq *= radiiSq;
         
         if (distSq <= radiiSq) {
@@ -139,14 +343,15 @@ public abstract class RenderObject {
         return false;
     }
     
+    /**
+     * Whether destroy() already got it this step, so the responses to its other
+     * contacts shouldn't run. Only pooled objects keep track.
+     */
+    boolean isRetiring() {
+        return false;
+    }
+
     protected void destroy() {
-        // Make sure this happens from the main thread
-        final RenderObject me = this;
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
-            @Override
-            public void run() {
-                GameRenderer.s_instance.removeRenderObject(me);
-            }
-        });
+        world.removeRenderObject(this);
     }
 }
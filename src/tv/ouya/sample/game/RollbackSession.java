@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+/**
+ * Rollback netcode on top of a GameWorld, in the style of GGPO: every peer simulates
+ * the whole match itself and never waits for anybody else's input.
+ *
+ * Input for each slot gets added per tick with addInput(), local slots right away and
+ * remote ones whenever they arrive. A tick that has to run before a slot's input for
+ * it is in runs on a prediction instead, the slot's input from the tick before. When
+ * the real input later turns out to be different, the next step() restores the state
+ * saved before the first mispredicted tick and runs every tick since again with what
+ * is known now, then carries on as usual.
+ *
+ * The session is the world's InputSource, so hand it to startLevel() and call its
+ * step() instead of the world's. States and input live in rings of getMaxRollback()+1
+ * ticks and more, allocated up front, so going back costs a restore and the steps
+ * themselves but no garbage.
+ */
+public class RollbackSession implements InputSource {
+    private final GameWorld world;
+    private final int maxRollback;
+    private final int mask;
+
+    // One state per tick, saved right before the tick runs
+    private final WorldState[] states;
+
+    // Input per tick and slot, confirmed or (so far) predicted
+    private final long[] inputTicks;        // which tick an entry holds, -1 for none
+    private final int[] confirmed;          // bit per slot
+    private final int[] deviceIds;
+    private final float[] leftX;
+    private final float[] leftY;
+    private final float[] rightX;
+    private final float[] rightY;
+    private final int[] buttons;
+
+    // Earliest tick that ran on input that turned out wrong, -1 for none
+    private long rollbackTick = -1;
+
+    private long rollbacks = 0;
+    private long resimulatedTicks = 0;
+    private int longestRollback = 0;
+    private long lateInputs = 0;
+
+    /**
+     * Can go back at most maxRollback ticks, and take input that far ahead.
+     */
+    public RollbackSession(GameWorld world, int maxRollback) {
+        this.world = world;
+        this.maxRollback = maxRollback;
+        final int length = Integer.highestOneBit(Math.max(1, 2 * maxRollback + 1)) << 1;
+        mask = length - 1;
+
+        states = new WorldState[length];
+        for (int i = 0; i < length; ++i) {
+            states[i] = new WorldState();
+        }
+        inputTicks = new long[length];
+        confirmed = new int[length];
+        final int slots = length * InputFrame.MAX_PLAYERS;
+        deviceIds = new int[slots];
+        leftX = new float[slots];
+        leftY = new float[slots];
+        rightX = new float[slots];
+        rightY = new float[slots];
+        buttons = new int[slots];
+        for (int i = 0; i < length; ++i) {
+            inputTicks[i] = -1;
+        }
+    }
+
+    public int getMaxRollback() {
+        return maxRollback;
+    }
+
+    /**
+     * The real input of one slot for the given tick, deviceId -1 for nobody holding the
+     * slot. Returns false if it came too late to go back for, or too early to hold on
+     * to; either way the peers have fallen too far apart.
+     */
+    public synchronized boolean addInput(int slot, long tick, int deviceId,
+                                         float leftX, float leftY, float rightX, float rightY, int buttons) {
+        final long current = world.getTick();
+        if (tick < current - maxRollback || tick > current + maxRollback) {
+            ++lateInputs;
+            return false;
+        }
+        final int entry = (int) tick & mask;
+        if (inputTicks[entry] != tick) {
+            // Nothing ran on this tick yet, so there's no prediction to check against
+            inputTicks[entry] = tick;
+            confirmed[entry] = 0;
+        } else if (tick < current && (confirmed[entry] & (1 << slot)) == 0
+                && !matches(entry * InputFrame.MAX_PLAYERS + slot, deviceId, leftX, leftY, rightX, rightY, buttons)) {
+            if (rollbackTick < 0 || tick < rollbackTick) {
+                rollbackTick = tick;
+            }
+        }
+        final int i = entry * InputFrame.MAX_PLAYERS + slot;
+        deviceIds[i] = deviceId;
+        this.leftX[i] = leftX;
+        this.leftY[i] = leftY;
+        this.rightX[i] = rightX;
+        this.rightY[i] = rightY;
+        this.buttons[i] = buttons;
+        confirmed[entry] |= 1 << slot;
+        return true;
+    }
+
+    /**
+     * Whether every slot's real input for the given tick is in, i.e. it can't be rolled
+     * back any more.
+     */
+    public synchronized boolean isConfirmed(long tick) {
+        final int entry = (int) tick & mask;
+        return inputTicks[entry] == tick && confirmed[entry] == (1 << InputFrame.MAX_PLAYERS) - 1;
+    }
+
+    /**
+     * Runs the next tick, going back and running the ones since the first misprediction
+     * again before it if needed. Returns false once the world stops stepping.
+     */
+    public synchronized boolean step() {
+        if (rollbackTick >= 0) {
+            rollback();
+        }
+        world.saveState(states[(int) world.getTick() & mask]);
+        return world.step();
+    }
+
+    private void rollback() {
+        final long target = world.getTick();
+        final WorldState state = states[(int) rollbackTick & mask];
+        final boolean saved = state.getTick() == rollbackTick;
+        rollbackTick = -1;
+        if (!saved) {
+            // Ran before the session took over, nothing to go back to
+            return;
+        }
+        world.restoreState(state);
+        ++rollbacks;
+        longestRollback = Math.max(longestRollback, (int) (target - state.getTick()));
+        while (world.getTick() < target) {
+            world.saveState(states[(int) world.getTick() & mask]);
+            if (!world.step()) {
+                break;
+            }
+            ++resimulatedTicks;
+        }
+    }
+
+    /**
+     * The world polls this for every tick it runs, the first time or again. Slots
+     * whose input isn't in yet get the one from the tick before.
+     */
+    @Override
+    public boolean poll(long tick, InputFrame frame) {
+        final int entry = (int) tick & mask;
+        if (inputTicks[entry] != tick) {
+            inputTicks[entry] = tick;
+            confirmed[entry] = 0;
+        }
+        final int previous = (int) (tick - 1) & mask;
+        final boolean havePrevious = tick > 0 && inputTicks[previous] == tick - 1;
+        for (int slot = 0; slot < InputFrame.MAX_PLAYERS; ++slot) {
+            final int i = entry * InputFrame.MAX_PLAYERS + slot;
+            if ((confirmed[entry] & (1 << slot)) == 0) {
+                if (havePrevious) {
+                    copy(previous * InputFrame.MAX_PLAYERS + slot, i);
+                } else {
+                    deviceIds[i] = -1;
+                    leftX[i] = 0.0f;
+                    leftY[i] = 0.0f;
+                    rightX[i] = 0.0f;
+                    rightY[i] = 0.0f;
+                    buttons[i] = 0;
+                }
+            }
+            if (deviceIds[i] >= 0) {
+                frame.set(slot, deviceIds[i], leftX[i], leftY[i], rightX[i], rightY[i], buttons[i]);
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(int i, int deviceId, float leftX, float leftY, float rightX, float rightY, int buttons) {
+        return deviceIds[i] == deviceId
+                && this.leftX[i] == leftX && this.leftY[i] == leftY
+                && this.rightX[i] == rightX && this.rightY[i] == rightY
+                && this.buttons[i] == buttons;
+    }
+
+    private void copy(int from, int to) {
+        deviceIds[to] = deviceIds[from];
+        leftX[to] = leftX[from];
+        leftY[to] = leftY[from];
+        rightX[to] = rightX[from];
+        rightY[to] = rightY[from];
+        buttons[to] = buttons[from];
+    }
+
+    public GameWorld getWorld() {
+        return world;
+    }
+
+    // Times the session went back, over the whole match
+    public synchronized long getRollbacks() {
+        return rollbacks;
+    }
+
+    // Ticks run a second (or third...) time
+    public synchronized long getResimulatedTicks() {
+        return resimulatedTicks;
+    }
+
+    public synchronized int getLongestRollback() {
+        return longestRollback;
+    }
+
+    // Input addInput() had to turn away
+    public synchronized long getLateInputs() {
+        return lateInputs;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+/**
+ * The trig the simulation uses. Math is allowed to give different bits on different
+ * VMs (and Math.toRadians changed how it rounds between Java releases), which would
+ * make a replay drift away from the match it was recorded from. StrictMath and our own
+ * degree conversions come out the same everywhere.
+ *
+ * Drawing doesn't need any of this and keeps using Math.
+ */
+final class SimMath {
+    static private final double c_degreesToRadians = Math.PI / 180.0;
+    static private final double c_radiansToDegrees = 180.0 / Math.PI;
+
+    private SimMath() {
+    }
+
+    static double toRadians(double degrees) {
+        return degrees * c_degreesToRadians;
+    }
+
+    static double toDegrees(double radians) {
+        return radians * c_radiansToDegrees;
+    }
+
+    static double sin(double radians) {
+        return StrictMath.sin(radians);
+    }
+
+    static double cos(double radians) {
+        return StrictMath.cos(radians);
+    }
+
+    static double atan2(double y, double x) {
+        return StrictMath.atan2(y, x);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Random;
+
+/**
+ * The world's Random, with its seed out in the open so that WorldState can save and
+ * restore it along with everything else.
+ *
+ * It runs the same 48-bit generator java.util.Random is specified to, so a given seed
+ * still plays out exactly as before. Only next() is overridden, which every method the
+ * simulation uses goes through; nextGaussian()'s cached second value isn't part of the
+ * state, so nothing in a step may call it.
+ */
+public class SimRandom extends Random {
+    // Random is Serializable. Nothing saves one, and serialization dictates the name
+    static private final long serialVersionUID = 1L;
+
+    static private final long c_multiplier = 0x5DEECE66DL;
+    static private final long c_addend = 0xBL;
+    static private final long c_mask = (1L << 48) - 1;
+
+    // No initializer: Random's constructor calls setSeed() before it would run
+    private long state;
+
+    public SimRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        super.setSeed(seed);
+        state = (seed ^ c_multiplier) & c_mask;
+    }
+
+    /**
+     * Everything random in a step happens on the stepping thread, so unlike Random's
+     * this doesn't bother being thread-safe.
+     */
+    @Override
+    protected int next(int bits) {
+        state = (state * c_multiplier + c_addend) & c_mask;
+        return (int) (state >>> (48 - bits));
+    }
+
+    long getState() {
+        return state;
+    }
+
+    void setState(long state) {
+        this.state = state;
+    }
+}
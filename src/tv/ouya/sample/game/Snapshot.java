@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Everything a client needs to draw one step of a world it doesn't simulate itself:
+ * the serial, type, player slot, transform and color of every live object, in
+ * parallel primitive arrays that only ever grow, like EntityStore's. Objects are in
+ * serial order, which is what lets SnapshotCodec line one snapshot up against another.
+ *
+ * Walls aren't in here. They never change once a level is loaded, so the level is
+ * enough for the client to build them itself.
+ */
+public class Snapshot {
+    static private final int c_initialCapacity = 256;
+
+    static public final int FLAG_VISIBLE = 1;
+    static public final int FLAG_DEAD = 2;      // a player waiting to come back
+
+    long tick;
+    int level;              // Options.Level ordinal
+    int count;
+
+    int[] serial;           // stays the same for as long as the object is in the world
+    int[] type;             // RenderObject.TYPE_*
+    int[] slot;             // the player slot of a player, -1 for anything else
+    int[] flags;
+    float[] x;
+    float[] y;
+    float[] rotation;
+    float[] scaleX;
+    float[] scaleY;
+    int[] color;
+
+    // (serial << 32) | object index, for capture() to sort by
+    private long[] order;
+
+    public Snapshot() {
+        serial = new int[c_initialCapacity];
+        type = new int[c_initialCapacity];
+        slot = new int[c_initialCapacity];
+        flags = new int[c_initialCapacity];
+        x = new float[c_initialCapacity];
+        y = new float[c_initialCapacity];
+        rotation = new float[c_initialCapacity];
+        scaleX = new float[c_initialCapacity];
+        scaleY = new float[c_initialCapacity];
+        color = new int[c_initialCapacity];
+        order = new long[c_initialCapacity];
+    }
+
+    /**
+     * Takes the state the world is in between two steps.
+     */
+    public void capture(GameWorld world, Options.Level level) {
+        synchronized (world) {
+            tick = world.getTick();
+            this.level = level.ordinal();
+            final int objectCount = world.getObjectCount();
+            ensureCapacity(objectCount);
+            final EntityStore entities = world.getEntities();
+            for (int i = 0; i < objectCount; ++i) {
+                order[i] = ((long) world.getObject(i).serial << 32) | i;
+            }
+            sort(order, objectCount);
+            for (int i = 0; i < objectCount; ++i) {
+                final RenderObject o = world.getObject((int) order[i]);
+                final int id = o.id;
+                serial[i] = o.serial;
+                type[i] = o.type;
+                slot[i] = o.type == RenderObject.TYPE_PLAYER ? ((Player) o).getPlayerNum() : -1;
+                flags[i] = o.isVisible() ? FLAG_VISIBLE : 0;
+                if (o.type == RenderObject.TYPE_PLAYER && ((Player) o).isDead()) {
+                    flags[i] |= FLAG_DEAD;
+                }
+                x[i] = entities.x[id];
+                y[i] = entities.y[id];
+                rotation[i] = entities.rotation[id];
+                scaleX[i] = entities.scaleX[id];
+                scaleY[i] = entities.scaleY[id];
+                color[i] = o.getColor();
+            }
+            count = objectCount;
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(tick);
+        out.writeByte(level);
+        out.writeInt(count);
+        for (int i = 0; i < count; ++i) {
+            out.writeInt(serial[i]);
+            out.writeByte(type[i]);
+            out.writeByte(slot[i]);
+            out.writeByte(flags[i]);
+            out.writeFloat(x[i]);
+            out.writeFloat(y[i]);
+            out.writeFloat(rotation[i]);
+            out.writeFloat(scaleX[i]);
+            out.writeFloat(scaleY[i]);
+            out.writeInt(color[i]);
+        }
+    }
+
+    public void read(DataInput in) throws IOException {
+        tick = in.readLong();
+        level = in.readByte();
+        final int objectCount = in.readInt();
+        if (objectCount < 0) {
+            throw new IOException("Bad object count " + objectCount);
+        }
+        ensureCapacity(objectCount);
+        for (int i = 0; i < objectCount; ++i) {
+            serial[i] = in.readInt();
+            type[i] = in.readByte();
+            slot[i] = in.readByte();
+            flags[i] = in.readByte();
+            x[i] = in.readFloat();
+            y[i] = in.readFloat();
+            rotation[i] = in.readFloat();
+            scaleX[i] = in.readFloat();
+            scaleY[i] = in.readFloat();
+            color[i] = in.readInt();
+        }
+        count = objectCount;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public Options.Level getLevel() {
+        return Options.Level.values()[level];
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getSerial(int i) {
+        return serial[i];
+    }
+
+    public int getType(int i) {
+        return type[i];
+    }
+
+    public int getSlot(int i) {
+        return slot[i];
+    }
+
+    public boolean isVisible(int i) {
+        return (flags[i] & FLAG_VISIBLE) != 0;
+    }
+
+    public boolean isDead(int i) {
+        return (flags[i] & FLAG_DEAD) != 0;
+    }
+
+    public float getX(int i) {
+        return x[i];
+    }
+
+    public float getY(int i) {
+        return y[i];
+    }
+
+    public float getRotation(int i) {
+        return rotation[i];
+    }
+
+    public float getScaleX(int i) {
+        return scaleX[i];
+    }
+
+    public float getScaleY(int i) {
+        return scaleY[i];
+    }
+
+    public int getColor(int i) {
+        return color[i];
+    }
+
+    /**
+     * Copies other over this one, growing if needed.
+     */
+    public void set(Snapshot other) {
+        tick = other.tick;
+        level = other.level;
+        ensureCapacity(other.count);
+        final int n = other.count;
+        System.arraycopy(other.serial, 0, serial, 0, n);
+        System.arraycopy(other.type, 0, type, 0, n);
+        System.arraycopy(other.slot, 0, slot, 0, n);
+        System.arraycopy(other.flags, 0, flags, 0, n);
+        System.arraycopy(other.x, 0, x, 0, n);
+        System.arraycopy(other.y, 0, y, 0, n);
+        System.arraycopy(other.rotation, 0, rotation, 0, n);
+        System.arraycopy(other.scaleX, 0, scaleX, 0, n);
+        System.arraycopy(other.scaleY, 0, scaleY, 0, n);
+        System.arraycopy(other.color, 0, color, 0, n);
+        count = n;
+    }
+
+    /**
+     * Heapsort, since Arrays.sort() may allocate a work array on nearly sorted input.
+     */
+    static private void sort(long[] a, int n) {
+        for (int i = n / 2 - 1; i >= 0; --i) {
+            siftDown(a, i, n);
+        }
+        for (int end = n - 1; end > 0; --end) {
+            final long top = a[0];
+            a[0] = a[end];
+            a[end] = top;
+            siftDown(a, 0, end);
+        }
+    }
+
+    static private void siftDown(long[] a, int i, int n) {
+        final long value = a[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                break;
+            }
+            if (child + 1 < n && a[child + 1] > a[child]) {
+                ++child;
+            }
+            if (a[child] <= value) {
+                break;
+            }
+            a[i] = a[child];
+            i = child;
+        }
+        a[i] = value;
+    }
+
+    /**
+     * Makes room for capacity objects. Only grows.
+     */
+    void ensureCapacity(int capacity) {
+        if (capacity <= serial.length) {
+            return;
+        }
+        final int grown = Math.max(capacity, serial.length * 2);
+        serial = Arrays.copyOf(serial, grown);
+        type = Arrays.copyOf(type, grown);
+        slot = Arrays.copyOf(slot, grown);
+        flags = Arrays.copyOf(flags, grown);
+        x = Arrays.copyOf(x, grown);
+        y = Arrays.copyOf(y, grown);
+        rotation = Arrays.copyOf(rotation, grown);
+        scaleX = Arrays.copyOf(scaleX, grown);
+        scaleY = Arrays.copyOf(scaleY, grown);
+        color = Arrays.copyOf(color, grown);
+        order = Arrays.copyOf(order, grown);
+    }
+}
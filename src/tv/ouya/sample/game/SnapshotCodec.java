@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary form of a Snapshot, written straight into a reusable ByteBuffer.
+ *
+ * Positions and angles are quantized to 16 bits (a 40 unit board comes out at about
+ * 0.0006 units a step, a full turn at 0.0055 degrees), scales to 8.8 fixed point.
+ * Integers go out as variable-length, 7 bits a byte.
+ *
+ * A snapshot can be written against a baseline the other end is known to have, i.e.
+ * the last one it acknowledged. Both are in serial order, so the two are walked side
+ * by side. Every object gets a byte saying which of its fields changed, and changed
+ * positions and angles only go out as the (usually tiny) difference from the baseline's.
+ * Objects missing from the baseline are sent in full, and objects missing from the
+ * snapshot are simply gone. Without a baseline every object is sent in full.
+ *
+ * Decoding rebuilds exactly the quantized values, so a decoded snapshot can in turn
+ * serve as the baseline of the next one.
+ */
+public class SnapshotCodec {
+    static private final int c_format = 1;
+
+    // Which fields follow an object's serial
+    static private final int c_x = 0x01;
+    static private final int c_y = 0x02;
+    static private final int c_rotation = 0x04;
+    static private final int c_scale = 0x08;
+    static private final int c_color = 0x10;
+    static private final int c_meta = 0x20;     // type, slot and flags
+    static private final int c_new = 0x40;      // not in the baseline, fields are absolute
+    static private final int c_all = c_x | c_y | c_rotation | c_scale | c_color | c_meta | c_new;
+
+    static private final double c_xScale = 65536.0 / GameRenderer.BOARD_WIDTH;
+    static private final double c_yScale = 65536.0 / GameRenderer.BOARD_HEIGHT;
+    static private final double c_rotationScale = 65536.0 / 360.0;
+
+    // format, tick, baseline distance, level, count
+    static private final int c_maxHeaderBytes = 1 + 10 + 10 + 1 + 5;
+    // serial delta, mask, x, y, rotation, scale, color, meta
+    static private final int c_maxObjectBytes = 5 + 1 + 3 + 3 + 3 + 4 + 4 + 1;
+
+    /**
+     * How big a buffer encode() may need for a snapshot of count objects.
+     */
+    static public int maxEncodedSize(int count) {
+        return c_maxHeaderBytes + count * c_maxObjectBytes;
+    }
+
+    /**
+     * Writes current at out's position, against baseline if it isn't null. Throws
+     * BufferOverflowException if out has less than maxEncodedSize() room left.
+     */
+    static public void encode(Snapshot current, Snapshot baseline, ByteBuffer out) {
+        out.put((byte) c_format);
+        writeVarLong(out, current.tick);
+        // 0 for no baseline, which no real baseline can be since it's from an earlier tick
+        writeVarLong(out, baseline != null ? current.tick - baseline.tick : 0);
+        out.put((byte) current.level);
+        writeVarInt(out, current.count);
+
+        final int baseCount = baseline != null ? baseline.count : 0;
+        int b = 0;
+        int previousSerial = 0;
+        for (int i = 0; i < current.count; ++i) {
+            final int serial = current.serial[i];
+            writeVarInt(out, serial - previousSerial);
+            previousSerial = serial;
+
+            while (b < baseCount && baseline.serial[b] < serial) {
+                ++b;
+            }
+            if (b == baseCount || baseline.serial[b] != serial) {
+                out.put((byte) c_all);
+                out.putShort((short) quantizeX(current.x[i]));
+                out.putShort((short) quantizeY(current.y[i]));
+                out.putShort((short) quantizeRotation(current.rotation[i]));
+                out.putShort((short) quantizeScale(current.scaleX[i]));
+                out.putShort((short) quantizeScale(current.scaleY[i]));
+                out.putInt(current.color[i]);
+                out.put((byte) packMeta(current, i));
+                continue;
+            }
+
+            final int x = quantizeX(current.x[i]);
+            final int y = quantizeY(current.y[i]);
+            final int rotation = quantizeRotation(current.rotation[i]);
+            final int scaleX = quantizeScale(current.scaleX[i]);
+            final int scaleY = quantizeScale(current.scaleY[i]);
+            final int meta = packMeta(current, i);
+            final int baseX = quantizeX(baseline.x[b]);
+            final int baseY = quantizeY(baseline.y[b]);
+            final int baseRotation = quantizeRotation(baseline.rotation[b]);
+
+            int mask = 0;
+            if (x != baseX) mask |= c_x;
+            if (y != baseY) mask |= c_y;
+            if (rotation != baseRotation) mask |= c_rotation;
+            if (scaleX != quantizeScale(baseline.scaleX[b]) || scaleY != quantizeScale(baseline.scaleY[b])) {
+                mask |= c_scale;
+            }
+            if (current.color[i] != baseline.color[b]) mask |= c_color;
+            if (meta != packMeta(baseline, b)) mask |= c_meta;
+
+            out.put((byte) mask);
+            if ((mask & c_x) != 0) writeDelta(out, x, baseX);
+            if ((mask & c_y) != 0) writeDelta(out, y, baseY);
+            if ((mask & c_rotation) != 0) writeDelta(out, rotation, baseRotation);
+            if ((mask & c_scale) != 0) {
+                out.putShort((short) scaleX);
+                out.putShort((short) scaleY);
+            }
+            if ((mask & c_color) != 0) out.putInt(current.color[i]);
+            if ((mask & c_meta) != 0) out.put((byte) meta);
+        }
+    }
+
+    /**
+     * The tick of the baseline the snapshot at in's position was written against, -1
+     * for none, so the receiver can look it up before calling decode(). Leaves the
+     * position where it is.
+     */
+    static public long readBaselineTick(ByteBuffer in) throws IOException {
+        final int start = in.position();
+        try {
+            readFormat(in);
+            final long tick = readVarLong(in);
+            final long distance = readVarLong(in);
+            return distance != 0 ? tick - distance : -1;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated snapshot");
+        } finally {
+            in.position(start);
+        }
+    }
+
+    /**
+     * Reads the snapshot at in's position into out, which mustn't be the baseline.
+     * baseline has to be the one readBaselineTick() named.
+     */
+    static public void decode(ByteBuffer in, Snapshot baseline, Snapshot out) throws IOException {
+        try {
+            readFormat(in);
+            final long tick = readVarLong(in);
+            final long distance = readVarLong(in);
+            if (distance != 0 && (baseline == null || baseline.tick != tick - distance)) {
+                throw new IOException("Snapshot " + tick + " needs baseline " + (tick - distance));
+            }
+            final int level = in.get() & 0xff;
+            if (level >= Options.Level.values().length) {
+                throw new IOException("Bad level " + level);
+            }
+            final int count = readVarInt(in);
+            if (count < 0 || count > in.remaining()) {
+                throw new IOException("Bad object count " + count);
+            }
+            out.tick = tick;
+            out.level = level;
+            out.ensureCapacity(count);
+
+            final int baseCount = distance != 0 ? baseline.count : 0;
+            int b = 0;
+            int serial = 0;
+            for (int i = 0; i < count; ++i) {
+                serial += readVarInt(in);
+                out.serial[i] = serial;
+                final int mask = in.get() & 0xff;
+
+                if ((mask & c_new) != 0) {
+                    out.x[i] = dequantizeX(in.getShort());
+                    out.y[i] = dequantizeY(in.getShort());
+                    out.rotation[i] = dequantizeRotation(in.getShort());
+                    out.scaleX[i] = dequantizeScale(in.getShort());
+                    out.scaleY[i] = dequantizeScale(in.getShort());
+                    out.color[i] = in.getInt();
+                    unpackMeta(in.get(), out, i);
+                    continue;
+                }
+
+                while (b < baseCount && baseline.serial[b] < serial) {
+                    ++b;
+                }
+                if (b == baseCount || baseline.serial[b] != serial) {
+                    throw new IOException("Object " + serial + " isn't in baseline " + baseline.tick);
+                }
+                out.x[i] = dequantizeX((mask & c_x) != 0 ? readDelta(in, quantizeX(baseline.x[b])) : quantizeX(baseline.x[b]));
+                out.y[i] = dequantizeY((mask & c_y) != 0 ? readDelta(in, quantizeY(baseline.y[b])) : quantizeY(baseline.y[b]));
+                out.rotation[i] = dequantizeRotation((mask & c_rotation) != 0
+                        ? readDelta(in, quantizeRotation(baseline.rotation[b]))
+                        : quantizeRotation(baseline.rotation[b]));
+                if ((mask & c_scale) != 0) {
+                    out.scaleX[i] = dequantizeScale(in.getShort());
+                    out.scaleY[i] = dequantizeScale(in.getShort());
+                } else {
+                    out.scaleX[i] = baseline.scaleX[b];
+                    out.scaleY[i] = baseline.scaleY[b];
+                }
+                out.color[i] = (mask & c_color) != 0 ? in.getInt() : baseline.color[b];
+                if ((mask & c_meta) != 0) {
+                    unpackMeta(in.get(), out, i);
+                } else {
+                    out.type[i] = baseline.type[b];
+                    out.slot[i] = baseline.slot[b];
+                    out.flags[i] = baseline.flags[b];
+                }
+            }
+            out.count = count;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated snapshot");
+        }
+    }
+
+    static private void readFormat(ByteBuffer in) throws IOException {
+        final int format = in.get() & 0xff;
+        if (format != c_format) {
+            throw new IOException("Unknown snapshot format " + format);
+        }
+    }
+
+    /**
+     * Positions are always on the board, so truncating rounds.
+     */
+    static private int quantizeX(float x) {
+        return (int) (x * c_xScale + 0.5) & 0xffff;
+    }
+
+    static private int quantizeY(float y) {
+        return (int) (y * c_yScale + 0.5) & 0xffff;
+    }
+
+    /**
+     * Rotations keep adding up in the simulation; only where they point matters here.
+     */
+    static private int quantizeRotation(float degrees) {
+        return (int) ((long) Math.floor(degrees * c_rotationScale + 0.5) & 0xffff);
+    }
+
+    static private int quantizeScale(float scale) {
+        return Math.max(0, Math.min(0xffff, (int) Math.floor(scale * 256.0f + 0.5f)));
+    }
+
+    static private float dequantizeX(int q) {
+        return (float) ((q & 0xffff) / c_xScale);
+    }
+
+    static private float dequantizeY(int q) {
+        return (float) ((q & 0xffff) / c_yScale);
+    }
+
+    static private float dequantizeRotation(int q) {
+        return (float) ((q & 0xffff) / c_rotationScale);
+    }
+
+    static private float dequantizeScale(int q) {
+        return (q & 0xffff) / 256.0f;
+    }
+
+    /**
+     * Type in the low 2 bits, slot + 1 in the next 3, then the flags.
+     */
+    static private int packMeta(Snapshot s, int i) {
+        return s.type[i] | ((s.slot[i] + 1) << 2) | (s.flags[i] << 5);
+    }
+
+    static private void unpackMeta(byte meta, Snapshot s, int i) {
+        s.type[i] = meta & 0x03;
+        s.slot[i] = ((meta >> 2) & 0x07) - 1;
+        s.flags[i] = (meta >> 5) & 0x07;
+    }
+
+    /**
+     * The shortest way round the 16-bit circle from base to q, zigzagged so small
+     * steps either way fit in one byte.
+     */
+    static private void writeDelta(ByteBuffer out, int q, int base) {
+        final int d = (short) (q - base);
+        writeVarInt(out, (d << 1) ^ (d >> 31));
+    }
+
+    static private int readDelta(ByteBuffer in, int base) throws IOException {
+        final int z = readVarInt(in);
+        return (base + ((z >>> 1) ^ -(z & 1))) & 0xffff;
+    }
+
+    static private void writeVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static private void writeVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static private int readVarInt(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = in.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Bad varint");
+    }
+
+    static private long readVarLong(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            final int b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Bad varint");
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+/**
+ * Turns the snapshots a remote server sends, however often and unevenly they arrive,
+ * into something that can be drawn every frame: each frame shows the world as it was
+ * a fixed delay ago on the server, blended between the two snapshots either side of
+ * that moment.
+ *
+ * Which server tick it is "now" comes from the arrival times. Every snapshot gives an
+ * estimate of when the server ran tick 0 in local time; the earliest estimate is the
+ * one with the least network delay in it, so a lower one is taken right away and a
+ * higher one only crept towards, which follows clock drift without passing on the
+ * jitter. The delay has to cover the time between two snapshots plus that jitter, or
+ * frames run ahead of the newest snapshot and have to hold it.
+ */
+public class SnapshotInterpolator {
+    static private final int c_bufferLength = 32;
+    static private final int c_clockSmoothing = 64;
+    // Anything further off than this means the server stalled or restarted
+    static private final long c_resyncNanos = 1000000000L;
+
+    private final Clock clock;
+    private final long delayNanos;
+
+    private final Snapshot[] buffered = new Snapshot[c_bufferLength];   // oldest first
+    private int count = 0;
+
+    private boolean synced = false;
+    private long tickZeroNanos;
+
+    private long frames = 0;
+    private long heldFrames = 0;
+
+    public SnapshotInterpolator(Clock clock, long delayNanos) {
+        this.clock = clock;
+        this.delayNanos = delayNanos;
+        for (int i = 0; i < buffered.length; ++i) {
+            buffered[i] = new Snapshot();
+        }
+    }
+
+    public long getDelayNanos() {
+        return delayNanos;
+    }
+
+    /**
+     * Keeps a copy of a snapshot that just arrived. Anything not newer than what's
+     * already here is dropped.
+     */
+    public synchronized void add(Snapshot snapshot) {
+        if (count > 0 && snapshot.getTick() <= buffered[count - 1].getTick()) {
+            return;
+        }
+        final long estimate = clock.nanoTime() - snapshot.getTick() * GameWorld.TICK_NANOS;
+        if (!synced || Math.abs(estimate - tickZeroNanos) > c_resyncNanos) {
+            synced = true;
+            tickZeroNanos = estimate;
+        } else if (estimate < tickZeroNanos) {
+            tickZeroNanos = estimate;
+        } else {
+            tickZeroNanos += (estimate - tickZeroNanos) / c_clockSmoothing;
+        }
+
+        if (count == buffered.length) {
+            // Recycle the oldest
+            final Snapshot oldest = buffered[0];
+            System.arraycopy(buffered, 1, buffered, 0, count - 1);
+            buffered[--count] = oldest;
+        }
+        buffered[count++].set(snapshot);
+    }
+
+    /**
+     * Fills out with the world as of the delay ago, and returns false if there is
+     * nothing to show yet.
+     */
+    public synchronized boolean sample(Snapshot out) {
+        if (count == 0) {
+            return false;
+        }
+        ++frames;
+        final double tick = (double) (clock.nanoTime() - tickZeroNanos - delayNanos) / GameWorld.TICK_NANOS;
+
+        // Snapshots from before the one just ahead of tick won't be needed again
+        int next = 0;
+        while (next < count && buffered[next].getTick() <= tick) {
+            ++next;
+        }
+        if (next == 0) {
+            // Not that far along yet
+            out.set(buffered[0]);
+            return true;
+        }
+        if (next == count) {
+            ++heldFrames;
+            out.set(buffered[count - 1]);
+            return true;
+        }
+        final Snapshot from = buffered[next - 1];
+        final Snapshot to = buffered[next];
+        final float alpha = (float) ((tick - from.getTick()) / (to.getTick() - from.getTick()));
+        blend(from, to, alpha, out);
+        discard(next - 1);
+        return true;
+    }
+
+    private void discard(int oldest) {
+        for (int i = 0; i < oldest; ++i) {
+            final Snapshot done = buffered[0];
+            System.arraycopy(buffered, 1, buffered, 0, count - 1);
+            buffered[--count] = done;
+        }
+    }
+
+    /**
+     * Everything in to, moved back towards where it was in from. Objects that aren't
+     * in from yet show up where to has them; objects that aren't in to any more are
+     * gone.
+     */
+    static private void blend(Snapshot from, Snapshot to, float alpha, Snapshot out) {
+        out.set(to);
+        out.tick = from.tick;
+        int f = 0;
+        for (int i = 0; i < out.count; ++i) {
+            final int serial = out.serial[i];
+            while (f < from.count && from.serial[f] < serial) {
+                ++f;
+            }
+            if (f == from.count || from.serial[f] != serial) {
+                continue;
+            }
+            out.x[i] = lerpWrapped(from.x[f], to.x[i], alpha, GameRenderer.BOARD_WIDTH);
+            out.y[i] = lerpWrapped(from.y[f], to.y[i], alpha, GameRenderer.BOARD_HEIGHT);
+            out.rotation[i] = lerpWrapped(from.rotation[f], to.rotation[i], alpha, 360.0f);
+        }
+    }
+
+    /**
+     * The short way round, for positions on the wrap-around board and for angles.
+     */
+    static private float lerpWrapped(float from, float to, float alpha, float wrapAt) {
+        float delta = (to - from) % wrapAt;
+        if (delta > wrapAt * 0.5f) {
+            delta -= wrapAt;
+        } else if (delta < -wrapAt * 0.5f) {
+            delta += wrapAt;
+        }
+        float value = from + delta * alpha;
+        if (value < 0.0f) {
+            value += wrapAt;
+        } else if (value >= wrapAt) {
+            value -= wrapAt;
+        }
+        return value;
+    }
+
+    /**
+     * Frames sampled so far, and how many of them had run past the newest snapshot.
+     */
+    public synchronized long getFrameCount() {
+        return frames;
+    }
+
+    public synchronized long getHeldFrameCount() {
+        return heldFrames;
+    }
+}
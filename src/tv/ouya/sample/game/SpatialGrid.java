@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+/**
+ * Broad-phase collision grid over the wrap-around board for everything that moves
+ * (walls have their own, see WallGrid).
+ *
+ * Every object lives in exactly one cell, kept in an intrusive linked list through
+ * the RenderObject itself, so moving between cells never allocates.
+ *
+ * A query only looks at the 3x3 block of cells around the object, wrapping across
+ * the board edges. That is enough as long as two objects that touched at any point
+ * during a step end it less than one cell apart, i.e. any two radii plus the distance
+ * both objects move in a step stay below CELL_SIZE.
+ */
+public class SpatialGrid {
+    static public final float CELL_SIZE = 4.0f;
+
+    private final float width;
+    private final float height;
+    private final int columns;
+    private final int rows;
+    private final RenderObject[] cells;
+
+    public SpatialGrid(float width, float height) {
+        this.width = width;
+        this.height = height;
+        columns = Math.max(1, (int) Math.ceil(width / CELL_SIZE));
+        rows = Math.max(1, (int) Math.ceil(height / CELL_SIZE));
+        cells = new RenderObject[columns * rows];
+    }
+
+    public void clear() {
+        for (int i = 0; i < cells.length; ++i) {
+            RenderObject o = cells[i];
+            while (o != null) {
+                RenderObject next = o.gridNext;
+                o.gridCell = -1;
+                o.gridPrev = null;
+                o.gridNext = null;
+                o = next;
+            }
+            cells[i] = null;
+        }
+    }
+
+    public void rebuild(RenderObject[] objects, int count) {
+        clear();
+        for (int i = 0; i < count; ++i) {
+            insert(objects[i]);
+        }
+    }
+
+    public void insert(RenderObject obj) {
+        link(obj, cellOf(obj.getX(), obj.getY()));
+    }
+
+    public void remove(RenderObject obj) {
+        if (obj.gridCell >= 0) {
+            unlink(obj);
+        }
+    }
+
+    /**
+     * Re-bins an object after its translation changed. Cheap when it stays in its cell.
+     */
+    public void move(RenderObject obj) {
+        if (obj.gridCell < 0) {
+            return;
+        }
+        int cell = cellOf(obj.getX(), obj.getY());
+        if (cell != obj.gridCell) {
+            unlink(obj);
+            link(obj, cell);
+        }
+    }
+
+    /**
+     * Adds a contact to out for every object obj ran into during the last step,
+     * following both objects from their previous to their current position. (dx, dy)
+     * is how far obj moved, see Sweep.wrapDelta().
+     *
+     * Only pairs that RenderObject.canCollide() allows, and only once: objects that
+     * look for their own contacts (see RenderObject.findsOwnContacts()) and were added
+     * before obj are left to find obj themselves.
+     */
+    public void sweep(RenderObject obj, float dx, float dy, ContactBuffer out) {
+        final EntityStore entities = obj.entities;
+        final float[] x = entities.x;
+        final float[] y = entities.y;
+        final float[] prevX = entities.prevX;
+        final float[] prevY = entities.prevY;
+        final float endX = x[obj.id];
+        final float endY = y[obj.id];
+        final float startX = endX - dx;
+        final float startY = endY - dy;
+        final float radius = obj.getRadius();
+        int cx = column(endX);
+        int cy = row(endY);
+
+        for (int ry = -1; ry <= 1; ++ry) {
+            for (int rx = -1; rx <= 1; ++rx) {
+                RenderObject o = cells[wrap(cy + ry, rows) * columns + wrap(cx + rx, columns)];
+                for (; o != null; o = o.gridNext) {
+                    if (o == obj || !RenderObject.canCollide(obj, o)) {
+                        continue;
+                    }
+                    if (o.serial < obj.serial && o.findsOwnContacts()) {
+                        continue;
+                    }
+                    final int id = o.id;
+                    ++out.tests;
+                    final float t = Sweep.circleCircle(
+                            Sweep.wrapDelta(prevX[id] - startX, width),
+                            Sweep.wrapDelta(prevY[id] - startY, height),
+                            Sweep.wrapDelta(x[id] - prevX[id], width) - dx,
+                            Sweep.wrapDelta(y[id] - prevY[id], height) - dy,
+                            radius + o.getRadius());
+                    if (t != Sweep.NO_HIT) {
+                        out.add(obj.liveIndex, obj.type, o.liveIndex, o.type, o.serial, t);
+                    }
+                }
+            }
+        }
+    }
+
+    private void link(RenderObject obj, int cell) {
+        obj.gridCell = cell;
+        obj.gridPrev = null;
+        obj.gridNext = cells[cell];
+        if (cells[cell] != null) {
+            cells[cell].gridPrev = obj;
+        }
+        cells[cell] = obj;
+    }
+
+    private void unlink(RenderObject obj) {
+        if (obj.gridPrev != null) {
+            obj.gridPrev.gridNext = obj.gridNext;
+        } else {
+            cells[obj.gridCell] = obj.gridNext;
+        }
+        if (obj.gridNext != null) {
+            obj.gridNext.gridPrev = obj.gridPrev;
+        }
+        obj.gridCell = -1;
+        obj.gridPrev = null;
+        obj.gridNext = null;
+    }
+
+    private int cellOf(float x, float y) {
+        return row(y) * columns + column(x);
+    }
+
+    private int column(float x) {
+        return clamp((int) Math.floor(x / CELL_SIZE), columns);
+    }
+
+    private int row(float y) {
+        return clamp((int) Math.floor(y / CELL_SIZE), rows);
+    }
+
+    static private int clamp(int i, int count) {
+        if (i < 0) {
+            return 0;
+        }
+        if (i >= count) {
+            return count - 1;
+        }
+        return i;
+    }
+
+    static private int wrap(int i, int count) {
+        if (i < 0) {
+            return i + count;
+        }
+        if (i >= count) {
+            return i - count;
+        }
+        return i;
+    }
+}
@@ -22,16 +22,35 @@ import android.graphics.PointF;
 import javax.microedition.khronos.opengles.GL10;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 
+/**
+ * Static line segment. Walls don't go in the world's object list; a level's walls are
+ * handed to GameWorld.setWalls() and baked into its WallGrid.
+ */
 public class Wall extends RenderObject {
 
     static private final int c_wallColor = Color.YELLOW;
+    static private final float c_wallRadius = 0.1f;
 
     float[] vertices;
-    PointF normal;
+    private FloatBuffer vertexBuffer;
+
+    // Position in the level's wall list, see WallGrid
+    int staticIndex = -1;
 
-    public Wall(float x1, float y1, float x2, float y2) {
-        super(0.1f);
+    // Worked out once here, so none of the collision math below needs a sqrt or
+    // allocates anything
+    final float dirX;       // unit vector from the first end to the second
+    final float dirY;
+    final float length;
+    final float normalX;    // unit, perpendicular to dir
+    final float normalY;
+
+    public Wall(GameWorld world, float x1, float y1, float x2, float y2) {
+        super(world, TYPE_WALL, c_wallRadius, false);
+        // Stops everything, but never goes looking for contacts (see WallGrid)
+        setCollisionMask(LAYER_ALL);
 
         vertices = new float[6];
         vertices[0] = x1;
@@ -41,12 +60,14 @@ public class Wall extends RenderObject {
         vertices[4] = y2;
         vertices[5] = 0.0f;
 
-        normal = new PointF(
-            vertices[4] - vertices[1],
-            vertices[3] - vertices[0]);
-        float normMag = normal.length();
-        normal.x /= normMag;
-        normal.y /= normMag;
+        float deltaX = x2 - x1;
+        float deltaY = y2 - y1;
+        length = (float) Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+        float invLength = 1.0f / length;
+        dirX = deltaX * invLength;
+        dirY = deltaY * invLength;
+        normalX = -dirY;
+        normalY = dirX;
 
         initModel();
     }
@@ -66,7 +87,7 @@ public class Wall extends RenderObject {
     }
 
     @Override
-    protected void doRender(GL10 gl) {
+    protected void doRender(GL10 gl, float alpha) {
         setColor(gl, c_wallColor);
         // NOT calling super.doRender here
 
@@ -77,66 +98,54 @@ public class Wall extends RenderObject {
 
     @Override
     public boolean doesCollide(RenderObject other) {
-        PointF proj = projectOntoWall(other.translation, true);
-        float deltaX = proj.x - other.translation.x;
-        float deltaY = proj.y - other.translation.y;
+        final float otherX = other.getX();
+        final float otherY = other.getY();
+        final float along = projectOntoWall(otherX, otherY, true);
+        float deltaX = vertices[0] + dirX * along - otherX;
+        float deltaY = vertices[1] + dirY * along - otherY;
         float distanceSq = (deltaX * deltaX + deltaY * deltaY);
 
         float radiiSq = getRadius() + other.getRadius();
         radiiSq *= radiiSq;
 
-        if (distanceSq <= radiiSq) {
-            return true;
-        }
-        return false;
+        return distanceSq <= radiiSq;
     }
 
-    public PointF slideAgainst(PointF prevPoint, PointF newPoint, float radius) {
-        PointF prevProjectedPoint = projectOntoWall(prevPoint, false);
-        float prevDistanceToWallX = prevPoint.x - prevProjectedPoint.x;
-        float prevDistanceToWallY = prevPoint.y - prevProjectedPoint.y;
-        float prevDistanceToWall = (float) Math.sqrt(prevDistanceToWallX * prevDistanceToWallX + prevDistanceToWallY * prevDistanceToWallY);
-        if (prevDistanceToWall < radius + getRadius()) {
-            prevDistanceToWall = radius + getRadius();
-        }
-
-        PointF newProjectedPoint = projectOntoWall(newPoint, false);
-
-        float toPrevX = prevPoint.x - vertices[0];
-        float toPrevY = prevPoint.y - vertices[1];
-        float dotPrev = (normal.x * toPrevX + normal.y * toPrevY);
-        if (dotPrev < 0.0f) {
-            normal.negate();
+    /**
+     * Where something of the given radius that moved from prev to new ends up if it
+     * slides along the wall instead: on the side it came from, at least touching
+     * distance away from the wall. Written into out.
+     */
+    public void slideAgainst(float prevX, float prevY, float newX, float newY, float radius, PointF out) {
+        // Signed distance from the wall's line, positive on the normal's side
+        float prevDistanceToWall = normalX * (prevX - vertices[0]) + normalY * (prevY - vertices[1]);
+        float minDistance = radius + getRadius();
+        if (prevDistanceToWall < 0.0f) {
+            if (prevDistanceToWall > -minDistance) {
+                prevDistanceToWall = -minDistance;
+            }
+        } else if (prevDistanceToWall < minDistance) {
+            prevDistanceToWall = minDistance;
         }
 
-        float slideX = newProjectedPoint.x + normal.x * prevDistanceToWall;
-        float slideY = newProjectedPoint.y + normal.y * prevDistanceToWall;
-
-        return new PointF(slideX, slideY);
+        float along = projectOntoWall(newX, newY, false);
+        out.x = vertices[0] + dirX * along + normalX * prevDistanceToWall;
+        out.y = vertices[1] + dirY * along + normalY * prevDistanceToWall;
     }
 
-    private PointF projectOntoWall(PointF pos, boolean clampToSegment) {
-        PointF other = new PointF(pos.x - vertices[0], pos.y - vertices[1]);
-        PointF me = new PointF(vertices[3] - vertices[0], vertices[4] - vertices[1]);
-
-        float otherLen = other.length();
-        float myLen = me.length();
-
-        float dotP = (me.x * other.x + me.y * other.y);
-        dotP /= (myLen * otherLen);
-
-        float newLen = dotP * otherLen;
+    /**
+     * How far along the wall, from its first end, the point is closest to the wall's
+     * line (or, when clamping, to the segment itself).
+     */
+    float projectOntoWall(float x, float y, boolean clampToSegment) {
+        float along = dirX * (x - vertices[0]) + dirY * (y - vertices[1]);
         if (clampToSegment) {
-            if (newLen < 0.0f) {
-                newLen = 0.0f;
-            } else if (newLen > myLen) {
-                newLen = myLen;
+            if (along < 0.0f) {
+                along = 0.0f;
+            } else if (along > length) {
+                along = length;
             }
         }
-
-        float projX = me.x / myLen * newLen + vertices[0];
-        float projY = me.y / myLen * newLen + vertices[1];
-
-        return new PointF(projX, projY);
+        return along;
     }
 }
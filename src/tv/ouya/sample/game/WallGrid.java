@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.List;
+
+/**
+ * The walls of the current level, baked once into a fixed grid when the level is
+ * loaded. Walls never move, so unlike SpatialGrid this never gets rebuilt, and a query
+ * only looks at the cells under the box around its object's path: the cost depends
+ * on how many walls are near the object, not on how many the level has.
+ *
+ * A wall is listed in every cell its segment (thickened by its radius) passes close
+ * to. The lists are packed into one array, cell c owning the range
+ * cellStart[c] .. cellStart[c + 1].
+ */
+public class WallGrid {
+    static public final float CELL_SIZE = 2.0f;
+
+    private final int columns;
+    private final int rows;
+
+    private Wall[] walls = new Wall[0];
+    private float maxWallRadius = 0.0f;
+    private final int[] cellStart;
+    private Wall[] cellWalls = new Wall[0];
+
+    public WallGrid(float width, float height) {
+        columns = Math.max(1, (int) Math.ceil(width / CELL_SIZE));
+        rows = Math.max(1, (int) Math.ceil(height / CELL_SIZE));
+        cellStart = new int[columns * rows + 1];
+    }
+
+    /**
+     * Replaces whatever was baked before. Earlier walls in the list win ties in
+     * sweep().
+     */
+    public void bake(List<Wall> levelWalls) {
+        walls = levelWalls.toArray(new Wall[levelWalls.size()]);
+        maxWallRadius = 0.0f;
+        for (int i = 0; i < walls.length; ++i) {
+            walls[i].staticIndex = i;
+            maxWallRadius = Math.max(maxWallRadius, walls[i].getRadius());
+        }
+
+        // Count first, then fill, so each cell's walls end up next to each other
+        final int[] counts = new int[columns * rows];
+        for (Wall w : walls) {
+            forEachCell(w, counts, null);
+        }
+        cellStart[0] = 0;
+        for (int c = 0; c < counts.length; ++c) {
+            cellStart[c + 1] = cellStart[c] + counts[c];
+            counts[c] = cellStart[c];
+        }
+        cellWalls = new Wall[cellStart[counts.length]];
+        for (Wall w : walls) {
+            forEachCell(w, counts, cellWalls);
+        }
+    }
+
+    public int getWallCount() {
+        return walls.length;
+    }
+
+    public Wall getWall(int index) {
+        return walls[index];
+    }
+
+    /**
+     * Adds a contact to out for every wall an object of obj's radius, moving from
+     * (startX, startY) by (dx, dy), runs into.
+     */
+    public void sweep(RenderObject obj, float startX, float startY, float dx, float dy, ContactBuffer out) {
+        if (walls.length == 0 || (obj.collisionMask & RenderObject.LAYER_WALL) == 0) {
+            return;
+        }
+        final float radius = obj.getRadius();
+        final float reach = radius + maxWallRadius;
+        final int minX = column(Math.min(startX, startX + dx) - reach);
+        final int maxX = column(Math.max(startX, startX + dx) + reach);
+        final int minY = row(Math.min(startY, startY + dy) - reach);
+        final int maxY = row(Math.max(startY, startY + dy) + reach);
+
+        for (int cy = minY; cy <= maxY; ++cy) {
+            for (int cx = minX; cx <= maxX; ++cx) {
+                final int cell = cy * columns + cx;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; ++i) {
+                    final Wall w = cellWalls[i];
+                    if (!RenderObject.canCollide(obj, w)) {
+                        continue;
+                    }
+                    ++out.tests;
+                    final float t = Sweep.circleWall(startX, startY, dx, dy, radius, w);
+                    if (t != Sweep.NO_HIT) {
+                        out.add(obj.liveIndex, obj.type, w.staticIndex, RenderObject.TYPE_WALL, w.staticIndex, t);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the wall into every cell it passes close enough to, or with a target
+     * array, stores it at each cell's next free position.
+     */
+    private void forEachCell(Wall wall, int[] cursors, Wall[] target) {
+        final float[] v = wall.vertices;
+        final float pad = wall.getRadius();
+        final int minX = column(Math.min(v[0], v[3]) - pad);
+        final int maxX = column(Math.max(v[0], v[3]) + pad);
+        final int minY = row(Math.min(v[1], v[4]) - pad);
+        final int maxY = row(Math.max(v[1], v[4]) + pad);
+
+        // A cell is close enough if the segment passes within its circumscribed circle.
+        // The border cells also stand in for everything beyond the board (indices get
+        // clamped), so they take whatever their row or column range covers.
+        final float halfDiagonal = CELL_SIZE * 0.7072f;
+        final float reachSq = (halfDiagonal + pad) * (halfDiagonal + pad);
+        for (int cy = minY; cy <= maxY; ++cy) {
+            for (int cx = minX; cx <= maxX; ++cx) {
+                final float centerX = (cx + 0.5f) * CELL_SIZE;
+                final float centerY = (cy + 0.5f) * CELL_SIZE;
+                final float along = wall.projectOntoWall(centerX, centerY, true);
+                final float deltaX = v[0] + wall.dirX * along - centerX;
+                final float deltaY = v[1] + wall.dirY * along - centerY;
+                final boolean border = cx == 0 || cy == 0 || cx == columns - 1 || cy == rows - 1;
+                if (!border && deltaX * deltaX + deltaY * deltaY > reachSq) {
+                    continue;
+                }
+                final int cell = cy * columns + cx;
+                if (target == null) {
+                    ++cursors[cell];
+                } else {
+                    target[cursors[cell]++] = wall;
+                }
+            }
+        }
+    }
+
+    private int column(float x) {
+        return clamp((int) Math.floor(x / CELL_SIZE), columns);
+    }
+
+    private int row(float y) {
+        return clamp((int) Math.floor(y / CELL_SIZE), rows);
+    }
+
+    static private int clamp(int i, int count) {
+        if (i < 0) {
+            return 0;
+        }
+        if (i >= count) {
+            return count - 1;
+        }
+        return i;
+    }
+}
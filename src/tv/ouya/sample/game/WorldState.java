@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tv.ouya.sample.game;
+
+import java.util.Arrays;
+
+/**
+ * Everything a GameWorld needs to go back to the point between two steps it was saved
+ * at, see GameWorld.saveState() and restoreState().
+ *
+ * The world and its parts each write their fields in turn and read them back in the
+ * same order, into typed arrays that only ever grow, like EntityStore's. Once a state
+ * has been saved into a few times it has room for the world at its peak, so keeping a
+ * ring of them (see RollbackSession) doesn't allocate anything per step.
+ *
+ * Objects are saved by reference. That works because nothing that can come back on
+ * a restore is ever thrown away: players and walls last the whole match, and bullets
+ * and asteroids go back to their pools instead.
+ */
+public class WorldState {
+    static private final int c_initialCapacity = 1024;
+
+    long tick = -1;
+
+    private int[] ints = new int[c_initialCapacity];
+    private long[] longs = new long[c_initialCapacity];
+    private float[] floats = new float[c_initialCapacity];
+    private boolean[] booleans = new boolean[c_initialCapacity];
+    private RenderObject[] objects = new RenderObject[c_initialCapacity];
+
+    // How far writing (or reading) has got into each array
+    private int intCount;
+    private int longCount;
+    private int floatCount;
+    private int booleanCount;
+    private int objectCount;
+
+    /**
+     * The tick the world was about to run when this was saved, -1 if it never was.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Values held, for a rough idea of the size.
+     */
+    public int getValueCount() {
+        return intCount + longCount + floatCount + booleanCount + objectCount;
+    }
+
+    /**
+     * Starts over for writing.
+     */
+    void clear() {
+        // Don't keep objects alive from an older save
+        Arrays.fill(objects, 0, objectCount, null);
+        intCount = 0;
+        longCount = 0;
+        floatCount = 0;
+        booleanCount = 0;
+        objectCount = 0;
+    }
+
+    /**
+     * Goes back to the start for reading. Keeps what was written.
+     */
+    void rewind() {
+        intCount = 0;
+        longCount = 0;
+        floatCount = 0;
+        booleanCount = 0;
+        objectCount = 0;
+    }
+
+    void writeInt(int value) {
+        if (intCount == ints.length) {
+            ints = Arrays.copyOf(ints, ints.length * 2);
+        }
+        ints[intCount++] = value;
+    }
+
+    int readInt() {
+        return ints[intCount++];
+    }
+
+    void writeInts(int[] values, int count) {
+        if (intCount + count > ints.length) {
+            ints = Arrays.copyOf(ints, Math.max(intCount + count, ints.length * 2));
+        }
+        System.arraycopy(values, 0, ints, intCount, count);
+        intCount += count;
+    }
+
+    void readInts(int[] values, int count) {
+        System.arraycopy(ints, intCount, values, 0, count);
+        intCount += count;
+    }
+
+    void writeLong(long value) {
+        if (longCount == longs.length) {
+            longs = Arrays.copyOf(longs, longs.length * 2);
+        }
+        longs[longCount++] = value;
+    }
+
+    long readLong() {
+        return longs[longCount++];
+    }
+
+    void writeFloat(float value) {
+        if (floatCount == floats.length) {
+            floats = Arrays.copyOf(floats, floats.length * 2);
+        }
+        floats[floatCount++] = value;
+    }
+
+    float readFloat() {
+        return floats[floatCount++];
+    }
+
+    void writeFloats(float[] values, int count) {
+        if (floatCount + count > floats.length) {
+            floats = Arrays.copyOf(floats, Math.max(floatCount + count, floats.length * 2));
+        }
+        System.arraycopy(values, 0, floats, floatCount, count);
+        floatCount += count;
+    }
+
+    void readFloats(float[] values, int count) {
+        System.arraycopy(floats, floatCount, values, 0, count);
+        floatCount += count;
+    }
+
+    void writeBoolean(boolean value) {
+        if (booleanCount == booleans.length) {
+            booleans = Arrays.copyOf(booleans, booleans.length * 2);
+        }
+        booleans[booleanCount++] = value;
+    }
+
+    boolean readBoolean() {
+        return booleans[booleanCount++];
+    }
+
+    void writeBooleans(boolean[] values, int count) {
+        if (booleanCount + count > booleans.length) {
+            booleans = Arrays.copyOf(booleans, Math.max(booleanCount + count, booleans.length * 2));
+        }
+        System.arraycopy(values, 0, booleans, booleanCount, count);
+        booleanCount += count;
+    }
+
+    void readBooleans(boolean[] values, int count) {
+        System.arraycopy(booleans, booleanCount, values, 0, count);
+        booleanCount += count;
+    }
+
+    void writeObject(RenderObject value) {
+        if (objectCount == objects.length) {
+            objects = Arrays.copyOf(objects, objects.length * 2);
+        }
+        objects[objectCount++] = value;
+    }
+
+    RenderObject readObject() {
+        return objects[objectCount++];
+    }
+
+    void writeObjects(RenderObject[] values, int count) {
+        if (objectCount + count > objects.length) {
+            objects = Arrays.copyOf(objects, Math.max(objectCount + count, objects.length * 2));
+        }
+        System.arraycopy(values, 0, objects, objectCount, count);
+        objectCount += count;
+    }
+
+    void readObjects(RenderObject[] values, int count) {
+        System.arraycopy(objects, objectCount, values, 0, count);
+        objectCount += count;
+    }
+}